@@ -0,0 +1,15 @@
+package android.content;
+
+import android.os.IInterface;
+import android.os.RemoteException;
+
+/**
+ * Compile-time declaration of the hidden {@code IClipboard} binder interface.
+ * <p>
+ * Only the methods called directly are declared. At runtime, the framework class (loaded by the boot class loader) shadows this one.
+ */
+public interface IClipboard extends IInterface {
+    ClipData getPrimaryClip(String pkg) throws RemoteException;
+
+    void setPrimaryClip(ClipData clip, String callingPackage) throws RemoteException;
+}
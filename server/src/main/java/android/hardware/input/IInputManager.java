@@ -0,0 +1,14 @@
+package android.hardware.input;
+
+import android.os.IInterface;
+import android.os.RemoteException;
+import android.view.InputEvent;
+
+/**
+ * Compile-time declaration of the hidden {@code IInputManager} binder interface.
+ * <p>
+ * Only the methods called directly are declared. At runtime, the framework class (loaded by the boot class loader) shadows this one.
+ */
+public interface IInputManager extends IInterface {
+    boolean injectInputEvent(InputEvent ev, int mode) throws RemoteException;
+}
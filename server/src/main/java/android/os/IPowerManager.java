@@ -0,0 +1,10 @@
+package android.os;
+
+/**
+ * Compile-time declaration of the hidden {@code IPowerManager} binder interface.
+ * <p>
+ * Only the methods called directly are declared. At runtime, the framework class (loaded by the boot class loader) shadows this one.
+ */
+public interface IPowerManager extends IInterface {
+    boolean isInteractive() throws RemoteException;
+}
@@ -0,0 +1,139 @@
+package com.genymobile.scrcpy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reassemble a clipboard text from the chunks produced by {@link ClipboardChunker}.
+ * <p>
+ * The chunks are decompressed and decoded incrementally: only the decoded text is accumulated, never the whole encoded (or compressed)
+ * text.
+ */
+public final class ClipboardAssembler {
+
+    public static final int MAX_TEXT_LENGTH = 16 * 1024 * 1024; // in chars
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer undecoded = ByteBuffer.allocate(BUFFER_SIZE); // in "put" mode
+    private final CharBuffer decoded = CharBuffer.allocate(BUFFER_SIZE);
+
+    private boolean started;
+    private Inflater inflater; // null if the current transfer is not compressed
+    private StringBuilder text;
+
+    /**
+     * Handle a chunk.
+     *
+     * @return the text if this is the last chunk, {@code null} otherwise
+     * @throws IOException if the transfer is invalid (it is then discarded)
+     */
+    public String accept(int flags, byte[] data, int offset, int length) throws IOException {
+        try {
+            if (!started) {
+                start((flags & ClipboardChunker.FLAG_DEFLATE) != 0);
+            }
+            boolean last = (flags & ClipboardChunker.FLAG_LAST) != 0;
+            if (inflater != null) {
+                inflate(data, offset, length);
+                if (last && !inflater.finished()) {
+                    throw new IOException("Truncated compressed clipboard");
+                }
+            } else {
+                decode(data, offset, length, false);
+            }
+            if (!last) {
+                return null;
+            }
+            decode(data, offset, 0, true);
+            String result = text.toString();
+            reset();
+            return result;
+        } catch (IOException e) {
+            reset();
+            throw e;
+        }
+    }
+
+    private void start(boolean deflate) {
+        started = true;
+        inflater = deflate ? new Inflater() : null;
+        text = new StringBuilder();
+        decoder.reset();
+        undecoded.clear();
+    }
+
+    private void reset() {
+        started = false;
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+        text = null;
+    }
+
+    private void inflate(byte[] data, int offset, int length) throws IOException {
+        inflater.setInput(data, offset, length);
+        try {
+            while (!inflater.needsInput() && !inflater.finished()) {
+                int n = inflater.inflate(undecoded.array(), undecoded.position(), undecoded.remaining());
+                undecoded.position(undecoded.position() + n);
+                decodeUndecoded(false);
+                if (n == 0 && inflater.needsDictionary()) {
+                    throw new IOException("Unsupported compressed clipboard (dictionary)");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid compressed clipboard", e);
+        }
+    }
+
+    private void decode(byte[] data, int offset, int length, boolean endOfInput) throws IOException {
+        while (length > 0) {
+            int n = Math.min(length, undecoded.remaining());
+            undecoded.put(data, offset, n);
+            offset += n;
+            length -= n;
+            decodeUndecoded(false);
+        }
+        if (endOfInput) {
+            decodeUndecoded(true);
+        }
+    }
+
+    private void decodeUndecoded(boolean endOfInput) throws IOException {
+        undecoded.flip();
+        CoderResult result;
+        do {
+            result = decoder.decode(undecoded, decoded, endOfInput);
+            drainDecoded();
+        } while (result.isOverflow());
+        if (endOfInput) {
+            while (decoder.flush(decoded).isOverflow()) {
+                drainDecoded();
+            }
+            drainDecoded();
+        }
+        // keep the bytes of an incomplete sequence for the next chunk
+        undecoded.compact();
+    }
+
+    private void drainDecoded() throws IOException {
+        decoded.flip();
+        if (text.length() + decoded.remaining() > MAX_TEXT_LENGTH) {
+            throw new IOException("Clipboard text too big");
+        }
+        text.append(decoded);
+        decoded.clear();
+    }
+}
@@ -0,0 +1,111 @@
+package com.genymobile.scrcpy;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+
+/**
+ * Split a clipboard text into chunks, encoding it (in UTF-8) and optionally compressing it (deflate, zlib format) on the fly.
+ * <p>
+ * Each chunk is sent with flags: {@link #FLAG_DEFLATE} if the transfer is compressed, and {@link #FLAG_LAST} on its last chunk. A new
+ * transfer starts with the chunk following a last chunk. The receiver reassembles the text by {@link ClipboardAssembler}.
+ */
+public final class ClipboardChunker {
+
+    public static final int FLAG_LAST = 1;
+    public static final int FLAG_DEFLATE = 1 << 1;
+
+    private static final int ENCODE_BUFFER_SIZE = 8192;
+
+    private final CharBuffer chars;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private final ByteBuffer encoded = ByteBuffer.allocate(ENCODE_BUFFER_SIZE);
+    private final Deflater deflater; // null if not compressed
+    private boolean inputDone;
+    private boolean finished;
+
+    public ClipboardChunker(String text, boolean deflate) {
+        chars = CharBuffer.wrap(text);
+        deflater = deflate ? new Deflater() : null;
+        // invariant: the encoded buffer is always in "get" mode
+        encoded.limit(0);
+    }
+
+    /**
+     * Encode the next part of the text.
+     *
+     * @return {@code false} if the whole text is already encoded
+     */
+    private boolean fillEncoded() {
+        if (inputDone) {
+            return false;
+        }
+        encoded.clear();
+        CoderResult result = encoder.encode(chars, encoded, true);
+        if (result.isUnderflow()) {
+            // all the chars are consumed
+            encoder.flush(encoded);
+            inputDone = true;
+        }
+        encoded.flip();
+        return true;
+    }
+
+    /**
+     * Write the next chunk.
+     *
+     * @param buffer the destination, its length is the maximum chunk size
+     * @return the chunk length (may be 0 for the last chunk)
+     */
+    public int nextChunk(byte[] buffer) {
+        if (finished) {
+            throw new IllegalStateException("No more chunks");
+        }
+        int length = 0;
+        while (length < buffer.length && !finished) {
+            if (deflater == null) {
+                if (!encoded.hasRemaining() && !fillEncoded()) {
+                    finished = true;
+                    break;
+                }
+                int n = Math.min(encoded.remaining(), buffer.length - length);
+                encoded.get(buffer, length, n);
+                length += n;
+                finished = inputDone && !encoded.hasRemaining();
+            } else {
+                if (deflater.needsInput()) {
+                    if (fillEncoded()) {
+                        // the deflater keeps a reference to the array until it needs more input
+                        deflater.setInput(encoded.array(), 0, encoded.limit());
+                    } else {
+                        deflater.finish();
+                    }
+                }
+                length += deflater.deflate(buffer, length, buffer.length - length);
+                if (deflater.finished()) {
+                    deflater.end();
+                    finished = true;
+                }
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @return the flags of the last chunk returned by {@link #nextChunk(byte[])}
+     */
+    public int getFlags() {
+        int flags = finished ? FLAG_LAST : 0;
+        if (deflater != null) {
+            flags |= FLAG_DEFLATE;
+        }
+        return flags;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+}
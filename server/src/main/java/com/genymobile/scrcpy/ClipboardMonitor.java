@@ -0,0 +1,135 @@
+package com.genymobile.scrcpy;
+
+import android.os.SystemClock;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Push the device clipboard text to the client when it changes.
+ * <p>
+ * Change notifications are coalesced: the clipboard is read at most once per {@link #MIN_INTERVAL_MS}. The text is pushed only if its
+ * hash differs from the last text known by the client (pushed, or set by the client itself).
+ */
+public final class ClipboardMonitor {
+
+    public interface Source {
+        String getText();
+    }
+
+    public interface Listener {
+        void onClipboardTextChanged(String text);
+    }
+
+    interface Clock {
+        long now();
+    }
+
+    static final long MIN_INTERVAL_MS = 200;
+
+    private static final Clock UPTIME_CLOCK = new Clock() {
+        @Override
+        public long now() {
+            return SystemClock.uptimeMillis();
+        }
+    };
+
+    private final Source source;
+    private final Listener listener;
+    private final ScheduledExecutorService scheduler;
+    private final Clock clock;
+
+    private byte[] knownHash; // hash of the last text known by the client
+    private boolean checkPending;
+    private long lastCheck;
+    private boolean stopped;
+
+    private int changeCount;
+    private int pushCount;
+
+    public ClipboardMonitor(Source source, Listener listener, ScheduledExecutorService scheduler) {
+        this(source, listener, scheduler, UPTIME_CLOCK);
+    }
+
+    ClipboardMonitor(Source source, Listener listener, ScheduledExecutorService scheduler, Clock clock) {
+        this.source = source;
+        this.listener = listener;
+        this.scheduler = scheduler;
+        this.clock = clock;
+    }
+
+    static byte[] hash(String text) {
+        if (text == null) {
+            return null;
+        }
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Notify that the clipboard changed, from any thread.
+     */
+    public synchronized void onClipboardChanged() {
+        ++changeCount;
+        if (stopped || checkPending) {
+            // coalesce with the pending check
+            return;
+        }
+        checkPending = true;
+        long delay = Math.max(0, lastCheck + MIN_INTERVAL_MS - clock.now());
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                check();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Read the clipboard and push its text if the client does not know it.
+     */
+    void check() {
+        synchronized (this) {
+            checkPending = false;
+            lastCheck = clock.now();
+            if (stopped) {
+                return;
+            }
+        }
+        String text = source.getText();
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        byte[] textHash = hash(text);
+        synchronized (this) {
+            if (Arrays.equals(textHash, knownHash)) {
+                return;
+            }
+            knownHash = textHash;
+            ++pushCount;
+        }
+        listener.onClipboardTextChanged(text);
+    }
+
+    /**
+     * Notify that the client knows the text (it sent it or requested it), so that it is not pushed.
+     */
+    public void setKnownText(String text) {
+        byte[] textHash = hash(text);
+        synchronized (this) {
+            knownHash = textHash;
+        }
+    }
+
+    public synchronized void stop() {
+        stopped = true;
+        Ln.d("Clipboard: {} changes, {} pushed", changeCount, pushCount);
+    }
+}
@@ -0,0 +1,164 @@
+package com.genymobile.scrcpy;
+
+/**
+ * Map client timestamps to device time.
+ * <p>
+ * Each timestamped control message is a sample: its device receive time minus its client timestamp is the clock offset plus the network
+ * delay. Like the NTP clock filter, only the minimum-delay sample of each interval is kept, the others being delayed by queuing. The offset
+ * and the skew (drift) between the two clocks are then estimated by a linear fit of these minima, lowered so that no minimum is below it.
+ * <p>
+ * The mapped time is thus the earliest time an event could have been received, so that the delays between events are reproduced without
+ * the network jitter. Mapped times never go backwards, nor in the future.
+ * <p>
+ * Client timestamps are unsigned 32-bit values in milliseconds, which may wrap.
+ */
+public final class ClockSync {
+
+    private static final long BUCKET_DURATION_MS = 5000;
+    private static final int BUCKET_COUNT = 48; // 4 minutes
+    private static final int MIN_FIT_BUCKETS = 4;
+    private static final double MAX_SKEW = 500e-6; // quartz oscillators drift by far less than 500 ppm
+
+    private static final long WRAP = 1L << 32;
+
+    // minimum-delay sample of each bucket, in a circular array
+    private final long[] bucketClientTimes = new long[BUCKET_COUNT];
+    private final long[] bucketOffsets = new long[BUCKET_COUNT];
+    private int bucketHead; // index of the current bucket
+    private int bucketSize; // number of valid buckets, including the current one
+    private long bucketStart;
+
+    // estimate: offset(clientTime) = intercept + skew * (clientTime - reference)
+    private long reference;
+    private double intercept;
+    private double skew;
+    private boolean estimated;
+
+    private long lastRawClientTime = -1;
+    private long clientTimeBase; // multiple of 2^32, to unwrap client timestamps
+    private long lastMapped = Long.MIN_VALUE;
+
+    /**
+     * Add a sample.
+     *
+     * @param clientTime the (32-bit) client timestamp of a message
+     * @param deviceTime the device time when the message was received
+     */
+    public synchronized void addSample(long clientTime, long deviceTime) {
+        long time = unwrap(clientTime);
+        long offset = deviceTime - time;
+        if (bucketSize == 0 || time - bucketStart >= BUCKET_DURATION_MS) {
+            if (bucketSize != 0) {
+                bucketHead = (bucketHead + 1) % BUCKET_COUNT;
+            }
+            if (bucketSize < BUCKET_COUNT) {
+                ++bucketSize;
+            }
+            bucketStart = time;
+            bucketClientTimes[bucketHead] = time;
+            bucketOffsets[bucketHead] = offset;
+            fit();
+        } else if (offset < bucketOffsets[bucketHead]) {
+            bucketClientTimes[bucketHead] = time;
+            bucketOffsets[bucketHead] = offset;
+            fit();
+        }
+    }
+
+    private long unwrap(long clientTime) {
+        if (lastRawClientTime != -1 && lastRawClientTime - clientTime > WRAP / 2) {
+            clientTimeBase += WRAP;
+        }
+        lastRawClientTime = clientTime;
+        return clientTimeBase + clientTime;
+    }
+
+    private void fit() {
+        reference = bucketClientTimes[bucketHead];
+        if (bucketSize < MIN_FIT_BUCKETS) {
+            // not enough history to estimate the drift
+            skew = 0;
+            intercept = minOffset();
+            estimated = true;
+            return;
+        }
+
+        // least squares on the bucket minima, relative to the reference to keep the values small
+        double sumX = 0;
+        double sumY = 0;
+        for (int i = 0; i < bucketSize; ++i) {
+            int index = (bucketHead - i + BUCKET_COUNT) % BUCKET_COUNT;
+            sumX += bucketClientTimes[index] - reference;
+            sumY += bucketOffsets[index] - bucketOffsets[bucketHead];
+        }
+        double meanX = sumX / bucketSize;
+        double meanY = sumY / bucketSize;
+        double sxx = 0;
+        double sxy = 0;
+        for (int i = 0; i < bucketSize; ++i) {
+            int index = (bucketHead - i + BUCKET_COUNT) % BUCKET_COUNT;
+            double dx = bucketClientTimes[index] - reference - meanX;
+            double dy = bucketOffsets[index] - bucketOffsets[bucketHead] - meanY;
+            sxx += dx * dx;
+            sxy += dx * dy;
+        }
+        double slope = sxx == 0 ? 0 : sxy / sxx;
+        skew = Math.max(-MAX_SKEW, Math.min(MAX_SKEW, slope));
+
+        // lower the line so that it is below all the minima (the network delay can only add to the offset)
+        double lowest = Double.MAX_VALUE;
+        for (int i = 0; i < bucketSize; ++i) {
+            int index = (bucketHead - i + BUCKET_COUNT) % BUCKET_COUNT;
+            double y = bucketOffsets[index] - skew * (bucketClientTimes[index] - reference);
+            lowest = Math.min(lowest, y);
+        }
+        intercept = lowest;
+        estimated = true;
+    }
+
+    private long minOffset() {
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < bucketSize; ++i) {
+            int index = (bucketHead - i + BUCKET_COUNT) % BUCKET_COUNT;
+            min = Math.min(min, bucketOffsets[index]);
+        }
+        return min;
+    }
+
+    public synchronized boolean isEstimated() {
+        return estimated;
+    }
+
+    /**
+     * @return the estimated clock skew, in parts per million
+     */
+    public synchronized double getSkewPpm() {
+        return skew * 1e6;
+    }
+
+    /**
+     * Map a client timestamp to device time.
+     * <p>
+     * The caller must add the message as a sample before, if it is one.
+     *
+     * @param clientTime the (32-bit) client timestamp of a message
+     * @param now        the current device time
+     * @return the device time, never less than the previous returned value nor greater than {@code now}
+     */
+    public synchronized long toDeviceTime(long clientTime, long now) {
+        long mapped;
+        if (estimated) {
+            long time = clientTimeBase + clientTime;
+            if (clientTime - lastRawClientTime > WRAP / 2) {
+                // timestamp from before the last wrap
+                time -= WRAP;
+            }
+            mapped = time + Math.round(intercept + skew * (time - reference));
+        } else {
+            mapped = now;
+        }
+        mapped = Math.max(lastMapped, Math.min(mapped, now));
+        lastMapped = mapped;
+        return mapped;
+    }
+}
@@ -1,6 +1,5 @@
 package com.genymobile.scrcpy;
 
-import android.os.SystemClock;
 import android.view.MotionEvent;
 
 /**
@@ -16,6 +15,10 @@ public final class ControlMessage {
     public static final int TYPE_COMMAND               = 5;
     public static final int TYPE_SET_CLIPBOARD         = 6;
     public static final int TYPE_SET_SCREEN_POWER_MODE = 7;
+    public static final int TYPE_HEARTBEAT             = 8;
+    public static final int TYPE_RECORDING             = 9;
+    public static final int TYPE_CLIPBOARD_CHUNK       = 10;
+    public static final int TYPE_RECONFIGURE           = 11;
 
     public static final int COMMAND_BACK_OR_SCREEN_ON           = 0;
     public static final int COMMAND_EXPAND_NOTIFICATION_PANEL   = 1;
@@ -26,57 +29,34 @@ public final class ControlMessage {
     public static final int COMMAND_PING                        = 6;
     public static final int COMMAND_GET_CLIPBOARD               = 7;
 
+    public static final int RECORDING_START  = 0;
+    public static final int RECORDING_STOP   = 1;
+    public static final int RECORDING_REPLAY = 2;
+
     public static final int MAX_FINGERS = 10;
 
     private int type;
     private String text;
     private int metaState; // KeyEvent.META_*
-    private int action;    // KeyEvent.ACTION_* or MotionEvent.ACTION_* or COMMAND_* or POWER_MODE_*
+    private int action;    // KeyEvent.ACTION_* or MotionEvent.ACTION_* or COMMAND_* or POWER_MODE_* or ClipboardChunker.FLAG_*
     private int keycode;   // KeyEvent.KEYCODE_*
     private int buttons;   // MotionEvent.BUTTON_*
     private Position position;
     private int hScroll;
     private int vScroll;
     private int fingerId;
-    private final long timestamp;
+    private long clientTime; // raw client timestamp (unsigned 32 bits), see ClockSync
+    private long echoTime;
+    private long echoDelay;
+    private byte[] data;
+    private Reconfiguration reconfiguration;
 
-    private static long referenceTime = 0;
-    private static long lastEvent     = 0;
+    // reception metadata
+    private long sequence;
+    private long receiveTime;
+    private byte[] raw; // as received, only if captured
 
     private ControlMessage() {
-        this.timestamp = SystemClock.uptimeMillis();
-    }
-
-    private ControlMessage(long t) {
-        /*
-            t is actually 32-bit unsigned value, and it wraps in 49.7 days.
-            Here it is presumed that the server will never run continuously
-            for so long time.
-        */
-        long nowLocal = SystemClock.uptimeMillis();
-        long now      = referenceTime+t;
-
-        /*
-            It is important to reproduce real delays between events, but
-            we can't predict network delays.
-        */
-        if (now > nowLocal) {
-            final long delay = now - nowLocal;
-            SystemClock.sleep(delay > 50 ? 50 : delay);
-            now = SystemClock.uptimeMillis();
-            if (delay > 50)
-                referenceTime -= 50;
-        } else {
-            final long delay = nowLocal - now;
-            if (delay > 50) // Too far in the past? Better to be in the future a little bit!
-                referenceTime += 50;
-        }
-
-        if (now < lastEvent) // Make all events subsequent!
-           now = lastEvent;
-
-        this.timestamp = now;
-        lastEvent      = now;
     }
 
     public static ControlMessage createInjectKeycode(int action, int keycode, int metaState) {
@@ -96,31 +76,34 @@ public final class ControlMessage {
     }
 
     public static ControlMessage createInjectMouseEvent(int action, int buttons, Position position, long timestamp) {
-        ControlMessage event = new ControlMessage(timestamp);
+        ControlMessage event = new ControlMessage();
         event.type     = TYPE_INJECT_MOUSE_EVENT;
         event.action   = action;
         event.buttons  = buttons;
         event.position = position;
+        event.clientTime = timestamp;
         return event;
     }
 
     public static ControlMessage createInjectTouchEvent(int action, int fingerId, Position position, long timestamp) {
         if (fingerId < 0 || fingerId >= MAX_FINGERS)
             fingerId = 0;
-        ControlMessage event = new ControlMessage(timestamp);
+        ControlMessage event = new ControlMessage();
         event.type     = TYPE_INJECT_TOUCH_EVENT;
         event.action   = action;
         event.position = position;
         event.fingerId = fingerId;
+        event.clientTime = timestamp;
         return event;
     }
 
     public static ControlMessage createInjectScrollEvent(Position position, int hScroll, int vScroll, long timestamp) {
-        ControlMessage event = new ControlMessage(timestamp);
+        ControlMessage event = new ControlMessage();
         event.type     = TYPE_INJECT_SCROLL_EVENT;
         event.position = position;
         event.hScroll  = hScroll;
         event.vScroll  = vScroll;
+        event.clientTime = timestamp;
         return event;
     }
 
@@ -141,6 +124,38 @@ public final class ControlMessage {
         return event;
     }
 
+    /**
+     * @param action one of the {@code RECORDING_*} constants
+     * @param path   the recording file on the device (ignored by {@link #RECORDING_STOP})
+     */
+    public static ControlMessage createRecording(int action, String path) {
+        ControlMessage event = new ControlMessage();
+        event.type   = TYPE_RECORDING;
+        event.action = action;
+        event.text   = path;
+        return event;
+    }
+
+    /**
+     * Part of a clipboard text (see {@link ClipboardAssembler}).
+     *
+     * @param flags the {@code ClipboardChunker.FLAG_*} of the chunk
+     */
+    public static ControlMessage createClipboardChunk(int flags, byte[] data) {
+        ControlMessage event = new ControlMessage();
+        event.type   = TYPE_CLIPBOARD_CHUNK;
+        event.action = flags;
+        event.data   = data;
+        return event;
+    }
+
+    public static ControlMessage createReconfigure(Reconfiguration reconfiguration) {
+        ControlMessage event = new ControlMessage();
+        event.type            = TYPE_RECONFIGURE;
+        event.reconfiguration = reconfiguration;
+        return event;
+    }
+
     public static ControlMessage createEmpty(int type) {
         ControlMessage event = new ControlMessage();
         event.type = type;
@@ -148,18 +163,80 @@ public final class ControlMessage {
     }
 
     public static ControlMessage createCommandEvent(int action, long timestamp) {
-        if (action == COMMAND_PING) {
-            if (referenceTime == 0)
-               referenceTime = SystemClock.uptimeMillis() - timestamp;
-        }
+        ControlMessage event = new ControlMessage();
+        event.type       = TYPE_COMMAND;
+        event.action     = action;
+        event.clientTime = timestamp;
+        return event;
+    }
 
+    /**
+     * Heartbeat report from the client (see {@link Heartbeat}).
+     *
+     * @param echoTime  the device send time of the last heartbeat echo received by the client, 0 if none
+     * @param echoDelay the time elapsed on the client since it received that echo
+     */
+    public static ControlMessage createHeartbeat(long timestamp, long echoTime, long echoDelay) {
         ControlMessage event = new ControlMessage();
-        event.type   = TYPE_COMMAND;
-        event.action = action;
+        event.type       = TYPE_HEARTBEAT;
+        event.clientTime = timestamp;
+        event.echoTime   = echoTime;
+        event.echoDelay  = echoDelay;
         return event;
     }
 
+    /**
+     * Tell whether the message carries a client timestamp.
+     */
+    public boolean hasClientTime() {
+        switch (type) {
+            case TYPE_INJECT_MOUSE_EVENT:
+            case TYPE_INJECT_TOUCH_EVENT:
+            case TYPE_INJECT_SCROLL_EVENT:
+            case TYPE_COMMAND:
+            case TYPE_HEARTBEAT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    void setReceiveTime(long receiveTime) {
+        this.receiveTime = receiveTime;
+    }
+
+    void setRaw(byte[] raw) {
+        this.raw = raw;
+    }
+
+    /**
+     * @return the index of the message in the control stream, starting at 0
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return the device time when the message was received
+     */
+    public long getReceiveTime() {
+        return receiveTime;
+    }
+
+    /**
+     * @return the message as received in the control stream, or {@code null} if not captured
+     */
+    public byte[] getRaw() {
+        return raw;
+    }
+
     public String getText() { return text; }
+    public byte[] getData() { return data; }
+    public Reconfiguration getReconfiguration() { return reconfiguration; }
     public Position getPosition() { return position; }
     public int  getType()      { return type; }
     public int  getMetaState() { return metaState; }
@@ -169,5 +246,7 @@ public final class ControlMessage {
     public int  getHScroll()   { return hScroll; }
     public int  getVScroll()   { return vScroll; }
     public int  getFingerId()  { return fingerId; }
-    public long getTime()      { return timestamp; }
+    public long getClientTime() { return clientTime; }
+    public long getEchoTime()   { return echoTime; }
+    public long getEchoDelay()  { return echoDelay; }
 }
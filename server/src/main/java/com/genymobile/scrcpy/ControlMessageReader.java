@@ -4,8 +4,18 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.Collection;
 
+/**
+ * Parse control messages from a stream.
+ * <p>
+ * The data is read into a direct buffer, which grows if a message does not fit. A message is consumed only once it is complete: the
+ * reader waits first for its type and fixed-size part, which gives the length of its variable-size part (if any), then for its whole
+ * payload.
+ */
 public class ControlMessageReader {
 
     private static final int INJECT_KEYCODE_PAYLOAD_LENGTH        =  9;
@@ -14,88 +24,217 @@ public class ControlMessageReader {
     private static final int INJECT_SCROLL_EVENT_PAYLOAD_LENGTH   = 24;
     private static final int SET_SCREEN_POWER_MODE_PAYLOAD_LENGTH =  1;
     private static final int COMMAND_PAYLOAD_LENGTH               =  5;
+    private static final int HEARTBEAT_PAYLOAD_LENGTH             = 12;
+    private static final int STRING_MIN_PAYLOAD_LENGTH            =  2;
+    private static final int RECORDING_MIN_PAYLOAD_LENGTH         =  3;
+    private static final int CLIPBOARD_CHUNK_MIN_PAYLOAD_LENGTH   =  3;
+    private static final int RECONFIGURE_PAYLOAD_LENGTH           = 17;
 
     public static final int TEXT_MAX_LENGTH = 300;
     public static final int CLIPBOARD_TEXT_MAX_LENGTH = 4093;
-    private static final int RAW_BUFFER_SIZE = 1024;
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+    // a chunk (type, flags, length and data) fits in the initial buffer
+    public static final int CLIPBOARD_CHUNK_MAX_LENGTH = INITIAL_BUFFER_SIZE - 1 - CLIPBOARD_CHUNK_MIN_PAYLOAD_LENGTH;
 
-    private final byte[] rawBuffer = new byte[RAW_BUFFER_SIZE];
-    private final ByteBuffer buffer = ByteBuffer.wrap(rawBuffer);
-    private final byte[] textBuffer = new byte[CLIPBOARD_TEXT_MAX_LENGTH];
+    // waiting for the type and the fixed-size part of the next message
+    private static final int STATE_HEADER = 0;
+    // waiting for the whole message, its length is known
+    private static final int STATE_MESSAGE = 1;
+
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+    private byte[] textBuffer = new byte[CLIPBOARD_TEXT_MAX_LENGTH];
+    private int state = STATE_HEADER;
+    private int messageLength; // including the type, valid in STATE_MESSAGE
+    private long nextSequence;
+    private boolean captureRaw;
 
     public ControlMessageReader() {
         // invariant: the buffer is always in "get" mode
         buffer.limit(0);
     }
 
+    /**
+     * Keep the raw data of the next messages (see {@link ControlMessage#getRaw()}).
+     */
+    public void setCaptureRaw(boolean captureRaw) {
+        this.captureRaw = captureRaw;
+    }
+
     public boolean isFull() {
-        return buffer.remaining() == rawBuffer.length;
+        return buffer.remaining() == buffer.capacity();
     }
 
     public void readFrom(InputStream input) throws IOException {
+        readFrom(Channels.newChannel(input));
+    }
+
+    /**
+     * Read the available data (at least 1 byte, blocking if the channel is blocking).
+     */
+    public void readFrom(ReadableByteChannel channel) throws IOException {
         if (isFull()) {
+            // the buffer grows as needed, so it is full only if complete messages have not been consumed
             throw new IllegalStateException("Buffer full, call next() to consume");
         }
         buffer.compact();
-        int head = buffer.position();
-        int r = input.read(rawBuffer, head, rawBuffer.length - head);
+        int r = channel.read(buffer);
+        buffer.flip();
         if (r == -1) {
             throw new EOFException("Controller socket closed");
         }
-        buffer.position(head + r);
-        buffer.flip();
     }
 
-    public ControlMessage next() {
-        if (!buffer.hasRemaining()) {
+    /**
+     * Parse all the complete messages available.
+     *
+     * @return the number of messages added
+     */
+    public int drainTo(Collection<ControlMessage> messages) throws IOException {
+        int count = 0;
+        ControlMessage msg;
+        while ((msg = next()) != null) {
+            messages.add(msg);
+            ++count;
+        }
+        return count;
+    }
+
+    /**
+     * Parse the next message.
+     *
+     * @return the message, or {@code null} if it is not complete yet
+     * @throws IOException if the message type is unknown (the stream can not be parsed anymore)
+     */
+    public ControlMessage next() throws IOException {
+        int start = buffer.position();
+        if (state == STATE_HEADER) {
+            if (!buffer.hasRemaining()) {
+                return null;
+            }
+            int type = toUnsigned(buffer.get(start));
+            int fixedLength = getFixedPayloadLength(type);
+            if (fixedLength == -1) {
+                throw new IOException("Unknown control message type: " + type);
+            }
+            int headerLength = 1 + fixedLength;
+            if (buffer.remaining() < headerLength) {
+                ensureCapacity(headerLength);
+                return null;
+            }
+            messageLength = headerLength;
+            if (hasVariableLength(type)) {
+                // the variable length is always at the end of the fixed-size part
+                messageLength += toUnsigned(buffer.getShort(start + headerLength - 2));
+            }
+            state = STATE_MESSAGE;
+        }
+        if (buffer.remaining() < messageLength) {
+            ensureCapacity(messageLength);
             return null;
         }
-        int savedPosition = buffer.position();
+        state = STATE_HEADER;
 
-        int type = buffer.get();
-        ControlMessage msg;
+        ControlMessage msg = parse(toUnsigned(buffer.get()));
+        // the message is complete, its length is authoritative
+        buffer.position(start + messageLength);
+        msg.setSequence(nextSequence++);
+        if (captureRaw) {
+            byte[] raw = new byte[messageLength];
+            buffer.position(start);
+            buffer.get(raw);
+            msg.setRaw(raw);
+        }
+        return msg;
+    }
+
+    private void ensureCapacity(int length) {
+        if (buffer.capacity() >= length) {
+            return;
+        }
+        ByteBuffer newBuffer = ByteBuffer.allocateDirect(Math.max(length, 2 * buffer.capacity()));
+        newBuffer.put(buffer);
+        newBuffer.flip();
+        buffer = newBuffer;
+    }
+
+    /**
+     * @return the length of the fixed-size part of the payload, or -1 if the type is unknown
+     */
+    private static int getFixedPayloadLength(int type) {
         switch (type) {
             case ControlMessage.TYPE_INJECT_KEYCODE:
-                msg = parseInjectKeycode();
-                break;
+                return INJECT_KEYCODE_PAYLOAD_LENGTH;
             case ControlMessage.TYPE_INJECT_TEXT:
-                msg = parseInjectText();
-                break;
+            case ControlMessage.TYPE_SET_CLIPBOARD:
+                return STRING_MIN_PAYLOAD_LENGTH;
             case ControlMessage.TYPE_INJECT_MOUSE_EVENT:
-                msg = parseInjectMouseEvent();
-                break;
+                return INJECT_MOUSE_EVENT_PAYLOAD_LENGTH;
             case ControlMessage.TYPE_INJECT_TOUCH_EVENT:
-                msg = parseInjectTouchEvent();
-                break;
+                return INJECT_TOUCH_PAYLOAD_LENGTH;
             case ControlMessage.TYPE_INJECT_SCROLL_EVENT:
-                msg = parseInjectScrollEvent();
-                break;
-            case ControlMessage.TYPE_SET_CLIPBOARD:
-                msg = parseSetClipboard();
-                break;
+                return INJECT_SCROLL_EVENT_PAYLOAD_LENGTH;
             case ControlMessage.TYPE_COMMAND:
-                msg = parseCommandEvent();
-                break;
+                return COMMAND_PAYLOAD_LENGTH;
             case ControlMessage.TYPE_SET_SCREEN_POWER_MODE:
-                msg = parseSetScreenPowerMode();
-                break;
+                return SET_SCREEN_POWER_MODE_PAYLOAD_LENGTH;
+            case ControlMessage.TYPE_HEARTBEAT:
+                return HEARTBEAT_PAYLOAD_LENGTH;
+            case ControlMessage.TYPE_RECORDING:
+                return RECORDING_MIN_PAYLOAD_LENGTH;
+            case ControlMessage.TYPE_CLIPBOARD_CHUNK:
+                return CLIPBOARD_CHUNK_MIN_PAYLOAD_LENGTH;
+            case ControlMessage.TYPE_RECONFIGURE:
+                return RECONFIGURE_PAYLOAD_LENGTH;
             default:
-                Ln.w("Unknown event type: " + type);
-                msg = null;
-                break;
+                return -1;
         }
+    }
 
-        if (msg == null) {
-            // failure, reset savedPosition
-            buffer.position(savedPosition);
+    private static boolean hasVariableLength(int type) {
+        switch (type) {
+            case ControlMessage.TYPE_INJECT_TEXT:
+            case ControlMessage.TYPE_SET_CLIPBOARD:
+            case ControlMessage.TYPE_RECORDING:
+            case ControlMessage.TYPE_CLIPBOARD_CHUNK:
+                return true;
+            default:
+                return false;
         }
-        return msg;
     }
 
-    private ControlMessage parseInjectKeycode() {
-        if (buffer.remaining() < INJECT_KEYCODE_PAYLOAD_LENGTH) {
-            return null;
+    // the message is complete
+    private ControlMessage parse(int type) {
+        switch (type) {
+            case ControlMessage.TYPE_INJECT_KEYCODE:
+                return parseInjectKeycode();
+            case ControlMessage.TYPE_INJECT_TEXT:
+                return parseInjectText();
+            case ControlMessage.TYPE_INJECT_MOUSE_EVENT:
+                return parseInjectMouseEvent();
+            case ControlMessage.TYPE_INJECT_TOUCH_EVENT:
+                return parseInjectTouchEvent();
+            case ControlMessage.TYPE_INJECT_SCROLL_EVENT:
+                return parseInjectScrollEvent();
+            case ControlMessage.TYPE_SET_CLIPBOARD:
+                return parseSetClipboard();
+            case ControlMessage.TYPE_COMMAND:
+                return parseCommandEvent();
+            case ControlMessage.TYPE_SET_SCREEN_POWER_MODE:
+                return parseSetScreenPowerMode();
+            case ControlMessage.TYPE_HEARTBEAT:
+                return parseHeartbeat();
+            case ControlMessage.TYPE_RECORDING:
+                return parseRecording();
+            case ControlMessage.TYPE_CLIPBOARD_CHUNK:
+                return parseClipboardChunk();
+            case ControlMessage.TYPE_RECONFIGURE:
+                return parseReconfigure();
+            default:
+                throw new AssertionError("Unexpected type: " + type);
         }
+    }
+
+    private ControlMessage parseInjectKeycode() {
         int action = toUnsigned(buffer.get());
         int keycode = buffer.getInt();
         int metaState = buffer.getInt();
@@ -103,12 +242,9 @@ public class ControlMessageReader {
     }
 
     private String parseString() {
-        if (buffer.remaining() < 2) {
-            return null;
-        }
         int len = toUnsigned(buffer.getShort());
-        if (buffer.remaining() < len) {
-            return null;
+        if (textBuffer.length < len) {
+            textBuffer = new byte[len];
         }
         buffer.get(textBuffer, 0, len);
         return new String(textBuffer, 0, len, StandardCharsets.UTF_8);
@@ -116,16 +252,10 @@ public class ControlMessageReader {
 
     private ControlMessage parseInjectText() {
         String text = parseString();
-        if (text == null) {
-            return null;
-        }
         return ControlMessage.createInjectText(text);
     }
 
     private ControlMessage parseInjectMouseEvent() {
-        if (buffer.remaining() < INJECT_MOUSE_EVENT_PAYLOAD_LENGTH) {
-            return null;
-        }
         int action        = toUnsigned(buffer.get());
         int buttons       = buffer.getInt();
         Position position = readPosition(buffer);
@@ -134,9 +264,6 @@ public class ControlMessageReader {
     }
 
     private ControlMessage parseInjectTouchEvent() {
-        if (buffer.remaining() < INJECT_TOUCH_PAYLOAD_LENGTH) {
-            return null;
-        }
         int action        = toUnsigned(buffer.get());
         int touchId       = buffer.getInt();
         Position position = readPosition(buffer);
@@ -145,9 +272,6 @@ public class ControlMessageReader {
     }
 
     private ControlMessage parseInjectScrollEvent() {
-        if (buffer.remaining() < INJECT_SCROLL_EVENT_PAYLOAD_LENGTH) {
-            return null;
-        }
         Position position = readPosition(buffer);
         int hScroll       = buffer.getInt();
         int vScroll       = buffer.getInt();
@@ -157,29 +281,60 @@ public class ControlMessageReader {
 
     private ControlMessage parseSetClipboard() {
         String text = parseString();
-        if (text == null) {
-            return null;
-        }
         return ControlMessage.createSetClipboard(text);
     }
 
     private ControlMessage parseSetScreenPowerMode() {
-        if (buffer.remaining() < SET_SCREEN_POWER_MODE_PAYLOAD_LENGTH) {
-            return null;
-        }
         int mode = buffer.get();
         return ControlMessage.createSetScreenPowerMode(mode);
     }
 
     private ControlMessage parseCommandEvent() {
-        if (buffer.remaining() < COMMAND_PAYLOAD_LENGTH) {
-            return null;
-        }
         int action     = toUnsigned(buffer.get());
         long timestamp = toUnsigned(buffer.getInt());
         return ControlMessage.createCommandEvent(action, timestamp);
     }
 
+    private ControlMessage parseHeartbeat() {
+        long timestamp = toUnsigned(buffer.getInt());
+        long echoTime  = toUnsigned(buffer.getInt());
+        long echoDelay = toUnsigned(buffer.getInt());
+        return ControlMessage.createHeartbeat(timestamp, echoTime, echoDelay);
+    }
+
+    private ControlMessage parseRecording() {
+        int action  = toUnsigned(buffer.get());
+        String path = parseString();
+        return ControlMessage.createRecording(action, path);
+    }
+
+    private ControlMessage parseClipboardChunk() {
+        int flags = toUnsigned(buffer.get());
+        int len = toUnsigned(buffer.getShort());
+        byte[] data = new byte[len];
+        buffer.get(data);
+        return ControlMessage.createClipboardChunk(flags, data);
+    }
+
+    private ControlMessage parseReconfigure() {
+        int fields         = toUnsigned(buffer.get());
+        int bitRate        = buffer.getInt();
+        int maxSize        = toUnsigned(buffer.getShort()) & ~7; // multiple of 8
+        int iFrameInterval = toUnsigned(buffer.getShort());
+        int cropX          = toUnsigned(buffer.getShort());
+        int cropY          = toUnsigned(buffer.getShort());
+        int cropWidth      = toUnsigned(buffer.getShort());
+        int cropHeight     = toUnsigned(buffer.getShort());
+        // an empty crop disables cropping
+        Reconfiguration reconfiguration = new Reconfiguration(fields & Reconfiguration.CLIENT_FIELDS, bitRate, maxSize, iFrameInterval, 0,
+                cropX, cropY, cropWidth, cropHeight);
+        if (!reconfiguration.isValid()) {
+            // rejected by the encoder, which replies with a failure
+            Ln.w("Invalid reconfiguration: " + reconfiguration);
+        }
+        return ControlMessage.createReconfigure(reconfiguration);
+    }
+
     private static Position readPosition(ByteBuffer buffer) {
         int x = buffer.getInt();
         int y = buffer.getInt();
@@ -200,6 +355,6 @@ public class ControlMessageReader {
 
     @SuppressWarnings("checkstyle:MagicNumber")
     private static long toUnsigned(int value) {
-        return ((long)value) & 0xffffffff;
+        return ((long)value) & 0xffffffffL;
     }
 }
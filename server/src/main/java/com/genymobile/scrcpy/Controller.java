@@ -2,6 +2,7 @@ package com.genymobile.scrcpy;
 
 import com.genymobile.scrcpy.wrappers.InputManager;
 
+import android.content.IOnPrimaryClipChangedListener;
 import android.os.SystemClock;
 import android.view.InputDevice;
 import android.view.InputEvent;
@@ -10,15 +11,46 @@ import android.view.KeyEvent;
 import android.view.MotionEvent;
 
 import java.io.IOException;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 public class Controller {
 
-    private boolean Running = true;
+    private volatile boolean Running = true;
     private final Device device;
     private final DesktopConnection connection;
     private final DeviceMessageSender sender;
+    private final ScreenEncoder screenEncoder;
+    private final Heartbeat heartbeat;
+    private final ClockSync clockSync = new ClockSync();
+    private final InputJitterBuffer jitterBuffer; // null if motion events are injected immediately
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "scrcpy-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    // if injections are acknowledged, they wait for the result on this (single, to keep the order) worker thread
+    private final ExecutorService injectionExecutor;
+    private final int injectMode;
+    private final LatencyHistogram injectionLatency = new LatencyHistogram("ms"); // from reception to completion
+    private final LatencyHistogram injectionDuration = new LatencyHistogram("us");
+
+    private final ClipboardMonitor clipboardMonitor; // null if the clipboard is only sent on request
+    private final ClipboardAssembler clipboardAssembler = new ClipboardAssembler();
+    private IOnPrimaryClipChangedListener clipboardListener; // null if not registered
+
+    private InputRecorder recorder; // null if not recording
+    private Thread replayThread;
+    // the live input is ignored during a replay, so that the two streams do not mix their pointers
+    private volatile boolean replaying;
 
     private final KeyCharacterMap charMap = KeyCharacterMap.load(KeyCharacterMap.VIRTUAL_KEYBOARD);
 
@@ -31,14 +63,65 @@ public class Controller {
     private final MotionEvent.PointerCoords[] touchPointerCoords = new MotionEvent.PointerCoords[ControlMessage.MAX_FINGERS];
     private final Point[] touchPoints = new Point[ControlMessage.MAX_FINGERS];
 
-    private long lastEventTime = SystemClock.uptimeMillis();
-
     private final IME ime = new IME();
 
-    public Controller(Device device, DesktopConnection connection) {
+    public Controller(final Device device, final DesktopConnection connection, ScreenEncoder screenEncoder, Options options) {
         this.device     = device;
         this.connection = connection;
-        this.sender     = new DeviceMessageSender(connection);
+        this.screenEncoder = screenEncoder;
+        this.sender     = new DeviceMessageSender(new DeviceMessageSender.Output() {
+            @Override
+            public void send(List<DeviceMessage> messages) throws IOException {
+                connection.sendDeviceMessages(messages);
+            }
+        }, options.getClipboardChunks(), options.getClipboardDeflate());
+        this.heartbeat  = new Heartbeat(sender, options.getHeartbeat());
+        if (options.getInputBuffer()) {
+            jitterBuffer = new InputJitterBuffer(new InputJitterBuffer.Injector() {
+                @Override
+                public void inject(ControlMessage msg, long eventTime) {
+                    handleInput(msg, eventTime);
+                }
+            });
+        } else {
+            jitterBuffer = null;
+        }
+        if (options.getClipboardAutosync()) {
+            clipboardMonitor = new ClipboardMonitor(new ClipboardMonitor.Source() {
+                @Override
+                public String getText() {
+                    return device.getClipboardText();
+                }
+            }, new ClipboardMonitor.Listener() {
+                @Override
+                public void onClipboardTextChanged(String text) {
+                    sender.pushClipboardText(text);
+                }
+            }, scheduler);
+        } else {
+            clipboardMonitor = null;
+        }
+        if (options.getInjectAck()) {
+            injectionExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    return new Thread(r, "scrcpy-inject");
+                }
+            });
+            injectMode = InputManager.INJECT_INPUT_EVENT_MODE_WAIT_FOR_RESULT;
+        } else {
+            injectionExecutor = null;
+            injectMode = InputManager.INJECT_INPUT_EVENT_MODE_ASYNC;
+        }
+        screenEncoder.setReconfigurationListener(new ScreenEncoder.ReconfigurationListener() {
+            @Override
+            public void onReconfigured(Reconfiguration reconfiguration, boolean result, int bitRate, Size videoSize, int iFrameInterval) {
+                // the server side fields are not part of the protocol
+                int fields = reconfiguration.getFields() & Reconfiguration.CLIENT_FIELDS;
+                sender.push(DeviceMessage.createReconfigured(fields, result, bitRate, videoSize, iFrameInterval),
+                        DeviceMessageSender.PRIORITY_NORMAL, null);
+            }
+        });
         initPointers();
     }
 
@@ -94,19 +177,22 @@ public class Controller {
             SystemClock.sleep(500);
         }
 
-        final Timer timer = new Timer();
-        timer.scheduleAtFixedRate(new TimerTask() {
+        heartbeat.start(scheduler, new Runnable() {
             @Override
             public void run() {
-                final long last = lastEventTime;
-                final long now  = SystemClock.uptimeMillis();
-                if (now - last > 6000) {
-                    Ln.i("Inactivity timeout, quit");
-                    Running = false;
-                    connection.close();
-                }
+                Running = false;
+                connection.close();
             }
-        }, 10000, 1000);
+        });
+
+        if (clipboardMonitor != null) {
+            startClipboardMonitor();
+        }
+
+        Thread jitterBufferThread = null;
+        if (jitterBuffer != null) {
+            jitterBufferThread = startJitterBuffer();
+        }
 
         try {
             while (Running) {
@@ -115,48 +201,329 @@ public class Controller {
         } catch (Exception e) {
         }
 
-        timer.cancel();
+        stopRecording();
+        if (replayThread != null) {
+            replayThread.interrupt();
+        }
+        if (jitterBufferThread != null) {
+            jitterBufferThread.interrupt();
+            try {
+                jitterBufferThread.join();
+            } catch (InterruptedException e) {
+                // ignore
+            }
+            int flushed = jitterBuffer.flush();
+            if (flushed > 0) {
+                Ln.d("Input jitter buffer: {} events flushed on close", flushed);
+            }
+            Ln.i("Input jitter buffer: {}", jitterBuffer.getStats());
+        }
+        if (injectionExecutor != null) {
+            stopInjectionExecutor();
+        }
+        if (clipboardListener != null) {
+            // it would outlive the connection
+            device.removeClipboardListener(clipboardListener);
+            clipboardListener = null;
+        }
+        if (clipboardMonitor != null) {
+            clipboardMonitor.stop();
+        }
+        heartbeat.stop();
+        scheduler.shutdown();
         ime.Finish();
         sender.stop();
     }
 
+    private void startClipboardMonitor() {
+        IOnPrimaryClipChangedListener listener = new IOnPrimaryClipChangedListener.Stub() {
+            @Override
+            public void dispatchPrimaryClipChanged() {
+                clipboardMonitor.onClipboardChanged();
+            }
+        };
+        if (device.addClipboardListener(listener)) {
+            clipboardListener = listener;
+        } else {
+            Ln.w("Device clipboard changes will not be pushed");
+        }
+    }
+
+    private Thread startJitterBuffer() {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    jitterBuffer.loop();
+                } catch (InterruptedException e) {
+                    // expected on close
+                }
+            }
+        }, "scrcpy-input");
+        thread.start();
+        return thread;
+    }
+
+    private void stopInjectionExecutor() {
+        injectionExecutor.shutdown();
+        try {
+            injectionExecutor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            // ignore
+        }
+        Ln.i("Injection latency: {}", injectionLatency);
+        Ln.i("Injection duration: {}", injectionDuration);
+    }
+
     public DeviceMessageSender getSender() {
         return sender;
     }
 
+    public Heartbeat getHeartbeat() {
+        return heartbeat;
+    }
+
     private void handleEvent() throws IOException {
         ControlMessage msg = connection.receiveControlMessage();
-        lastEventTime = SystemClock.uptimeMillis();
+        long receiveTime = msg.getReceiveTime();
+        heartbeat.onMessageReceived();
+        long eventTime = receiveTime;
+        if (msg.hasClientTime()) {
+            clockSync.addSample(msg.getClientTime(), receiveTime);
+            eventTime = clockSync.toDeviceTime(msg.getClientTime(), receiveTime);
+        }
+        if (recorder != null && InputRecorder.isRecordable(msg)) {
+            record(msg, eventTime);
+        }
         switch (msg.getType()) {
             case ControlMessage.TYPE_INJECT_KEYCODE:
-                injectKeycode(msg.getAction(), msg.getKeycode(), msg.getMetaState(), msg.getTime());
-                break;
             case ControlMessage.TYPE_INJECT_TEXT:
-                injectText(msg.getText());
+                handleInput(msg, eventTime);
                 break;
             case ControlMessage.TYPE_INJECT_MOUSE_EVENT:
-                injectMouse(msg.getAction(), msg.getButtons(), msg.getPosition(), msg.getTime());
-                break;
             case ControlMessage.TYPE_INJECT_TOUCH_EVENT:
-                injectTouch(msg.getAction(), msg.getPosition(), msg.getFingerId(), msg.getTime());
-                break;
             case ControlMessage.TYPE_INJECT_SCROLL_EVENT:
-                injectScroll(msg.getPosition(), msg.getHScroll(), msg.getVScroll(), msg.getTime());
+                if (jitterBuffer != null) {
+                    // key events bypass the buffer
+                    jitterBuffer.push(msg, msg.getClientTime(), eventTime, receiveTime);
+                } else {
+                    handleInput(msg, eventTime);
+                }
                 break;
             case ControlMessage.TYPE_COMMAND:
+                if (msg.getAction() == ControlMessage.COMMAND_PING) {
+                    heartbeat.onPing(msg.getClientTime(), receiveTime);
+                }
                 executeCommand(msg.getAction());
                 break;
             case ControlMessage.TYPE_SET_CLIPBOARD:
-                device.setClipboardText(msg.getText());
+                setClipboardText(msg.getText());
+                break;
+            case ControlMessage.TYPE_CLIPBOARD_CHUNK:
+                handleClipboardChunk(msg.getAction(), msg.getData());
                 break;
             case ControlMessage.TYPE_SET_SCREEN_POWER_MODE:
-                device.setScreenPowerMode(msg.getAction());
+                setScreenPowerMode(msg.getAction());
+                break;
+            case ControlMessage.TYPE_HEARTBEAT:
+                heartbeat.onReport(msg.getClientTime(), msg.getEchoTime(), msg.getEchoDelay(), receiveTime);
+                break;
+            case ControlMessage.TYPE_RECORDING:
+                handleRecording(msg.getAction(), msg.getText());
+                break;
+            case ControlMessage.TYPE_RECONFIGURE:
+                screenEncoder.reconfigure(msg.getReconfiguration());
                 break;
             default:
                 // do nothing
         }
     }
 
+    private void handleRecording(int action, String path) {
+        switch (action) {
+            case ControlMessage.RECORDING_START:
+                stopRecording();
+                try {
+                    recorder = InputRecorder.open(path);
+                    connection.setControlMessageCapture(true);
+                    Ln.i("Recording input to {}", path);
+                } catch (IOException e) {
+                    Ln.e("Could not record input to " + path, e);
+                }
+                break;
+            case ControlMessage.RECORDING_STOP:
+                stopRecording();
+                break;
+            case ControlMessage.RECORDING_REPLAY:
+                startReplay(path);
+                break;
+            default:
+                Ln.w("Unsupported recording action: {}", action);
+        }
+    }
+
+    private void record(ControlMessage msg, long eventTime) {
+        try {
+            recorder.record(msg, eventTime);
+        } catch (IOException e) {
+            Ln.e("Could not record input", e);
+            stopRecording();
+        }
+    }
+
+    private void stopRecording() {
+        if (recorder == null) {
+            return;
+        }
+        connection.setControlMessageCapture(false);
+        try {
+            recorder.close();
+            Ln.i("{} messages recorded", recorder.getCount());
+        } catch (IOException e) {
+            Ln.e("Could not close the input recording", e);
+        }
+        recorder = null;
+    }
+
+    private void startReplay(final String path) {
+        if (replayThread != null && replayThread.isAlive()) {
+            Ln.w("A replay is already running, ignored");
+            return;
+        }
+        final InputReplayer replayer = new InputReplayer(new InputReplayer.Injector() {
+            @Override
+            public void inject(ControlMessage msg, long eventTime) {
+                handleReplayedMessage(msg, eventTime);
+            }
+        });
+        replaying = true;
+        Ln.i("Live input ignored during the replay");
+        replayThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    int count = replayer.replay(path);
+                    Ln.i("{} messages replayed from {}", count, path);
+                } catch (IOException e) {
+                    Ln.e("Could not replay " + path, e);
+                } catch (InterruptedException e) {
+                    // stopped
+                } finally {
+                    replaying = false;
+                }
+            }
+        }, "scrcpy-replay");
+        replayThread.start();
+    }
+
+    /**
+     * Called on the replay thread. The replayed messages take the same lock as the live ones.
+     */
+    private void handleReplayedMessage(ControlMessage msg, long eventTime) {
+        switch (msg.getType()) {
+            case ControlMessage.TYPE_INJECT_KEYCODE:
+            case ControlMessage.TYPE_INJECT_TEXT:
+            case ControlMessage.TYPE_INJECT_MOUSE_EVENT:
+            case ControlMessage.TYPE_INJECT_TOUCH_EVENT:
+            case ControlMessage.TYPE_INJECT_SCROLL_EVENT:
+                // the timing is already right, bypass the jitter buffer (and the acknowledgment, the client did not send them)
+                injectInput(msg, eventTime);
+                break;
+            case ControlMessage.TYPE_COMMAND:
+                executeCommand(msg.getAction());
+                break;
+            case ControlMessage.TYPE_SET_CLIPBOARD:
+                setClipboardText(msg.getText());
+                break;
+            case ControlMessage.TYPE_SET_SCREEN_POWER_MODE:
+                setScreenPowerMode(msg.getAction());
+                break;
+            default:
+                // not recorded
+        }
+    }
+
+    private void handleClipboardChunk(int flags, byte[] data) {
+        try {
+            String text = clipboardAssembler.accept(flags, data, 0, data.length);
+            if (text != null) {
+                setClipboardText(text);
+            }
+        } catch (IOException e) {
+            Ln.w("Invalid clipboard transfer: {}", e.getMessage());
+        }
+    }
+
+    // synchronized: live and replayed messages may be handled concurrently
+    private synchronized void setScreenPowerMode(int mode) {
+        // the display should change, the encoder must produce frames
+        screenEncoder.onDisplayActivity();
+        device.setScreenPowerMode(mode);
+    }
+
+    // synchronized: live and replayed messages may be handled concurrently
+    private synchronized void setClipboardText(String text) {
+        // the system may show a clipboard overlay
+        screenEncoder.onDisplayActivity();
+        if (clipboardMonitor != null) {
+            // do not push back the text received from the client
+            clipboardMonitor.setKnownText(text);
+        }
+        device.setClipboardText(text);
+    }
+
+    private void handleInput(final ControlMessage msg, final long eventTime) {
+        if (replaying) {
+            if (injectionExecutor != null) {
+                // the client waits for the acknowledgment
+                sender.pushInjectAck(msg.getSequence(), msg.getReceiveTime(), SystemClock.uptimeMillis(), false);
+            }
+            return;
+        }
+        if (injectionExecutor == null) {
+            injectInput(msg, eventTime);
+            return;
+        }
+        injectionExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                boolean result = injectInput(msg, eventTime);
+                long completeTime = SystemClock.uptimeMillis();
+                injectionDuration.add(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+                injectionLatency.add(completeTime - msg.getReceiveTime());
+                sender.pushInjectAck(msg.getSequence(), msg.getReceiveTime(), completeTime, result);
+            }
+        });
+    }
+
+    // synchronized: live and replayed messages may be handled concurrently
+    private synchronized boolean injectInput(ControlMessage msg, long eventTime) {
+        // the display should change, the encoder must produce frames
+        screenEncoder.onDisplayActivity();
+        switch (msg.getType()) {
+            case ControlMessage.TYPE_INJECT_KEYCODE:
+                return injectKeycode(msg.getAction(), msg.getKeycode(), msg.getMetaState(), eventTime);
+            case ControlMessage.TYPE_INJECT_TEXT:
+                return injectText(msg.getText()) == msg.getText().length();
+            default:
+                return injectMotion(msg, eventTime);
+        }
+    }
+
+    private boolean injectMotion(ControlMessage msg, long eventTime) {
+        switch (msg.getType()) {
+            case ControlMessage.TYPE_INJECT_MOUSE_EVENT:
+                return injectMouse(msg.getAction(), msg.getButtons(), msg.getPosition(), eventTime);
+            case ControlMessage.TYPE_INJECT_TOUCH_EVENT:
+                return injectTouch(msg.getAction(), msg.getPosition(), msg.getFingerId(), eventTime);
+            case ControlMessage.TYPE_INJECT_SCROLL_EVENT:
+                return injectScroll(msg.getPosition(), msg.getHScroll(), msg.getVScroll(), eventTime);
+            default:
+                return false;
+        }
+    }
+
     private boolean injectKeycode(int action, int keycode, int metaState, long now) {
         return injectKeyEvent(action, keycode, 0, metaState, now);
     }
@@ -265,7 +632,7 @@ public class Controller {
     }
 
     private boolean injectEvent(InputEvent event) {
-        return device.injectInputEvent(event, InputManager.INJECT_INPUT_EVENT_MODE_ASYNC);
+        return device.injectInputEvent(event, injectMode);
     }
 
     private boolean turnScreenOn() {
@@ -281,7 +648,25 @@ public class Controller {
         return injectKeycode(keycode);
     }
 
-    private boolean executeCommand(int action) {
+    private static boolean changesDisplay(int action) {
+        switch (action) {
+            case ControlMessage.COMMAND_BACK_OR_SCREEN_ON:
+            case ControlMessage.COMMAND_EXPAND_NOTIFICATION_PANEL:
+            case ControlMessage.COMMAND_COLLAPSE_NOTIFICATION_PANEL:
+            case ControlMessage.COMMAND_TO_PORTRAIT:
+            case ControlMessage.COMMAND_TO_LANDSCAPE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // synchronized: live and replayed messages may be handled concurrently
+    private synchronized boolean executeCommand(int action) {
+        if (changesDisplay(action)) {
+            // the display should change, the encoder must produce frames
+            screenEncoder.onDisplayActivity();
+        }
         switch (action) {
             case ControlMessage.COMMAND_BACK_OR_SCREEN_ON:
                 return pressBackOrTurnScreenOn();
@@ -305,10 +690,13 @@ public class Controller {
                 return true;
             case ControlMessage.COMMAND_GET_CLIPBOARD:
                 String clipboardText = device.getClipboardText();
+                if (clipboardMonitor != null) {
+                    clipboardMonitor.setKnownText(clipboardText);
+                }
                 sender.pushClipboardText(clipboardText);
                 break;
             default:
-                Ln.w("Unsupported command: " + action);
+                Ln.w("Unsupported command: {}", action);
         }
         return false;
     }
@@ -3,18 +3,21 @@ package com.genymobile.scrcpy;
 import android.net.LocalServerSocket;
 import android.net.LocalSocket;
 import android.net.LocalSocketAddress;
+import android.os.SystemClock;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
 
 public final class DesktopConnection implements Closeable {
 
@@ -27,11 +30,12 @@ public final class DesktopConnection implements Closeable {
 
     private final LocalSocket   localControlSocket;
     private final SocketChannel tcpControlSocket;
-    private final InputStream   controlInputStream;
-    private final OutputStream  controlOutputStream;
+    private final ReadableByteChannel controlInputChannel;
+    private final WritableByteChannel controlOutputChannel;
 
     private final ControlMessageReader reader = new ControlMessageReader();
     private final DeviceMessageWriter  writer = new DeviceMessageWriter();
+    private final Queue<ControlMessage> receivedMessages = new ArrayDeque<>();
 
 
     private DesktopConnection(LocalSocket videoSocket, LocalSocket controlSocket) throws IOException {
@@ -41,8 +45,8 @@ public final class DesktopConnection implements Closeable {
         this.localControlSocket = controlSocket;
         this.tcpControlSocket   = null;
 
-        this.controlInputStream  = controlSocket.getInputStream();
-        this.controlOutputStream = controlSocket.getOutputStream();
+        this.controlInputChannel  = Channels.newChannel(controlSocket.getInputStream());
+        this.controlOutputChannel = Channels.newChannel(controlSocket.getOutputStream());
     }
 
     private DesktopConnection(SocketChannel videoSocket, SocketChannel controlSocket) throws IOException {
@@ -52,8 +56,8 @@ public final class DesktopConnection implements Closeable {
         this.localControlSocket = null;
         this.tcpControlSocket   = controlSocket;
 
-        this.controlInputStream  = controlSocket.socket().getInputStream();
-        this.controlOutputStream = controlSocket.socket().getOutputStream();
+        this.controlInputChannel  = controlSocket;
+        this.controlOutputChannel = controlSocket;
     }
 
     private static LocalSocket connect(final String abstractName) throws IOException {
@@ -180,16 +184,34 @@ public final class DesktopConnection implements Closeable {
         }
     }
 
+    /**
+     * Keep the raw data of the next control messages received (to record them).
+     */
+    public void setControlMessageCapture(boolean capture) {
+        reader.setCaptureRaw(capture);
+    }
+
     public ControlMessage receiveControlMessage() throws IOException {
-        ControlMessage msg = reader.next();
-        while (msg == null) {
-            reader.readFrom(controlInputStream);
-            msg = reader.next();
+        while (receivedMessages.isEmpty()) {
+            reader.readFrom(controlInputChannel);
+            // all the messages parsed from a single read were received at the same time
+            long receiveTime = SystemClock.uptimeMillis();
+            reader.drainTo(receivedMessages);
+            for (ControlMessage msg : receivedMessages) {
+                msg.setReceiveTime(receiveTime);
+            }
         }
-        return msg;
+        return receivedMessages.poll();
     }
 
     public void sendDeviceMessage(DeviceMessage msg) throws IOException {
-        writer.writeTo(msg, controlOutputStream);
+        writer.writeTo(msg, controlOutputChannel);
+    }
+
+    /**
+     * Send several device messages, in as few writes as possible.
+     */
+    public void sendDeviceMessages(List<DeviceMessage> messages) throws IOException {
+        writer.writeTo(messages, controlOutputChannel);
     }
 }
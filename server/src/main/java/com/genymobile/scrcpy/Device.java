@@ -3,6 +3,7 @@ package com.genymobile.scrcpy;
 import com.genymobile.scrcpy.wrappers.ServiceManager;
 import com.genymobile.scrcpy.wrappers.SurfaceControl;
 
+import android.content.IOnPrimaryClipChangedListener;
 import android.graphics.Rect;
 import android.os.Build;
 import android.os.IBinder;
@@ -15,17 +16,26 @@ public final class Device {
     public static final int POWER_MODE_OFF = SurfaceControl.POWER_MODE_OFF;
     public static final int POWER_MODE_NORMAL = SurfaceControl.POWER_MODE_NORMAL;
 
+    // the size ladder stops there
+    private static final int MIN_VIDEO_SIZE = 320;
+
     public interface RotationListener {
         void onRotationChanged(int rotation);
     }
 
-    private final ServiceManager serviceManager = new ServiceManager();
+    private final ServiceManager serviceManager = ServiceManager.getInstance();
 
     private ScreenInfo screenInfo;
     private RotationListener rotationListener;
+    private Rect crop;
+    private int maxSize;
+    private VideoConstraints videoConstraints; // null if unknown
+    private int sizeLimit; // set when the encoder rejected a bigger size, 0 for no limit
 
     public Device(Options options) {
-        screenInfo = computeScreenInfo(options.getCrop(), options.getMaxSize());
+        crop = options.getCrop();
+        maxSize = options.getMaxSize();
+        screenInfo = computeScreenInfo();
         registerRotationWatcher(new IRotationWatcher.Stub() {
             @Override
             public void onRotationChanged(int rotation) throws RemoteException {
@@ -45,7 +55,58 @@ public final class Device {
         return screenInfo;
     }
 
-    private ScreenInfo computeScreenInfo(Rect crop, int maxSize) {
+    /**
+     * Change the geometry of the video (the new screen info is used by the next capture).
+     *
+     * @param newCrop    the crop in the natural orientation, {@code null} for no crop
+     * @param newMaxSize the maximum video size (multiple of 8), 0 for no limit
+     */
+    public synchronized void setGeometry(Rect newCrop, int newMaxSize) {
+        crop = newCrop;
+        maxSize = newMaxSize;
+        // a new size may be accepted
+        sizeLimit = 0;
+        screenInfo = computeScreenInfo();
+    }
+
+    /**
+     * Select the video size among the sizes supported by the encoder (to be called before the video size is sent to the client).
+     */
+    public synchronized void setVideoConstraints(VideoConstraints constraints) {
+        videoConstraints = constraints;
+        screenInfo = computeScreenInfo();
+    }
+
+    /**
+     * Reduce the video size, after the encoder rejected the current one.
+     *
+     * @return false if the video size may not be reduced anymore
+     */
+    public synchronized boolean reduceVideoSize() {
+        Size videoSize = screenInfo.getVideoSize();
+        int limit = getSmallerMaxSize(Math.max(videoSize.getWidth(), videoSize.getHeight()));
+        if (limit == 0) {
+            return false;
+        }
+        sizeLimit = limit;
+        screenInfo = computeScreenInfo();
+        return true;
+    }
+
+    public synchronized Rect getCrop() {
+        return crop;
+    }
+
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    private ScreenInfo computeScreenInfo() {
+        int limit = sizeLimit != 0 && (maxSize == 0 || sizeLimit < maxSize) ? sizeLimit : maxSize;
+        return computeScreenInfo(crop, limit, videoConstraints);
+    }
+
+    private ScreenInfo computeScreenInfo(Rect crop, int maxSize, VideoConstraints constraints) {
         DisplayInfo displayInfo = serviceManager.getDisplayManager().getDisplayInfo();
         boolean rotated = (displayInfo.getRotation() & 1) != 0;
         Size deviceSize = displayInfo.getSize();
@@ -62,7 +123,7 @@ public final class Device {
             }
         }
 
-        Size videoSize = computeVideoSize(contentRect.width(), contentRect.height(), maxSize);
+        Size videoSize = computeVideoSize(contentRect.width(), contentRect.height(), maxSize, constraints);
         return new ScreenInfo(contentRect, videoSize, rotated);
     }
 
@@ -70,15 +131,39 @@ public final class Device {
         return rect.width() + ":" + rect.height() + ":" + rect.left + ":" + rect.top;
     }
 
+    /**
+     * Compute the video size, reducing it until the encoder supports it.
+     */
+    static Size computeVideoSize(int w, int h, int maxSize, VideoConstraints constraints) {
+        if (constraints == null) {
+            return computeVideoSize(w, h, maxSize, 8, 8);
+        }
+        // H.264 only accepts multiples of 8, the encoder may require more
+        int widthAlignment = Math.max(8, constraints.getWidthAlignment());
+        int heightAlignment = Math.max(8, constraints.getHeightAlignment());
+        int limit = maxSize;
+        while (true) {
+            Size size = computeVideoSize(w, h, limit, widthAlignment, heightAlignment);
+            if (constraints.isSupported(size.getWidth(), size.getHeight())) {
+                return size;
+            }
+            limit = getSmallerMaxSize(Math.max(size.getWidth(), size.getHeight()));
+            if (limit == 0) {
+                Ln.w("No supported video size found, use " + size.getWidth() + "x" + size.getHeight());
+                return size;
+            }
+        }
+    }
+
     @SuppressWarnings("checkstyle:MagicNumber")
-    private static Size computeVideoSize(int w, int h, int maxSize) {
+    private static Size computeVideoSize(int w, int h, int maxSize, int widthAlignment, int heightAlignment) {
         // Compute the video size and the padding of the content inside this video.
         // Principle:
         // - scale down the great side of the screen to maxSize (if necessary);
         // - scale down the other side so that the aspect ratio is preserved;
-        // - round this value to the nearest multiple of 8 (H.264 only accepts multiples of 8)
-        w &= ~7; // in case it's not a multiple of 8
-        h &= ~7;
+        // - round this value to the nearest multiple of the alignment (at least 8, H.264 only accepts multiples of 8)
+        w -= w % widthAlignment; // in case it's not a multiple of the alignment
+        h -= h % heightAlignment;
         if (maxSize > 0) {
             if (BuildConfig.DEBUG && maxSize % 8 != 0) {
                 throw new AssertionError("Max size must be a multiple of 8");
@@ -86,11 +171,13 @@ public final class Device {
             boolean portrait = h > w;
             int major = portrait ? h : w;
             int minor = portrait ? w : h;
+            int majorAlignment = portrait ? heightAlignment : widthAlignment;
+            int minorAlignment = portrait ? widthAlignment : heightAlignment;
             if (major > maxSize) {
                 int minorExact = minor * maxSize / major;
-                // +4 to round the value to the nearest multiple of 8
-                minor = (minorExact + 4) & ~7;
-                major = maxSize;
+                // round the value to the nearest multiple of the alignment
+                minor = Math.max(minorAlignment, (minorExact + minorAlignment / 2) / minorAlignment * minorAlignment);
+                major = maxSize - maxSize % majorAlignment;
             }
             w = portrait ? minor : major;
             h = portrait ? major : minor;
@@ -98,6 +185,15 @@ public final class Device {
         return new Size(w, h);
     }
 
+    /**
+     * @return the next step of the size ladder below {@code major} (a multiple of 8), or 0 if it is already the smallest
+     */
+    @SuppressWarnings("checkstyle:MagicNumber")
+    static int getSmallerMaxSize(int major) {
+        int next = (major * 4 / 5) & ~7;
+        return next >= MIN_VIDEO_SIZE ? next : 0;
+    }
+
     public Point getPhysicalPoint(Position position) {
         // it hides the field on purpose, to read it with a lock
         @SuppressWarnings("checkstyle:HiddenField")
@@ -152,6 +248,14 @@ public final class Device {
         return s.toString();
     }
 
+    public boolean addClipboardListener(IOnPrimaryClipChangedListener listener) {
+        return serviceManager.getClipboardManager().addPrimaryClipChangedListener(listener);
+    }
+
+    public void removeClipboardListener(IOnPrimaryClipChangedListener listener) {
+        serviceManager.getClipboardManager().removePrimaryClipChangedListener(listener);
+    }
+
     public void setClipboardText(String text) {
         serviceManager.getClipboardManager().setText(text);
         Ln.i("Device clipboard set");
@@ -24,7 +24,7 @@ import java.io.BufferedReader;
 import java.io.InputStreamReader;
 
 public final class DeviceControl {
-    private final ServiceManager serviceManager = new ServiceManager();
+    private final ServiceManager serviceManager = ServiceManager.getInstance();
     private final WindowManager wm              = serviceManager.getWindowManager();
     private final InputMethodManager imm        = serviceManager.getInputMethodManager();
     private final PackageManager pm             = serviceManager.getPackageManager();
@@ -101,7 +101,7 @@ public final class DeviceControl {
             Ln.i("Rotation: " + oldRotation + ", Frozen: " + rotationFrozen + ", Tablet: " + options.getTabletMode());
 
             baseBrightness = Settings.get(Settings.SYSTEM, Settings.SCREEN_BRIGHTNESS);
-            if (!"".equals(baseBrightness)) {
+            if (baseBrightness != null && !baseBrightness.isEmpty()) {
                 Ln.i("baseBrightness: " + baseBrightness);
                 Settings.put(Settings.SYSTEM, Settings.SCREEN_BRIGHTNESS, "8");
             }
@@ -119,7 +119,7 @@ public final class DeviceControl {
         intent.setAction(BROADCAST_ACTION);
         intent.putExtra("o", orientation);
         boolean result = activityManager.broadcastIntent(intent);
-        Ln.i("Rotation by broadcast: "+orientation+" "+result);
+        Ln.i("Rotation by broadcast: {} {}", orientation, result);
         return result;
     }
 
@@ -179,6 +179,8 @@ public final class DeviceControl {
         if (disableAdbIme)
             imm.setInputMethodEnabled(AdbIME, false);
 
+        Settings.release();
+
         Instance = null;
         Ln.i("DeviceControl stopped");
     }
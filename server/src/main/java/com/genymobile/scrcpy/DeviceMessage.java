@@ -1,11 +1,33 @@
 package com.genymobile.scrcpy;
 
+/**
+ * Message sent from the device to the client.
+ * <p>
+ * On the wire, each message is its type (1 byte), followed by the length of its payload (2 bytes) and its payload.
+ */
 public final class DeviceMessage {
 
     public static final int TYPE_CLIPBOARD = 0;
+    public static final int TYPE_HEARTBEAT = 1;
+    public static final int TYPE_INJECT_ACK = 2;
+    public static final int TYPE_CLIPBOARD_CHUNK = 3;
+    public static final int TYPE_RECONFIGURED = 4;
 
     private int type;
     private String text;
+    private long clientTime;
+    private long receiveTime;
+    private long sendTime;
+    private long sequence;
+    private long completeTime;
+    private boolean result;
+    private int flags;
+    private byte[] data;
+    private int length;
+    private int bitRate;
+    private int width;
+    private int height;
+    private int iFrameInterval;
 
     private DeviceMessage() {
     }
@@ -17,6 +39,76 @@ public final class DeviceMessage {
         return event;
     }
 
+    /**
+     * Echo of a ping.
+     *
+     * @param clientTime  the client timestamp of the ping
+     * @param receiveTime the device time when the ping was received
+     * @param sendTime    the device time when the echo is sent
+     */
+    public static DeviceMessage createHeartbeat(long clientTime, long receiveTime, long sendTime) {
+        DeviceMessage event = new DeviceMessage();
+        event.type = TYPE_HEARTBEAT;
+        event.clientTime = clientTime;
+        event.receiveTime = receiveTime;
+        event.sendTime = sendTime;
+        return event;
+    }
+
+    /**
+     * Acknowledgement of an input control message.
+     *
+     * @param sequence     the sequence number of the control message (see {@link ControlMessage#getSequence()})
+     * @param receiveTime  the device time when the control message was received
+     * @param completeTime the device time when the injection completed
+     * @param result       the result of the injection
+     */
+    public static DeviceMessage createInjectAck(long sequence, long receiveTime, long completeTime, boolean result) {
+        DeviceMessage event = new DeviceMessage();
+        event.type = TYPE_INJECT_ACK;
+        event.sequence = sequence;
+        event.receiveTime = receiveTime;
+        event.completeTime = completeTime;
+        event.result = result;
+        return event;
+    }
+
+    /**
+     * Part of a clipboard text (see {@link ClipboardChunker}).
+     * <p>
+     * The data is not copied, the buffer must not be modified until the message is written.
+     *
+     * @param flags  the {@code ClipboardChunker.FLAG_*} of the chunk
+     * @param data   the buffer containing the chunk
+     * @param length the length of the chunk
+     */
+    public static DeviceMessage createClipboardChunk(int flags, byte[] data, int length) {
+        DeviceMessage event = new DeviceMessage();
+        event.type = TYPE_CLIPBOARD_CHUNK;
+        event.flags = flags;
+        event.data = data;
+        event.length = length;
+        return event;
+    }
+
+    /**
+     * Confirmation of a reconfiguration (see {@link ControlMessage#TYPE_RECONFIGURE}), with the resulting encoder parameters.
+     *
+     * @param fields the {@code Reconfiguration.FIELD_*} requested
+     * @param result {@code true} if the reconfiguration is applied
+     */
+    public static DeviceMessage createReconfigured(int fields, boolean result, int bitRate, Size videoSize, int iFrameInterval) {
+        DeviceMessage event = new DeviceMessage();
+        event.type = TYPE_RECONFIGURED;
+        event.flags = fields;
+        event.result = result;
+        event.bitRate = bitRate;
+        event.width = videoSize.getWidth();
+        event.height = videoSize.getHeight();
+        event.iFrameInterval = iFrameInterval;
+        return event;
+    }
+
     public int getType() {
         return type;
     }
@@ -24,4 +116,56 @@ public final class DeviceMessage {
     public String getText() {
         return text;
     }
+
+    public long getClientTime() {
+        return clientTime;
+    }
+
+    public long getReceiveTime() {
+        return receiveTime;
+    }
+
+    public long getSendTime() {
+        return sendTime;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getCompleteTime() {
+        return completeTime;
+    }
+
+    public boolean getResult() {
+        return result;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public int getBitRate() {
+        return bitRate;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getIFrameInterval() {
+        return iFrameInterval;
+    }
 }
@@ -1,42 +1,261 @@
 package com.genymobile.scrcpy;
 
+import android.os.SystemClock;
+
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Send the device messages to the client from a single thread.
+ * <p>
+ * Producers push messages from any thread without locking: they are handed over to the sender thread through a concurrent queue. The
+ * sender sends them by priority (in order within a priority), and batches several messages into a single write.
+ * <p>
+ * A message pushed with a coalescing key replaces the pending message with the same key, if any, keeping its position: only the
+ * latest value (clipboard text, heartbeat echo, statistics...) is sent.
+ */
 public final class DeviceMessageSender {
 
-    private final DesktopConnection connection;
+    public interface Output {
+        void send(List<DeviceMessage> messages) throws IOException;
+    }
+
+    interface Clock {
+        long now();
+    }
+
+    public static final int PRIORITY_HIGH = 0; // small and time-sensitive
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_LOW = 2; // bulky
+    private static final int PRIORITY_COUNT = 3;
+
+    public static final String KEY_CLIPBOARD = "clipboard";
+    public static final String KEY_HEARTBEAT = "heartbeat";
+
+    static final int MAX_QUEUED_MESSAGES = 4096;
+    static final int MAX_BATCH_MESSAGES = 64;
+
+    private static final Clock UPTIME_CLOCK = new Clock() {
+        @Override
+        public long now() {
+            return SystemClock.uptimeMillis();
+        }
+    };
+
+    private static final class Entry {
+        private DeviceMessage message;
+        private final int priority;
+        private final String key;
+
+        Entry(DeviceMessage message, int priority, String key) {
+            this.message = message;
+            this.priority = priority;
+            this.key = key;
+        }
+    }
+
+    private final Output output;
+    private final boolean clipboardChunks; // send the clipboard in chunks instead of truncating it
+    private final boolean clipboardDeflate;
+    private final Clock clock; // the send time of the heartbeats
+
+    // handoff from the producers
+    private final Queue<Entry> incoming = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedCount = new AtomicInteger();
+    private final AtomicInteger droppedCount = new AtomicInteger();
+    private volatile Thread senderThread;
+    private volatile boolean running = true;
 
-    private String clipboardText;
-    private boolean running = true;
+    // only accessed by the sender thread
+    @SuppressWarnings("unchecked")
+    private final ArrayDeque<Entry>[] pending = new ArrayDeque[PRIORITY_COUNT];
+    private final Map<String, Entry> pendingByKey = new HashMap<>();
+    private final List<DeviceMessage> batch = new ArrayList<>(MAX_BATCH_MESSAGES);
+    private ClipboardChunker chunker; // non-null while a chunked clipboard transfer is in progress
+    private byte[] chunkBuffer; // allocated on first use
+    private int chunkCount;
 
-    public DeviceMessageSender(DesktopConnection connection) {
-        this.connection = connection;
+    public DeviceMessageSender(Output output) {
+        this(output, false, false);
     }
 
-    public synchronized void pushClipboardText(String text) {
-        clipboardText = text;
-        notify();
+    /**
+     * @param clipboardChunks  send clipboard texts of any size in chunks (the client must support it), instead of truncating them
+     * @param clipboardDeflate compress the chunks
+     */
+    public DeviceMessageSender(Output output, boolean clipboardChunks, boolean clipboardDeflate) {
+        this(output, clipboardChunks, clipboardDeflate, UPTIME_CLOCK);
+    }
+
+    DeviceMessageSender(Output output, boolean clipboardChunks, boolean clipboardDeflate, Clock clock) {
+        this.output = output;
+        this.clipboardChunks = clipboardChunks;
+        this.clipboardDeflate = clipboardDeflate;
+        this.clock = clock;
+        for (int i = 0; i < PRIORITY_COUNT; ++i) {
+            pending[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Push a message to send, from any thread.
+     *
+     * @param priority one of the {@code PRIORITY_*} constants
+     * @param key      the coalescing key, or {@code null} if the message must not be replaced
+     * @return {@code false} if the message is dropped because the queue is full
+     */
+    public boolean push(DeviceMessage msg, int priority, String key) {
+        // the bound is not strict (producers may race), it only prevents to grow forever if the client does not read its messages;
+        // coalesced messages are never dropped, they are bounded by the number of keys
+        if (key == null && queuedCount.get() >= MAX_QUEUED_MESSAGES) {
+            droppedCount.incrementAndGet();
+            return false;
+        }
+        queuedCount.incrementAndGet();
+        incoming.offer(new Entry(msg, priority, key));
+        Thread thread = senderThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+        return true;
+    }
+
+    public void pushClipboardText(String text) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        push(DeviceMessage.createClipboard(text), PRIORITY_LOW, KEY_CLIPBOARD);
+    }
+
+    /**
+     * Echo a ping. If several pings are pending, only the last one is echoed.
+     */
+    public void pushHeartbeat(long clientTime, long receiveTime) {
+        // the send time is stamped by the sender thread
+        push(DeviceMessage.createHeartbeat(clientTime, receiveTime, 0), PRIORITY_HIGH, KEY_HEARTBEAT);
+    }
+
+    /**
+     * Acknowledge the injection of an input control message.
+     */
+    public void pushInjectAck(long sequence, long receiveTime, long completeTime, boolean result) {
+        push(DeviceMessage.createInjectAck(sequence, receiveTime, completeTime, result), PRIORITY_NORMAL, null);
     }
 
     public void loop() throws IOException, InterruptedException {
+        senderThread = Thread.currentThread();
         while (running) {
-            String text;
-            synchronized (this) {
-                while (running && clipboardText == null) {
-                    wait();
+            drainIncoming();
+            int dropped = droppedCount.getAndSet(0);
+            if (dropped != 0) {
+                Ln.w("{} device messages dropped (queue full)", dropped);
+            }
+            fillBatch();
+            if (batch.isEmpty()) {
+                if (incoming.isEmpty() && running) {
+                    // a push() after the check unparks immediately
+                    LockSupport.park(this);
                 }
-                text = clipboardText;
-                clipboardText = null;
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                continue;
             }
-            if (text != null && !text.isEmpty()) {
-                DeviceMessage event = DeviceMessage.createClipboard(text);
-                connection.sendDeviceMessage(event);
+            output.send(batch);
+            batch.clear();
+        }
+    }
+
+    private void drainIncoming() {
+        Entry entry;
+        while ((entry = incoming.poll()) != null) {
+            if (entry.key != null) {
+                Entry previous = pendingByKey.get(entry.key);
+                if (previous != null) {
+                    previous.message = entry.message;
+                    queuedCount.decrementAndGet();
+                    continue;
+                }
+                pendingByKey.put(entry.key, entry);
             }
+            pending[entry.priority].add(entry);
         }
     }
 
-    public synchronized void stop() {
+    private Entry poll() {
+        // a chunked transfer is never interleaved with another low priority message
+        int lowest = chunker == null ? PRIORITY_LOW : PRIORITY_LOW - 1;
+        for (int priority = PRIORITY_HIGH; priority <= lowest; ++priority) {
+            Entry entry = pending[priority].poll();
+            if (entry != null) {
+                if (entry.key != null) {
+                    pendingByKey.remove(entry.key);
+                }
+                queuedCount.decrementAndGet();
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private void fillBatch() {
+        while (batch.size() < MAX_BATCH_MESSAGES) {
+            Entry entry = poll();
+            if (entry == null) {
+                break;
+            }
+            DeviceMessage msg = entry.message;
+            switch (msg.getType()) {
+                case DeviceMessage.TYPE_HEARTBEAT:
+                    // stamp the echo as late as possible: the client subtracts the time spent on the device from the round-trip time
+                    batch.add(DeviceMessage.createHeartbeat(msg.getClientTime(), msg.getReceiveTime(), clock.now()));
+                    break;
+                case DeviceMessage.TYPE_CLIPBOARD:
+                    if (clipboardChunks) {
+                        // the text is encoded (and compressed) on the fly, one chunk per batch, so that a large text does not delay
+                        // the higher priority messages
+                        chunker = new ClipboardChunker(msg.getText(), clipboardDeflate);
+                        chunkCount = 0;
+                    } else {
+                        batch.add(msg);
+                    }
+                    break;
+                default:
+                    batch.add(msg);
+            }
+        }
+        if (chunker != null && batch.size() < MAX_BATCH_MESSAGES) {
+            addClipboardChunk();
+        }
+    }
+
+    private void addClipboardChunk() {
+        if (chunkBuffer == null) {
+            chunkBuffer = new byte[DeviceMessageWriter.CLIPBOARD_CHUNK_MAX_LENGTH];
+        }
+        // the chunk buffer is reused once the batch is sent
+        int length = chunker.nextChunk(chunkBuffer);
+        batch.add(DeviceMessage.createClipboardChunk(chunker.getFlags(), chunkBuffer, length));
+        ++chunkCount;
+        if (chunker.isFinished()) {
+            Ln.d("Clipboard sent in {} chunks", chunkCount);
+            chunker = null;
+        }
+    }
+
+    public void stop() {
         running = false;
-        notify();
+        Thread thread = senderThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
     }
 }
@@ -1,34 +1,119 @@
 package com.genymobile.scrcpy;
 
 import java.io.IOException;
-import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
 
+/**
+ * Serialize device messages (see {@link DeviceMessage} for the framing).
+ * <p>
+ * The messages are serialized directly into a reusable direct buffer (texts are encoded in place), and several messages may be written
+ * to the channel at once.
+ */
 public class DeviceMessageWriter {
 
     public static final int CLIPBOARD_TEXT_MAX_LENGTH = 4093;
-    private static final int MAX_EVENT_SIZE = CLIPBOARD_TEXT_MAX_LENGTH + 3;
+    private static final int HEADER_LENGTH = 3;
+    private static final int HEARTBEAT_PAYLOAD_LENGTH = 12;
+    private static final int INJECT_ACK_PAYLOAD_LENGTH = 13;
+    private static final int MAX_EVENT_SIZE = CLIPBOARD_TEXT_MAX_LENGTH + HEADER_LENGTH;
+    // the chunk data is preceded by its flags
+    public static final int CLIPBOARD_CHUNK_MAX_LENGTH = MAX_EVENT_SIZE - HEADER_LENGTH - 1;
+    private static final int BUFFER_SIZE = 16 * MAX_EVENT_SIZE;
 
-    private final byte[] rawBuffer = new byte[MAX_EVENT_SIZE];
-    private final ByteBuffer buffer = ByteBuffer.wrap(rawBuffer);
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
 
-    @SuppressWarnings("checkstyle:MagicNumber")
-    public void writeTo(DeviceMessage msg, OutputStream output) throws IOException {
+    public void writeTo(DeviceMessage msg, WritableByteChannel channel) throws IOException {
+        writeTo(Collections.singletonList(msg), channel);
+    }
+
+    /**
+     * Write several messages, in as few writes as possible.
+     */
+    public void writeTo(List<DeviceMessage> messages, WritableByteChannel channel) throws IOException {
         buffer.clear();
-        buffer.put((byte) DeviceMessage.TYPE_CLIPBOARD);
+        for (DeviceMessage msg : messages) {
+            if (buffer.remaining() < MAX_EVENT_SIZE) {
+                flush(channel);
+            }
+            serialize(msg);
+        }
+        flush(channel);
+    }
+
+    private void flush(WritableByteChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void serialize(DeviceMessage msg) {
+        int start = buffer.position();
+        buffer.put((byte) msg.getType());
+        // the payload length is written once the payload is serialized
+        buffer.position(start + HEADER_LENGTH);
         switch (msg.getType()) {
             case DeviceMessage.TYPE_CLIPBOARD:
-                String text = msg.getText();
-                byte[] raw = text.getBytes(StandardCharsets.UTF_8);
-                int len = StringUtils.getUtf8TruncationIndex(raw, CLIPBOARD_TEXT_MAX_LENGTH);
-                buffer.putShort((short) len);
-                buffer.put(raw, 0, len);
-                output.write(rawBuffer, 0, buffer.position());
+                encodeText(msg.getText(), CLIPBOARD_TEXT_MAX_LENGTH);
                 break;
-            default:
-                Ln.w("Unknown device message: " + msg.getType());
+            case DeviceMessage.TYPE_HEARTBEAT:
+                // timestamps are truncated to 32 bits
+                buffer.putInt((int) msg.getClientTime());
+                buffer.putInt((int) msg.getReceiveTime());
+                buffer.putInt((int) msg.getSendTime());
+                break;
+            case DeviceMessage.TYPE_INJECT_ACK:
+                buffer.putInt((int) msg.getSequence());
+                buffer.putInt((int) msg.getReceiveTime());
+                buffer.putInt((int) msg.getCompleteTime());
+                buffer.put((byte) (msg.getResult() ? 1 : 0));
+                break;
+            case DeviceMessage.TYPE_CLIPBOARD_CHUNK:
+                int length = msg.getLength();
+                if (length > CLIPBOARD_CHUNK_MAX_LENGTH) {
+                    throw new IllegalArgumentException("Clipboard chunk too big: " + length);
+                }
+                buffer.put((byte) msg.getFlags());
+                buffer.put(msg.getData(), 0, length);
+                break;
+            case DeviceMessage.TYPE_RECONFIGURED:
+                buffer.put((byte) msg.getFlags());
+                buffer.put((byte) (msg.getResult() ? 1 : 0));
+                buffer.putInt(msg.getBitRate());
+                buffer.putShort((short) msg.getWidth());
+                buffer.putShort((short) msg.getHeight());
+                buffer.putShort((short) msg.getIFrameInterval());
                 break;
+            default:
+                Ln.w("Unknown device message: {}", msg.getType());
+                buffer.position(start);
+                return;
+        }
+        buffer.putShort(start + 1, (short) (buffer.position() - start - HEADER_LENGTH));
+    }
+
+    /**
+     * Encode the text in UTF-8 at the buffer position, truncated (on a character boundary) to {@code maxLength} bytes.
+     */
+    private void encodeText(String text, int maxLength) {
+        int limit = buffer.limit();
+        buffer.limit(buffer.position() + maxLength);
+        encoder.reset();
+        // the encoder never writes a partial character: on overflow, the text is correctly truncated
+        if (encoder.encode(CharBuffer.wrap(text), buffer, true).isUnderflow()) {
+            encoder.flush(buffer);
         }
+        buffer.limit(limit);
     }
 }
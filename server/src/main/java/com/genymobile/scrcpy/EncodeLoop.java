@@ -0,0 +1,141 @@
+package com.genymobile.scrcpy;
+
+import android.os.SystemClock;
+
+import java.io.IOException;
+
+/**
+ * Drain the output of a codec, and rebuild the codec when the watchdog detects a stall (see {@link EncoderWatchdog}).
+ * <p>
+ * A stalled codec may block in {@code stop()}, so it is only released. The new codec is asked for a key frame, so that the client
+ * decoder recovers immediately.
+ *
+ * @param <C> the codec type
+ */
+final class EncodeLoop<C extends EncodeLoop.Codec> {
+
+    /**
+     * The codec operations the loop needs (a {@code MediaCodec} with its virtual display on the device).
+     */
+    interface Codec {
+        /**
+         * @return the index of an output buffer, or a negative value if there is none (as {@code MediaCodec.dequeueOutputBuffer()})
+         */
+        int dequeueOutputBuffer(long timeoutUs);
+
+        void releaseOutputBuffer(int index);
+
+        void requestSyncFrame();
+
+        void stop();
+
+        /**
+         * Release the codec and its display.
+         */
+        void release();
+    }
+
+    interface Factory<C> {
+        /**
+         * Create, configure and start a codec.
+         */
+        C create() throws IOException;
+    }
+
+    interface Handler<C> {
+        /**
+         * Called between two frames.
+         *
+         * @return {@code false} to end the loop
+         */
+        boolean beforeDequeue(C codec);
+
+        /**
+         * Handle the result of a dequeue (the output buffer is released afterwards).
+         *
+         * @param index the index of the output buffer, or a negative value if there is none
+         * @return {@code false} to end the loop
+         */
+        boolean onDequeued(C codec, int index) throws IOException;
+    }
+
+    interface Clock {
+        long now();
+    }
+
+    private static final Clock UPTIME_CLOCK = new Clock() {
+        @Override
+        public long now() {
+            return SystemClock.uptimeMillis();
+        }
+    };
+
+    private final EncoderWatchdog watchdog; // null if disabled
+    private final Clock clock;
+
+    EncodeLoop(EncoderWatchdog watchdog) {
+        this(watchdog, UPTIME_CLOCK);
+    }
+
+    EncodeLoop(EncoderWatchdog watchdog, Clock clock) {
+        this.watchdog = watchdog;
+        this.clock = clock;
+    }
+
+    /**
+     * Encode with a codec created by the factory until the handler ends the loop, rebuilding the codec on stall.
+     */
+    void run(Factory<C> factory, Handler<C> handler, long timeoutUs) throws IOException {
+        C codec = factory.create();
+        while (true) {
+            boolean stalled;
+            try {
+                stalled = drain(codec, handler, timeoutUs);
+                if (!stalled) {
+                    // do not call stop() on exception, it would trigger an IllegalStateException
+                    codec.stop();
+                }
+            } finally {
+                codec.release();
+            }
+            if (!stalled) {
+                return;
+            }
+            watchdog.onRecovery();
+            Ln.w("Encoder stalled for {} ms, restart it (recovery #{})", watchdog.getTimeoutMs(), watchdog.getRecoveryCount());
+            codec = factory.create();
+            codec.requestSyncFrame();
+        }
+    }
+
+    /**
+     * @return {@code true} if the codec stalled
+     */
+    private boolean drain(C codec, Handler<C> handler, long timeoutUs) throws IOException {
+        if (watchdog != null) {
+            watchdog.onStart(clock.now());
+        }
+        while (handler.beforeDequeue(codec)) {
+            int index = codec.dequeueOutputBuffer(timeoutUs);
+            if (watchdog != null) {
+                if (index >= 0) {
+                    watchdog.onOutput();
+                } else if (watchdog.isStalled(clock.now())) {
+                    return true;
+                }
+            }
+            boolean more;
+            try {
+                more = handler.onDequeued(codec, index);
+            } finally {
+                if (index >= 0) {
+                    codec.releaseOutputBuffer(index);
+                }
+            }
+            if (!more) {
+                return false;
+            }
+        }
+        return false;
+    }
+}
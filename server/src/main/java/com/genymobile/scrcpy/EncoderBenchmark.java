@@ -0,0 +1,322 @@
+package com.genymobile.scrcpy;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.SystemClock;
+import android.view.Surface;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Benchmark the available H.264 encoders, to select the best one for the device.
+ * <p>
+ * Each encoder encodes a synthetic moving pattern, drawn at the target frame rate. The winner is the encoder with the lowest latency
+ * among those keeping up with the frame rate. It is cached per device (and system build), so the benchmark only runs once.
+ * <p>
+ * The benchmark runs on its own thread, so that it does not delay the connection: its result applies from the next session.
+ */
+public final class EncoderBenchmark {
+
+    public static final class Result {
+        private final String name;
+        private final double frameRate; // fps
+        private final double latency; // ms, from the frame submission to its output
+        private final long totalBytes;
+
+        public Result(String name, double frameRate, double latency, long totalBytes) {
+            this.name = name;
+            this.frameRate = frameRate;
+            this.latency = latency;
+            this.totalBytes = totalBytes;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public double getFrameRate() {
+            return frameRate;
+        }
+
+        public double getLatency() {
+            return latency;
+        }
+
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: %.1f fps, latency %.1f ms, %d bytes", name, frameRate, latency, totalBytes);
+        }
+    }
+
+    private static final String MIME_TYPE = "video/avc";
+    private static final String CACHE_PATH = "/data/local/tmp/scrcpy-encoder.txt";
+
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+    private static final int BIT_RATE = 8_000_000;
+    private static final int FRAME_COUNT = 90;
+    private static final long DRAIN_TIMEOUT_US = 500_000;
+    // an encoder keeping up with the frame rate, with some tolerance for the measurement
+    private static final double MIN_FRAME_RATE_RATIO = 0.9;
+    // latencies closer than this are equivalent, then the smaller output wins
+    private static final double LATENCY_TOLERANCE = 1; // ms
+
+    private EncoderBenchmark() {
+        // not instantiable
+    }
+
+    /**
+     * Select the encoder from the cache, and benchmark the encoders in the background if there is no cached result for this device.
+     *
+     * @param force     benchmark even if a result is cached
+     * @param frameRate the frame rate the encoder must sustain
+     * @return the name of the cached encoder, or {@code null} to use the default one
+     */
+    public static String select(boolean force, final int frameRate) {
+        final File cache = new File(CACHE_PATH);
+        String name = readCache(cache, Build.FINGERPRINT);
+        if (name != null) {
+            Ln.i("Encoder " + name + " (cached benchmark result)");
+            if (!force) {
+                return name;
+            }
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            // drawing on the input surface requires a hardware canvas
+            Ln.w("Encoder benchmark not supported before Android 6.0");
+            return name;
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                benchmark(cache, frameRate);
+            }
+        }, "scrcpy-benchmark");
+        thread.setDaemon(true);
+        thread.start();
+        Ln.i("Encoder benchmark started, its result applies from the next session");
+        return name;
+    }
+
+    private static void benchmark(File cache, int frameRate) {
+        List<Result> results = new ArrayList<>();
+        for (String name : listEncoders()) {
+            try {
+                Result result = run(name, frameRate);
+                Ln.i("Encoder benchmark: " + result);
+                results.add(result);
+            } catch (IOException | IllegalArgumentException | IllegalStateException | Surface.OutOfResourcesException e) {
+                Ln.w("Encoder benchmark: " + name + " failed: " + e.getMessage());
+            }
+        }
+        Result best = selectBest(results, frameRate);
+        if (best == null) {
+            return;
+        }
+        Ln.i("Encoder " + best.getName() + " selected for the next sessions");
+        try {
+            writeCache(cache, Build.FINGERPRINT, best.getName());
+        } catch (IOException e) {
+            Ln.w("Could not cache the encoder benchmark result: " + e.getMessage());
+        }
+    }
+
+    public static List<String> listEncoders() {
+        List<String> names = new ArrayList<>();
+        for (MediaCodecInfo info : new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos()) {
+            if (!info.isEncoder()) {
+                continue;
+            }
+            for (String type : info.getSupportedTypes()) {
+                if (MIME_TYPE.equalsIgnoreCase(type)) {
+                    names.add(info.getName());
+                    break;
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Encode the synthetic pattern with the encoder.
+     */
+    public static Result run(String name, int frameRate) throws IOException {
+        MediaCodec codec = MediaCodec.createByCodecName(name);
+        Surface surface = null;
+        try {
+            MediaFormat format = new MediaFormat();
+            format.setString(MediaFormat.KEY_MIME, MIME_TYPE);
+            format.setInteger(MediaFormat.KEY_WIDTH, WIDTH);
+            format.setInteger(MediaFormat.KEY_HEIGHT, HEIGHT);
+            format.setInteger(MediaFormat.KEY_BIT_RATE, BIT_RATE);
+            format.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+            format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+            format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 1);
+            codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            surface = codec.createInputSurface();
+            codec.start();
+
+            Measure measure = new Measure();
+            MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+            Paint paint = new Paint();
+            long start = System.nanoTime();
+            for (int i = 0; i < FRAME_COUNT; ++i) {
+                Canvas canvas = surface.lockHardwareCanvas();
+                drawPattern(canvas, paint, i);
+                surface.unlockCanvasAndPost(canvas);
+                drain(codec, bufferInfo, 0, measure);
+                // pace against the start, so that the rounding errors do not accumulate
+                long waitNs = start + (i + 1) * 1_000_000_000L / frameRate - System.nanoTime();
+                if (waitNs > 0) {
+                    SystemClock.sleep(waitNs / 1_000_000);
+                }
+            }
+            codec.signalEndOfInputStream();
+            drain(codec, bufferInfo, DRAIN_TIMEOUT_US, measure);
+            // the frame rate is measured up to the last output, without the end of stream timeout
+            long duration = (measure.lastOutputNs - start) / 1_000_000;
+            codec.stop();
+
+            if (measure.frames == 0 || duration <= 0) {
+                throw new IllegalStateException("No frame encoded");
+            }
+            double fps = measure.frames * 1000.0 / duration;
+            return new Result(name, fps, measure.totalLatencyUs / 1000.0 / measure.frames, measure.totalBytes);
+        } finally {
+            codec.release();
+            if (surface != null) {
+                surface.release();
+            }
+        }
+    }
+
+    private static final class Measure {
+        private int frames;
+        private long totalLatencyUs;
+        private long totalBytes;
+        private long lastOutputNs;
+    }
+
+    /**
+     * Dequeue the available output buffers (until the end of stream if {@code timeoutUs} is not 0).
+     */
+    private static void drain(MediaCodec codec, MediaCodec.BufferInfo bufferInfo, long timeoutUs, Measure measure) {
+        while (true) {
+            int outputBufferId = codec.dequeueOutputBuffer(bufferInfo, timeoutUs);
+            if (outputBufferId == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                return;
+            }
+            if (outputBufferId < 0) {
+                // format changed
+                continue;
+            }
+            // the surface timestamps come from the monotonic clock, like System.nanoTime()
+            long nowNs = System.nanoTime();
+            long nowUs = nowNs / 1000;
+            if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0 && bufferInfo.size > 0) {
+                ++measure.frames;
+                measure.lastOutputNs = nowNs;
+                measure.totalLatencyUs += nowUs - bufferInfo.presentationTimeUs;
+                measure.totalBytes += bufferInfo.size;
+            }
+            codec.releaseOutputBuffer(outputBufferId, false);
+            if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Draw a frame of a moving pattern (scrolling text lines and a moving block), like a UI with some motion.
+     */
+    @SuppressWarnings("checkstyle:MagicNumber")
+    private static void drawPattern(Canvas canvas, Paint paint, int frame) {
+        canvas.drawColor(Color.WHITE);
+        paint.setTextSize(28);
+        paint.setColor(Color.BLACK);
+        int offset = frame * 8;
+        for (int y = -offset % 40; y < HEIGHT; y += 40) {
+            canvas.drawText("The quick brown fox jumps over the lazy dog " + (y + offset) / 40, 20, y + 30, paint);
+        }
+        paint.setColor(Color.rgb(frame * 5 % 256, 80, 160));
+        int x = frame * 12 % WIDTH;
+        canvas.drawRect(x, 200, x + 200, 500, paint);
+    }
+
+    /**
+     * @return the encoder with the lowest latency among those keeping up with the frame rate (or the fastest if none does), or
+     * {@code null} if there are no results
+     */
+    static Result selectBest(List<Result> results, int frameRate) {
+        Result best = null;
+        for (Result result : results) {
+            if (best == null || isBetter(result, best, frameRate)) {
+                best = result;
+            }
+        }
+        return best;
+    }
+
+    private static boolean isBetter(Result result, Result other, int frameRate) {
+        double minFrameRate = frameRate * MIN_FRAME_RATE_RATIO;
+        boolean fastEnough = result.frameRate >= minFrameRate;
+        boolean otherFastEnough = other.frameRate >= minFrameRate;
+        if (fastEnough != otherFastEnough) {
+            return fastEnough;
+        }
+        if (!fastEnough) {
+            return result.frameRate > other.frameRate;
+        }
+        if (Math.abs(result.latency - other.latency) > LATENCY_TOLERANCE) {
+            return result.latency < other.latency;
+        }
+        return result.totalBytes < other.totalBytes;
+    }
+
+    /**
+     * @return the cached encoder name, or {@code null} if there is no result for this system build
+     */
+    static String readCache(File file, String fingerprint) {
+        if (!file.exists()) {
+            return null;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String cachedFingerprint = reader.readLine();
+            String name = reader.readLine();
+            if (!fingerprint.equals(cachedFingerprint) || name == null || name.isEmpty()) {
+                return null;
+            }
+            return name;
+        } catch (IOException e) {
+            Ln.w("Could not read the encoder benchmark cache: " + e.getMessage());
+            return null;
+        }
+    }
+
+    static void writeCache(File file, String fingerprint, String name) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(fingerprint + "\n" + name + "\n");
+        }
+    }
+}
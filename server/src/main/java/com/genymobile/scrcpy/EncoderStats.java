@@ -0,0 +1,78 @@
+package com.genymobile.scrcpy;
+
+import java.util.Locale;
+
+/**
+ * Statistics of the encoded frame sizes.
+ * <p>
+ * The variance tells how regular the stream is: periodic key frames make large spikes, which increase the latency on capped links.
+ */
+public final class EncoderStats {
+
+    private int frameCount;
+    private int keyFrameCount;
+    private long totalBytes;
+    private int maxSize;
+    // Welford's online algorithm
+    private double mean;
+    private double m2;
+
+    public void add(int size, boolean keyFrame) {
+        ++frameCount;
+        if (keyFrame) {
+            ++keyFrameCount;
+        }
+        totalBytes += size;
+        maxSize = Math.max(maxSize, size);
+        double delta = size - mean;
+        mean += delta / frameCount;
+        m2 += delta * (size - mean);
+    }
+
+    public void reset() {
+        frameCount = 0;
+        keyFrameCount = 0;
+        totalBytes = 0;
+        maxSize = 0;
+        mean = 0;
+        m2 = 0;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public int getKeyFrameCount() {
+        return keyFrameCount;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    /**
+     * @return the (population) variance of the frame sizes, in bytes²
+     */
+    public double getVariance() {
+        return frameCount > 0 ? m2 / frameCount : 0;
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    @Override
+    public String toString() {
+        double cv = mean > 0 ? getStandardDeviation() / mean : 0;
+        return String.format(Locale.US, "%d frames (%d key), mean %.0f B, stddev %.0f B (cv %.2f), max %d B", frameCount, keyFrameCount, mean,
+                getStandardDeviation(), cv, maxSize);
+    }
+}
@@ -0,0 +1,62 @@
+package com.genymobile.scrcpy;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Detect a stalled encoder: no output for a number of frame intervals while the display is expected to change.
+ * <p>
+ * The display content is not observable, so a change is expected after the codec starts (the virtual display always produces a first
+ * frame) and after input events are injected. A static screen without input produces no frames, which is not a stall.
+ */
+public final class EncoderWatchdog {
+
+    private static final long NO_ACTIVITY = -1;
+
+    private final long timeoutMs;
+    // the first activity since the last output (written by the controller thread)
+    private final AtomicLong activityTime = new AtomicLong(NO_ACTIVITY);
+    private int recoveryCount;
+
+    public EncoderWatchdog(int stallFrames, int frameRate) {
+        timeoutMs = stallFrames * 1000L / frameRate;
+    }
+
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    /**
+     * Called when the codec starts (the first frame is expected).
+     */
+    public void onStart(long now) {
+        activityTime.set(now);
+    }
+
+    /**
+     * Called when the display content is expected to change, from any thread.
+     */
+    public void onActivity(long now) {
+        // the timeout runs from the first activity not followed by an output
+        activityTime.compareAndSet(NO_ACTIVITY, now);
+    }
+
+    public void onOutput() {
+        activityTime.set(NO_ACTIVITY);
+    }
+
+    public boolean isStalled(long now) {
+        long time = activityTime.get();
+        return time != NO_ACTIVITY && now - time >= timeoutMs;
+    }
+
+    /**
+     * Called once the codec and the display are rebuilt after a stall.
+     */
+    public void onRecovery() {
+        ++recoveryCount;
+    }
+
+    public int getRecoveryCount() {
+        return recoveryCount;
+    }
+}
@@ -0,0 +1,64 @@
+package com.genymobile.scrcpy;
+
+/**
+ * Drop the frames of the upper temporal layers while the connection is congested.
+ * <p>
+ * The video socket is blocking, so the congestion is measured by the time spent writing a frame: if it exceeds the frame interval, the
+ * client does not keep up, and one more layer is shed (never the base layer). The layers are restored one at a time once the writes are
+ * fast again.
+ */
+public final class FrameShedder {
+
+    // writes faster than this part of the frame interval are not congested
+    private static final int FAST_WRITE_DIVISOR = 4;
+    private static final int FAST_WRITES_TO_RESTORE = 30;
+
+    private final int layerCount;
+    private final long frameIntervalUs;
+    private int shedLayers; // the number of upper layers dropped
+    private int fastWrites;
+    private long droppedFrames;
+
+    public FrameShedder(int layerCount, int frameRate) {
+        this.layerCount = layerCount;
+        frameIntervalUs = 1_000_000 / frameRate;
+    }
+
+    /**
+     * @return true if the frame must not be sent
+     */
+    public boolean shouldDrop(int layer) {
+        if (layer >= layerCount - shedLayers) {
+            ++droppedFrames;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Account for the time spent writing a frame.
+     */
+    public void onWritten(long durationUs) {
+        if (durationUs > frameIntervalUs) {
+            fastWrites = 0;
+            if (shedLayers < layerCount - 1) {
+                ++shedLayers;
+                Ln.d("Congestion, shed the frames above layer " + (layerCount - shedLayers - 1));
+            }
+        } else if (durationUs < frameIntervalUs / FAST_WRITE_DIVISOR && shedLayers > 0) {
+            if (++fastWrites >= FAST_WRITES_TO_RESTORE) {
+                fastWrites = 0;
+                --shedLayers;
+                Ln.d("Congestion cleared, send the frames up to layer " + (layerCount - shedLayers - 1));
+            }
+        }
+    }
+
+    public int getShedLayers() {
+        return shedLayers;
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+}
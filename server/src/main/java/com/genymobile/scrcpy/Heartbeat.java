@@ -0,0 +1,139 @@
+package com.genymobile.scrcpy;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Liveness of the control connection, and round-trip time and clock offset estimates.
+ * <p>
+ * The client regularly sends a ping, with its own timestamp. If enabled, the server echoes it in a heartbeat device message, with the
+ * times the ping was received and the echo was sent. The client may then report the send time of the last echo it received and the delay
+ * since then, like the LSR/DLSR fields of an RTCP receiver report, so that the server can measure the round-trip time without comparing
+ * clocks.
+ * <p>
+ * All times are in milliseconds, truncated to 32 bits on the wire.
+ */
+public final class Heartbeat {
+
+    private static final long START_DELAY_MS = 10000;
+    private static final long CHECK_PERIOD_MS = 1000;
+    private static final long TIMEOUT_MS = 6000;
+
+    // smoothing factors of the estimates, as for TCP (RFC 6298)
+    private static final float RTT_ALPHA = 1f / 8;
+    private static final float RTT_BETA = 1f / 4;
+
+    private final DeviceMessageSender sender;
+    private final boolean echo;
+
+    private volatile long lastReceiveTime;
+    private ScheduledFuture<?> livenessCheck;
+
+    private volatile long rtt = -1; // -1 until the first measure
+    private volatile long rttVariation;
+    private volatile long clockOffset; // device time minus client time
+
+    /**
+     * @param echo {@code true} to answer pings by heartbeat device messages (the client must support them)
+     */
+    public Heartbeat(DeviceMessageSender sender, boolean echo) {
+        this.sender = sender;
+        this.echo = echo;
+    }
+
+    /**
+     * Check periodically that a control message has been received recently, and run {@code onTimeout} (once) otherwise.
+     */
+    public synchronized void start(ScheduledExecutorService scheduler, final Runnable onTimeout) {
+        lastReceiveTime = SystemClock.uptimeMillis();
+        livenessCheck = scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                long elapsed = SystemClock.uptimeMillis() - lastReceiveTime;
+                if (elapsed > TIMEOUT_MS) {
+                    Ln.i("Inactivity timeout ({} ms), quit", elapsed);
+                    stop();
+                    onTimeout.run();
+                }
+            }
+        }, START_DELAY_MS, CHECK_PERIOD_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (livenessCheck != null) {
+            livenessCheck.cancel(false);
+            livenessCheck = null;
+        }
+    }
+
+    /**
+     * Notify that a control message (of any type) has been received.
+     */
+    public void onMessageReceived() {
+        lastReceiveTime = SystemClock.uptimeMillis();
+    }
+
+    /**
+     * Handle a ping, received at {@code receiveTime} (device time).
+     */
+    public void onPing(long clientTime, long receiveTime) {
+        if (echo) {
+            sender.pushHeartbeat(clientTime, receiveTime);
+        }
+    }
+
+    /**
+     * Handle a heartbeat report, received at {@code receiveTime} (device time).
+     *
+     * @param clientTime  the client time when the report was sent
+     * @param echoTime    the device send time of the last echo received by the client, 0 if none
+     * @param clientDelay the delay between the reception of that echo and the report, on the client
+     */
+    public void onReport(long clientTime, long echoTime, long clientDelay, long receiveTime) {
+        if (echoTime == 0) {
+            return;
+        }
+        // 32-bit arithmetic, so that wrapping does not matter
+        long sample = (int) (receiveTime - echoTime - clientDelay);
+        if (sample < 0) {
+            Ln.w("Invalid heartbeat report (RTT {} ms), ignored", sample);
+            return;
+        }
+        updateRtt(sample);
+        // assume symmetric paths: the report was sent half a round-trip ago (32-bit arithmetic, the client time is truncated)
+        clockOffset = (int) (receiveTime - sample / 2 - clientTime);
+    }
+
+    private void updateRtt(long sample) {
+        if (rtt == -1) {
+            rtt = sample;
+            rttVariation = sample / 2;
+        } else {
+            rttVariation = (long) ((1 - RTT_BETA) * rttVariation + RTT_BETA * Math.abs(rtt - sample));
+            rtt = (long) ((1 - RTT_ALPHA) * rtt + RTT_ALPHA * sample);
+        }
+        Ln.d("Heartbeat: RTT {} ms (sample {} ms, variation {} ms)", rtt, sample, rttVariation);
+    }
+
+    /**
+     * @return the smoothed round-trip time, in milliseconds, or -1 if not measured yet
+     */
+    public long getRtt() {
+        return rtt;
+    }
+
+    public long getRttVariation() {
+        return rttVariation;
+    }
+
+    /**
+     * @return the device time minus the client time, in milliseconds, truncated to 32 bits like the times on the wire, valid only if
+     * {@link #getRtt()} is not -1
+     */
+    public long getClockOffset() {
+        return clockOffset;
+    }
+}
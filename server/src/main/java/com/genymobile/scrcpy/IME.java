@@ -6,7 +6,7 @@ import com.genymobile.scrcpy.wrappers.ActivityManager;
 import com.genymobile.scrcpy.wrappers.ServiceManager;
 
 public final class IME {
-    private final ActivityManager activityManager = (new ServiceManager()).getActivityManager();
+    private final ActivityManager activityManager = ServiceManager.getInstance().getActivityManager();
 
     private boolean enabled = DeviceControl.isAdbIMEEnabled();
 
@@ -0,0 +1,157 @@
+package com.genymobile.scrcpy;
+
+/**
+ * Detect a static screen, to suspend the encoder instead of sending repeated frames.
+ * <p>
+ * On a static screen, the encoder only produces the repeated frames (tiny, since nothing changed). After a burst of them (which refines
+ * the quality) without input, the encoder is suspended. It is resumed immediately on input, and periodically for a probe: a repeated
+ * frame (or no frame) means the screen is still static, a bigger frame means it changed.
+ * <p>
+ * The frames posted while the encoder is suspended are dropped, so a key frame is requested on input, and every few probes (a content
+ * changed without input is then sent within {@link #SYNC_PROBES} probes).
+ */
+public final class IdleDetector {
+
+    public static final int ACTION_NONE = 0;
+    public static final int ACTION_SUSPEND = 1;
+    public static final int ACTION_RESUME = 2;
+    // resume and request a key frame
+    public static final int ACTION_RESUME_SYNC = 3;
+
+    static final int REFINEMENT_FRAMES = 10;
+    static final long INPUT_QUIET_MS = 500;
+    static final long PROBE_INTERVAL_MS = 500;
+    static final int SYNC_PROBES = 10;
+    // frames smaller than this part of the per-frame budget are considered repeated
+    private static final int SMALL_FRAME_BUDGET_DIVISOR = 32;
+
+    private static final int STATE_ACTIVE = 0;
+    private static final int STATE_SUSPENDED = 1;
+    private static final int STATE_PROBING = 2;
+
+    private int smallFrameSize;
+    private int state = STATE_ACTIVE;
+    private int smallFrames;
+    private int probes;
+    private long lastInput;
+    private long stateTime; // when the current state (suspended or probing) was entered
+    private long idleStart;
+    private long totalIdleTime;
+    private int idlePeriods;
+
+    public IdleDetector(int bitRate, int frameRate) {
+        setBitRate(bitRate, frameRate);
+    }
+
+    public synchronized void setBitRate(int bitRate, int frameRate) {
+        smallFrameSize = bitRate / 8 / frameRate / SMALL_FRAME_BUDGET_DIVISOR;
+    }
+
+    /**
+     * Called when a new codec starts (not suspended).
+     */
+    public synchronized void onStart(long now) {
+        if (state != STATE_ACTIVE) {
+            endIdle(now);
+        }
+        smallFrames = 0;
+    }
+
+    /**
+     * Account for an encoded frame.
+     *
+     * @return the action to apply to the codec
+     */
+    public synchronized int onFrame(long now, int size, boolean keyFrame) {
+        boolean small = size <= smallFrameSize;
+        switch (state) {
+            case STATE_ACTIVE:
+                smallFrames = small ? smallFrames + 1 : 0;
+                if (smallFrames >= REFINEMENT_FRAMES && now - lastInput >= INPUT_QUIET_MS) {
+                    state = STATE_SUSPENDED;
+                    stateTime = now;
+                    idleStart = now;
+                    return ACTION_SUSPEND;
+                }
+                return ACTION_NONE;
+            case STATE_PROBING:
+                if (keyFrame) {
+                    // requested on resume, it tells nothing, wait for the next frame
+                    return ACTION_NONE;
+                }
+                if (small) {
+                    // still static
+                    state = STATE_SUSPENDED;
+                    stateTime = now;
+                    return ACTION_SUSPEND;
+                }
+                endIdle(now);
+                return ACTION_NONE;
+            default:
+                // a frame encoded before the suspension
+                return ACTION_NONE;
+        }
+    }
+
+    /**
+     * Called periodically when there is no output.
+     *
+     * @return the action to apply to the codec
+     */
+    public synchronized int onTick(long now) {
+        if (now - stateTime < PROBE_INTERVAL_MS) {
+            return ACTION_NONE;
+        }
+        if (state == STATE_SUSPENDED) {
+            state = STATE_PROBING;
+            stateTime = now;
+            ++probes;
+            return probes % SYNC_PROBES == 0 ? ACTION_RESUME_SYNC : ACTION_RESUME;
+        }
+        if (state == STATE_PROBING) {
+            // not even a repeated frame
+            state = STATE_SUSPENDED;
+            stateTime = now;
+            return ACTION_SUSPEND;
+        }
+        return ACTION_NONE;
+    }
+
+    /**
+     * Called on input, from any thread.
+     *
+     * @return the action to apply to the codec
+     */
+    public synchronized int onInput(long now) {
+        lastInput = now;
+        smallFrames = 0;
+        if (state == STATE_ACTIVE) {
+            return ACTION_NONE;
+        }
+        boolean suspended = state == STATE_SUSPENDED;
+        endIdle(now);
+        return suspended ? ACTION_RESUME_SYNC : ACTION_NONE;
+    }
+
+    private void endIdle(long now) {
+        state = STATE_ACTIVE;
+        smallFrames = 0;
+        totalIdleTime += now - idleStart;
+        ++idlePeriods;
+    }
+
+    public synchronized boolean isIdle() {
+        return state != STATE_ACTIVE;
+    }
+
+    /**
+     * @return the total time spent idle, including the current idle period
+     */
+    public synchronized long getIdleTime(long now) {
+        return totalIdleTime + (state != STATE_ACTIVE ? now - idleStart : 0);
+    }
+
+    public synchronized int getIdlePeriods() {
+        return idlePeriods;
+    }
+}
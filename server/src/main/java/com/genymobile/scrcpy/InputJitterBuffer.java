@@ -0,0 +1,182 @@
+package com.genymobile.scrcpy;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delay input events by a small amount, to release them at their original spacing even if they are received in clumps.
+ * <p>
+ * The delay adapts to the interarrival jitter, estimated as in RTP (RFC 3550, section 6.4.1). To preserve the spacing within a gesture,
+ * it is only adjusted after a pause (like adaptive audio playout adjusts its delay between talkspurts), or increased when an event is
+ * late. A late event is released immediately. Release times never go backwards, so the events are released in order.
+ */
+public final class InputJitterBuffer {
+
+    public interface Injector {
+        void inject(ControlMessage msg, long eventTime);
+    }
+
+    interface Clock {
+        long now();
+    }
+
+    private static final long MAX_DELAY_MS = 100;
+    private static final float DELAY_JITTER_FACTOR = 3;
+    private static final float JITTER_GAIN = 1f / 16;
+    private static final long PAUSE_MS = 200; // a new gesture may start after this pause
+
+    private static final Clock UPTIME_CLOCK = new Clock() {
+        @Override
+        public long now() {
+            return SystemClock.uptimeMillis();
+        }
+    };
+
+    private final class Entry implements Delayed {
+        private final ControlMessage msg;
+        private final long releaseTime;
+        private final long sequence;
+
+        Entry(ControlMessage msg, long releaseTime, long sequence) {
+            this.msg = msg;
+            this.releaseTime = releaseTime;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(releaseTime - clock.now(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            Entry other = (Entry) o;
+            if (releaseTime != other.releaseTime) {
+                return releaseTime < other.releaseTime ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final Injector injector;
+    private final Clock clock;
+    private final DelayQueue<Entry> queue = new DelayQueue<>();
+
+    private long sequence;
+    private long lastRelease; // 0 before the first event
+    private boolean hasTransit;
+    private long lastTransit;
+    private float jitter;
+    private long delay;
+
+    private int eventCount;
+    private int lateCount;
+
+    public InputJitterBuffer(Injector injector) {
+        this(injector, UPTIME_CLOCK);
+    }
+
+    InputJitterBuffer(Injector injector, Clock clock) {
+        this.injector = injector;
+        this.clock = clock;
+    }
+
+    /**
+     * Queue an event.
+     *
+     * @param clientTime  the (32-bit) client timestamp of the event
+     * @param mappedTime  the client timestamp mapped to device time (see {@link ClockSync})
+     * @param receiveTime the device time when the event was received
+     * @return the release time
+     */
+    public synchronized long push(ControlMessage msg, long clientTime, long mappedTime, long receiveTime) {
+        long transit = receiveTime - clientTime;
+        if (hasTransit) {
+            // 32-bit arithmetic, so that client timestamps may wrap
+            int d = Math.abs((int) (transit - lastTransit));
+            jitter += (d - jitter) * JITTER_GAIN;
+        }
+        lastTransit = transit;
+        hasTransit = true;
+
+        if (receiveTime - lastRelease > PAUSE_MS) {
+            delay = getTargetDelay();
+        }
+        long releaseTime = mappedTime + delay;
+        if (releaseTime < receiveTime) {
+            // too late to respect the spacing with the previous events
+            ++lateCount;
+            releaseTime = receiveTime;
+            delay = Math.max(delay, getTargetDelay());
+        }
+        releaseTime = Math.max(releaseTime, lastRelease);
+        lastRelease = releaseTime;
+        ++eventCount;
+
+        queue.add(new Entry(msg, releaseTime, sequence++));
+        return releaseTime;
+    }
+
+    private long getTargetDelay() {
+        return Math.min(MAX_DELAY_MS, Math.round(DELAY_JITTER_FACTOR * jitter));
+    }
+
+    /**
+     * @return the current delay, in milliseconds
+     */
+    public synchronized long getDelay() {
+        return delay;
+    }
+
+    /**
+     * Inject the events which are due, without blocking.
+     *
+     * @return the number of events injected
+     */
+    int releaseDue() {
+        int count = 0;
+        Entry entry;
+        while ((entry = queue.poll()) != null) {
+            injector.inject(entry.msg, entry.releaseTime);
+            ++count;
+        }
+        return count;
+    }
+
+    /**
+     * Inject the events still queued immediately, in order, once {@link #loop()} is stopped (so that a pending release event does not
+     * leave a touch pressed on the device).
+     *
+     * @return the number of events injected
+     */
+    public int flush() {
+        List<Entry> entries = new ArrayList<>(queue);
+        queue.clear();
+        Collections.sort(entries);
+        long now = clock.now();
+        for (Entry entry : entries) {
+            injector.inject(entry.msg, now);
+        }
+        return entries.size();
+    }
+
+    /**
+     * Inject the events at their release time, until interrupted.
+     */
+    public void loop() throws InterruptedException {
+        while (!Thread.currentThread().isInterrupted()) {
+            Entry entry = queue.take();
+            injector.inject(entry.msg, entry.releaseTime);
+        }
+    }
+
+    public synchronized String getStats() {
+        return eventCount + " events, " + lateCount + " late, delay " + getDelay() + " ms (jitter " + Math.round(jitter) + " ms)";
+    }
+}
@@ -0,0 +1,90 @@
+package com.genymobile.scrcpy;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Record control messages to a file, to replay them later (see {@link InputReplayer}).
+ * <p>
+ * File format (big-endian):
+ * <pre>
+ *     header: magic "SCIR" (4 bytes), version (1 byte)
+ *     record: time (4 bytes), length (2 bytes), message (length bytes)
+ * </pre>
+ * The time of a record is the event time of its message, in milliseconds since the first record (so the first record time is 0). The
+ * message is stored as received in the control stream.
+ */
+public final class InputRecorder implements Closeable {
+
+    static final int MAGIC = 0x53434952; // "SCIR"
+    static final int VERSION = 1;
+
+    private final DataOutputStream output;
+    private long startTime = -1;
+    private long lastTime;
+    private int count;
+
+    public InputRecorder(OutputStream output) throws IOException {
+        this.output = new DataOutputStream(new BufferedOutputStream(output));
+        this.output.writeInt(MAGIC);
+        this.output.writeByte(VERSION);
+    }
+
+    public static InputRecorder open(String path) throws IOException {
+        return new InputRecorder(new FileOutputStream(path));
+    }
+
+    /**
+     * Tell whether a message is part of a scenario (the messages related to the connection and the recording itself are not).
+     */
+    public static boolean isRecordable(ControlMessage msg) {
+        switch (msg.getType()) {
+            case ControlMessage.TYPE_HEARTBEAT:
+            case ControlMessage.TYPE_RECORDING:
+            case ControlMessage.TYPE_CLIPBOARD_CHUNK:
+            case ControlMessage.TYPE_RECONFIGURE:
+                return false;
+            case ControlMessage.TYPE_COMMAND:
+                int action = msg.getAction();
+                return action != ControlMessage.COMMAND_PING && action != ControlMessage.COMMAND_QUIT
+                        && action != ControlMessage.COMMAND_GET_CLIPBOARD;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Record a message, received with its raw data (see {@link ControlMessage#getRaw()}).
+     *
+     * @param eventTime the event time of the message (device time)
+     */
+    public void record(ControlMessage msg, long eventTime) throws IOException {
+        byte[] raw = msg.getRaw();
+        if (raw == null) {
+            throw new IllegalArgumentException("Message received without its raw data");
+        }
+        if (startTime == -1) {
+            startTime = eventTime;
+        }
+        // event times are monotonic for each kind of event, but not between key and motion events
+        long time = Math.max(lastTime, eventTime - startTime);
+        lastTime = time;
+        output.writeInt((int) time);
+        output.writeShort(raw.length);
+        output.write(raw);
+        ++count;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        output.close();
+    }
+}
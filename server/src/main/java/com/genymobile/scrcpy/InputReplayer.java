@@ -0,0 +1,108 @@
+package com.genymobile.scrcpy;
+
+import android.os.SystemClock;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Replay control messages recorded by {@link InputRecorder}, at their original timing.
+ * <p>
+ * Each message is injected with the event time it was recorded with, relative to the start of the replay, so the timing does not depend
+ * on the network nor on the scheduling delays of the replay thread.
+ */
+public final class InputReplayer {
+
+    public interface Injector {
+        void inject(ControlMessage msg, long eventTime);
+    }
+
+    interface Clock {
+        long now();
+
+        void sleepUntil(long time) throws InterruptedException;
+    }
+
+    private static final Clock UPTIME_CLOCK = new Clock() {
+        @Override
+        public long now() {
+            return SystemClock.uptimeMillis();
+        }
+
+        @Override
+        public void sleepUntil(long time) throws InterruptedException {
+            long delay = time - SystemClock.uptimeMillis();
+            if (delay > 0) {
+                Thread.sleep(delay);
+            }
+        }
+    };
+
+    private final Injector injector;
+    private final Clock clock;
+
+    public InputReplayer(Injector injector) {
+        this(injector, UPTIME_CLOCK);
+    }
+
+    InputReplayer(Injector injector, Clock clock) {
+        this.injector = injector;
+        this.clock = clock;
+    }
+
+    public int replay(String path) throws IOException, InterruptedException {
+        try (InputStream input = new FileInputStream(path)) {
+            return replay(input);
+        }
+    }
+
+    /**
+     * Replay a recording, until its end or until interrupted.
+     *
+     * @return the number of messages replayed
+     */
+    @SuppressWarnings("checkstyle:MagicNumber")
+    public int replay(InputStream input) throws IOException, InterruptedException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(input));
+        int magic = dis.readInt();
+        int version = dis.readUnsignedByte();
+        if (magic != InputRecorder.MAGIC || version != InputRecorder.VERSION) {
+            throw new IOException("Not a supported input recording (magic " + Integer.toHexString(magic) + ", version " + version + ")");
+        }
+
+        ControlMessageReader reader = new ControlMessageReader();
+        long startTime = clock.now();
+        int count = 0;
+        byte[] raw = new byte[0];
+        while (true) {
+            long time;
+            try {
+                time = dis.readInt() & 0xffffffffL;
+            } catch (EOFException e) {
+                // end of the recording
+                return count;
+            }
+            int length = dis.readUnsignedShort();
+            if (raw.length < length) {
+                raw = new byte[length];
+            }
+            dis.readFully(raw, 0, length);
+            reader.readFrom(new ByteArrayInputStream(raw, 0, length));
+            ControlMessage msg = reader.next();
+            if (msg == null) {
+                throw new IOException("Invalid message in the recording (record " + count + ")");
+            }
+
+            long eventTime = startTime + time;
+            clock.sleepUntil(eventTime);
+            msg.setReceiveTime(clock.now());
+            injector.inject(msg, eventTime);
+            ++count;
+        }
+    }
+}
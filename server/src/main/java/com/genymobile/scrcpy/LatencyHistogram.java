@@ -0,0 +1,74 @@
+package com.genymobile.scrcpy;
+
+/**
+ * Histogram of latencies, with power-of-2 buckets.
+ * <p>
+ * Bucket 0 counts the value 0, and bucket i (i > 0) counts the values in [2^(i-1), 2^i).
+ */
+public final class LatencyHistogram {
+
+    private static final int BUCKET_COUNT = 64;
+
+    private final String unit;
+    private final long[] buckets = new long[BUCKET_COUNT];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    public LatencyHistogram(String unit) {
+        this.unit = unit;
+    }
+
+    static int getBucket(long value) {
+        return BUCKET_COUNT - Long.numberOfLeadingZeros(value);
+    }
+
+    public synchronized void add(long value) {
+        if (value < 0) {
+            // clock adjustment, ignore
+            return;
+        }
+        ++buckets[getBucket(value)];
+        ++count;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Get an upper bound of a percentile (the upper bound of its bucket, or the maximum value if it is lower).
+     *
+     * @param percentile in [0, 100]
+     * @return the upper bound, or -1 if the histogram is empty
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (count == 0) {
+            return -1;
+        }
+        long rank = (long) Math.ceil(percentile / 100 * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            seen += buckets[i];
+            if (seen >= rank && seen > 0) {
+                long upperBound = i == 0 ? 0 : (1L << i) - 1;
+                return Math.min(upperBound, max);
+            }
+        }
+        return max;
+    }
+
+    @Override
+    @SuppressWarnings("checkstyle:MagicNumber")
+    public synchronized String toString() {
+        if (count == 0) {
+            return "no samples";
+        }
+        return count + " samples, mean " + (sum / count) + " " + unit + ", min " + min + ", p50 <= " + getPercentile(50) + ", p90 <= "
+                + getPercentile(90) + ", p99 <= " + getPercentile(99) + ", max " + max;
+    }
+}
@@ -2,15 +2,29 @@ package com.genymobile.scrcpy;
 
 import android.util.Log;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
 /**
  * Log both to Android logger (so that logs are visible in "adb logcat") and standard output/error (so that they are visible in the terminal
  * directly).
+ * <p>
+ * Records are written asynchronously: the caller only appends them to a ring buffer, drained by a background thread. Records are dropped
+ * (and counted) rather than blocking the caller if the buffer is full. The parameterized variants ({@code "{}"} placeholders) do not build
+ * the message if the level is disabled.
+ * <p>
+ * The background thread is started by the first record. The Android logger is only used once enabled by the server (see
+ * {@link #enableLogcat()}), so that the classes logging may run on a plain JVM.
  */
 public final class Ln {
 
     private static final String TAG = "scrcpy";
     private static final String PREFIX = "[server] ";
 
+    private static final int BUFFER_CAPACITY = 1024;
+    private static final long FLUSH_TIMEOUT_MS = 1000;
+    private static final long WRITER_MAX_PARK_NS = TimeUnit.MILLISECONDS.toNanos(500);
+
     enum Level {
         DEBUG,
         INFO,
@@ -18,45 +32,197 @@ public final class Ln {
         ERROR;
     }
 
-    private static final Level THRESHOLD = BuildConfig.DEBUG ? Level.DEBUG : Level.INFO;
+    private static volatile Level threshold = BuildConfig.DEBUG ? Level.DEBUG : Level.INFO;
+
+    private static final LogBuffer BUFFER = new LogBuffer(BUFFER_CAPACITY);
+    private static volatile boolean writerParked;
+    private static volatile long reportedDropped;
+    private static volatile Thread writer; // started on first use
+    private static volatile boolean logcat;
 
     private Ln() {
         // not instantiable
     }
 
+    /**
+     * Also write to the Android logger (so that logs are visible in "adb logcat").
+     */
+    public static void enableLogcat() {
+        logcat = true;
+    }
+
+    private static Thread getWriter() {
+        Thread thread = writer;
+        return thread != null ? thread : startWriter();
+    }
+
+    private static synchronized Thread startWriter() {
+        if (writer != null) {
+            // started concurrently
+            return writer;
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "scrcpy-log");
+        thread.setDaemon(true);
+        thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }));
+        writer = thread;
+        return thread;
+    }
+
+    private static void writeLoop() {
+        LogBuffer.Consumer output = new LogBuffer.Consumer() {
+            @Override
+            public void accept(Level level, String message, Throwable throwable) {
+                write(level, message, throwable);
+            }
+        };
+        while (true) {
+            if (BUFFER.drainTo(output) == 0) {
+                long dropped = BUFFER.getDroppedCount();
+                if (dropped != reportedDropped) {
+                    write(Level.WARN, (dropped - reportedDropped) + " log records dropped (buffer full)", null);
+                    reportedDropped = dropped;
+                }
+                writerParked = true;
+                // a producer adding a record from now on will see writerParked and unpark the writer
+                if (BUFFER.isEmpty()) {
+                    LockSupport.parkNanos(WRITER_MAX_PARK_NS);
+                }
+                writerParked = false;
+            }
+        }
+    }
+
+    private static void write(Level level, String message, Throwable throwable) {
+        if (logcat) {
+            writeLogcat(level, message, throwable);
+        }
+        System.out.println(PREFIX + level + ": " + message);
+        if (throwable != null) {
+            throwable.printStackTrace();
+            throwable.printStackTrace(System.out);
+        }
+    }
+
+    private static void writeLogcat(Level level, String message, Throwable throwable) {
+        switch (level) {
+            case DEBUG:
+                Log.d(TAG, message);
+                break;
+            case INFO:
+                Log.i(TAG, message);
+                break;
+            case WARN:
+                Log.w(TAG, message);
+                break;
+            default:
+                Log.e(TAG, message, throwable);
+                break;
+        }
+    }
+
+    private static void log(Level level, String message, Throwable throwable) {
+        Thread thread = getWriter();
+        if (BUFFER.offer(level, message, throwable) && writerParked) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Wait (for a bounded time) until all the records logged so far are written.
+     */
+    public static void flush() {
+        Thread thread = writer;
+        if (thread == null || Thread.currentThread() == thread) {
+            // nothing logged yet, or called from the writer itself
+            return;
+        }
+        long deadline = System.currentTimeMillis() + FLUSH_TIMEOUT_MS;
+        while ((!BUFFER.isEmpty() || reportedDropped != BUFFER.getDroppedCount()) && System.currentTimeMillis() < deadline) {
+            LockSupport.unpark(thread);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    public static void setThreshold(Level level) {
+        threshold = level;
+    }
+
+    public static long getDroppedCount() {
+        return BUFFER.getDroppedCount();
+    }
+
     public static boolean isEnabled(Level level) {
-        return level.ordinal() >= THRESHOLD.ordinal();
+        return level.ordinal() >= threshold.ordinal();
+    }
+
+    /**
+     * Replace each {@code "{}"} in {@code pattern} by the next argument.
+     */
+    static String format(String pattern, Object... args) {
+        StringBuilder builder = new StringBuilder(pattern.length() + 16 * args.length);
+        int start = 0;
+        for (Object arg : args) {
+            int index = pattern.indexOf("{}", start);
+            if (index == -1) {
+                break;
+            }
+            builder.append(pattern, start, index).append(arg);
+            start = index + 2;
+        }
+        builder.append(pattern, start, pattern.length());
+        return builder.toString();
     }
 
     public static void d(String message) {
         if (isEnabled(Level.DEBUG)) {
-            Log.d(TAG, message);
-            System.out.println(PREFIX + "DEBUG: " + message);
+            log(Level.DEBUG, message, null);
+        }
+    }
+
+    public static void d(String format, Object... args) {
+        if (isEnabled(Level.DEBUG)) {
+            log(Level.DEBUG, format(format, args), null);
         }
     }
 
     public static void i(String message) {
         if (isEnabled(Level.INFO)) {
-            Log.i(TAG, message);
-            System.out.println(PREFIX + "INFO: " + message);
+            log(Level.INFO, message, null);
+        }
+    }
+
+    public static void i(String format, Object... args) {
+        if (isEnabled(Level.INFO)) {
+            log(Level.INFO, format(format, args), null);
         }
     }
 
     public static void w(String message) {
         if (isEnabled(Level.WARN)) {
-            Log.w(TAG, message);
-            System.out.println(PREFIX + "WARN: " + message);
+            log(Level.WARN, message, null);
+        }
+    }
+
+    public static void w(String format, Object... args) {
+        if (isEnabled(Level.WARN)) {
+            log(Level.WARN, format(format, args), null);
         }
     }
 
     public static void e(String message, Throwable throwable) {
         if (isEnabled(Level.ERROR)) {
-            Log.e(TAG, message, throwable);
-            System.out.println(PREFIX + "ERROR: " + message);
-            if (throwable != null) {
-                throwable.printStackTrace();
-                throwable.printStackTrace(System.out);
-            }
+            log(Level.ERROR, message, throwable);
         }
     }
 
@@ -0,0 +1,117 @@
+package com.genymobile.scrcpy;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free ring buffer of log records, with many producers and a single consumer.
+ * <p>
+ * Each slot has a sequence number telling whether it is free for the producer at a given position or ready for the consumer (see
+ * <a href="http://www.1024cores.net/home/lock-free-algorithms/queues/bounded-mpmc-queue">Dmitry Vyukov's bounded queue</a>). When the
+ * buffer is full, records are dropped and counted instead of blocking the caller.
+ */
+final class LogBuffer {
+
+    interface Consumer {
+        void accept(Ln.Level level, String message, Throwable throwable);
+    }
+
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final Ln.Level[] levels;
+    private final String[] messages;
+    private final Throwable[] throwables;
+
+    private final AtomicLong tail = new AtomicLong(); // next position to write
+    private volatile long head; // next position to read, only written by the consumer
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param capacity a power of 2
+     */
+    LogBuffer(int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("Capacity must be a power of 2: " + capacity);
+        }
+        mask = capacity - 1;
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; ++i) {
+            sequences.set(i, i);
+        }
+        levels = new Ln.Level[capacity];
+        messages = new String[capacity];
+        throwables = new Throwable[capacity];
+    }
+
+    /**
+     * Add a record, from any thread.
+     *
+     * @return {@code false} if the buffer was full (the record is dropped)
+     */
+    boolean offer(Ln.Level level, String message, Throwable throwable) {
+        long pos = tail.get();
+        int index;
+        while (true) {
+            index = (int) pos & mask;
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                // the slot has not been consumed since the previous lap
+                dropped.incrementAndGet();
+                return false;
+            } else {
+                // another producer took this position
+                pos = tail.get();
+            }
+        }
+        levels[index] = level;
+        messages[index] = message;
+        throwables[index] = throwable;
+        // publish the record to the consumer
+        sequences.lazySet(index, pos + 1);
+        return true;
+    }
+
+    /**
+     * Consume all the available records, from the consumer thread only.
+     *
+     * @return the number of records consumed
+     */
+    int drainTo(Consumer consumer) {
+        int count = 0;
+        long pos = head;
+        while (true) {
+            int index = (int) pos & mask;
+            if (sequences.get(index) != pos + 1) {
+                // not published yet
+                return count;
+            }
+            Ln.Level level = levels[index];
+            String message = messages[index];
+            Throwable throwable = throwables[index];
+            messages[index] = null;
+            throwables[index] = null;
+            // release the slot for the next lap
+            sequences.lazySet(index, pos + mask + 1);
+            consumer.accept(level, message, throwable);
+            head = ++pos;
+            ++count;
+        }
+    }
+
+    /**
+     * Tell whether all the records added so far have been consumed, from any thread.
+     */
+    boolean isEmpty() {
+        return tail.get() == head;
+    }
+
+    long getDroppedCount() {
+        return dropped.get();
+    }
+}
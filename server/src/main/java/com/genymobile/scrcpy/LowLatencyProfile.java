@@ -0,0 +1,116 @@
+package com.genymobile.scrcpy;
+
+import android.media.MediaFormat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Format keys asking the encoder not to buffer frames.
+ * <p>
+ * Only the keys known by the Android version (and, for vendor keys, by the codec) are selected. Since some codecs reject the
+ * configuration for keys they do not support, the keys are ordered by importance, so that the least important one may be dropped before
+ * retrying.
+ */
+public final class LowLatencyProfile {
+
+    private static final class Key {
+        private final String name;
+        private final int value;
+        private final int minSdk;
+        private final String codecPrefix; // null for any codec
+
+        Key(String name, int value, int minSdk, String codecPrefix) {
+            this.name = name;
+            this.value = value;
+            this.minSdk = minSdk;
+            this.codecPrefix = codecPrefix;
+        }
+
+        boolean isApplicable(String codecName, int sdkInt) {
+            return sdkInt >= minSdk && (codecPrefix == null || codecName.startsWith(codecPrefix));
+        }
+
+        @Override
+        public String toString() {
+            return name + "=" + value;
+        }
+    }
+
+    // MediaFormat.KEY_LOW_LATENCY, since Android 11 (not in the compile SDK)
+    static final String KEY_LOW_LATENCY = "low-latency";
+
+    private static final int SDK_M = 23;
+    private static final int SDK_Q = 29;
+    private static final int SDK_R = 30;
+
+    private static final int PRIORITY_REALTIME = 0;
+
+    // by decreasing importance
+    private static final Key[] KEYS = {
+            new Key(MediaFormat.KEY_LATENCY, 1, SDK_M, null), // in frames
+            new Key(MediaFormat.KEY_PRIORITY, PRIORITY_REALTIME, SDK_M, null),
+            new Key(MediaFormat.KEY_MAX_B_FRAMES, 0, SDK_Q, null),
+            new Key(KEY_LOW_LATENCY, 1, SDK_R, null),
+            // run as fast as possible, rather than at the frame rate
+            new Key(MediaFormat.KEY_OPERATING_RATE, Short.MAX_VALUE, SDK_M, null),
+            new Key("vendor.qti-ext-enc-low-latency.enable", 1, SDK_Q, "c2.qti."),
+            new Key("vendor.qti-ext-enc-low-latency.enable", 1, SDK_Q, "OMX.qcom."),
+    };
+
+    private final List<Key> keys = new ArrayList<>();
+    private final List<Key> droppedKeys = new ArrayList<>();
+
+    public LowLatencyProfile(String codecName, int sdkInt) {
+        for (Key key : KEYS) {
+            if (key.isApplicable(codecName, sdkInt)) {
+                keys.add(key);
+            }
+        }
+    }
+
+    public void apply(MediaFormat format) {
+        for (Key key : keys) {
+            format.setInteger(key.name, key.value);
+        }
+    }
+
+    public boolean isEmpty() {
+        return keys.isEmpty();
+    }
+
+    /**
+     * Drop the least important key (after the codec rejected the configuration).
+     *
+     * @return the name of the dropped key
+     */
+    public String dropLeastImportant() {
+        Key key = keys.remove(keys.size() - 1);
+        droppedKeys.add(key);
+        return key.name;
+    }
+
+    /**
+     * Restore the dropped keys (to try them again with another configuration).
+     */
+    public void restoreDropped() {
+        // the keys were dropped from the end, so restore them in the reverse order
+        for (int i = droppedKeys.size() - 1; i >= 0; --i) {
+            keys.add(droppedKeys.get(i));
+        }
+        droppedKeys.clear();
+    }
+
+    public List<String> getKeyNames() {
+        List<String> names = new ArrayList<>(keys.size());
+        for (Key key : keys) {
+            names.add(key.name);
+        }
+        return names;
+    }
+
+    @Override
+    public String toString() {
+        return "applied " + keys + ", dropped " + droppedKeys;
+    }
+}
@@ -3,6 +3,8 @@ package com.genymobile.scrcpy;
 import android.graphics.Point;
 import android.graphics.Rect;
 
+import java.util.Locale;
+
 public class Options {
     private int maxSize;
     private int bitRate;
@@ -15,6 +17,24 @@ public class Options {
     private boolean tabletMode = false;
     private int local_port = 0;
     private boolean useIME = false;
+    private Ln.Level logLevel; // null to keep the default
+    private boolean heartbeat = false; // echo pings by heartbeat device messages
+    private boolean inputBuffer = false; // delay motion events to smooth the network jitter
+    private boolean injectAck = false; // wait for the result of injections and acknowledge them
+    private boolean clipboardAutosync = false; // push the device clipboard when it changes
+    private boolean clipboardChunks = false; // send the device clipboard in chunks, without size limit
+    private boolean clipboardDeflate = false; // compress the clipboard chunks
+    private int intraRefresh = 0; // intra refresh period (in frames) replacing periodic key frames, 0 to disable
+    private boolean lowLatency = false; // ask the encoder not to buffer frames
+    private TuningProfile tuning; // null for the default encoder setup
+    private boolean autoTuning = false; // select the tuning profile from the content
+    private int stallFrames = 0; // restart a codec producing no frame for this number of frame intervals, 0 to disable
+    private String encoder; // encoder name, "auto" or "benchmark" to select it by benchmark, null for the default one
+    private int temporalLayers = 0; // temporal layers (tagged in the PTS, upper ones dropped on congestion), 0 to disable
+    private int tiles = 1; // number of tiles encoded in parallel
+    private boolean idle = false; // suspend the encoder on a static screen
+    private boolean warmUp = true; // create the system service wrappers on a separate thread on startup, in parallel with DeviceControl
+    private int[] thermal; // thermal statuses throttling the frame rate, the bit rate and the size (see ThermalMonitor), null to disable
 
     public int getMaxSize() {
         return maxSize;
@@ -74,6 +94,42 @@ public class Options {
 
     public boolean getUseIME() { return useIME; }
 
+    public Ln.Level getLogLevel() { return logLevel; }
+
+    public boolean getHeartbeat() { return heartbeat; }
+
+    public boolean getInputBuffer() { return inputBuffer; }
+
+    public boolean getInjectAck() { return injectAck; }
+
+    public boolean getClipboardAutosync() { return clipboardAutosync; }
+
+    public boolean getClipboardChunks() { return clipboardChunks; }
+
+    public boolean getClipboardDeflate() { return clipboardDeflate; }
+
+    public int getIntraRefresh() { return intraRefresh; }
+
+    public boolean getLowLatency() { return lowLatency; }
+
+    public TuningProfile getTuning() { return tuning; }
+
+    public boolean getAutoTuning() { return autoTuning; }
+
+    public int getStallFrames() { return stallFrames; }
+
+    public String getEncoder() { return encoder; }
+
+    public int getTemporalLayers() { return temporalLayers; }
+
+    public int getTiles() { return tiles; }
+
+    public boolean getIdle() { return idle; }
+
+    public boolean getWarmUp() { return warmUp; }
+
+    public int[] getThermal() { return thermal; }
+
     public void setOption(final String option) {
         String[] pair = option.split("=");
         if (pair.length != 2) {
@@ -97,6 +153,62 @@ public class Options {
             local_port = Integer.parseInt(pair[1]);
         } else if("useIME".equals(pair[0])) {
             useIME = Boolean.parseBoolean(pair[1]);
+        } else if("log".equals(pair[0])) {
+            try {
+                logLevel = Ln.Level.valueOf(pair[1].toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                Ln.w("Expected log=debug|info|warn|error ({})", option);
+            }
+        } else if("heartbeat".equals(pair[0])) {
+            heartbeat = Boolean.parseBoolean(pair[1]);
+        } else if("inputBuffer".equals(pair[0])) {
+            inputBuffer = Boolean.parseBoolean(pair[1]);
+        } else if("injectAck".equals(pair[0])) {
+            injectAck = Boolean.parseBoolean(pair[1]);
+        } else if("clipboardAutosync".equals(pair[0])) {
+            clipboardAutosync = Boolean.parseBoolean(pair[1]);
+        } else if("clipboardChunks".equals(pair[0])) {
+            clipboardChunks = Boolean.parseBoolean(pair[1]);
+        } else if("clipboardDeflate".equals(pair[0])) {
+            clipboardDeflate = Boolean.parseBoolean(pair[1]);
+        } else if("intraRefresh".equals(pair[0])) {
+            intraRefresh = Integer.parseInt(pair[1]);
+        } else if("lowLatency".equals(pair[0])) {
+            lowLatency = Boolean.parseBoolean(pair[1]);
+        } else if("tuning".equals(pair[0])) {
+            autoTuning = "auto".equals(pair[1]);
+            // most screens show text, start with it
+            tuning = autoTuning ? TuningProfile.TEXT : TuningProfile.fromName(pair[1]);
+            if (tuning == null) {
+                Ln.w("Expected tuning=text|motion|auto ({})", option);
+            }
+        } else if("stallFrames".equals(pair[0])) {
+            stallFrames = Integer.parseInt(pair[1]);
+        } else if("encoder".equals(pair[0])) {
+            encoder = pair[1];
+        } else if("temporalLayers".equals(pair[0])) {
+            int value = Integer.parseInt(pair[1]);
+            if (value != 0 && (value < TemporalLayers.MIN_LAYER_COUNT || value > TemporalLayers.MAX_LAYER_COUNT)) {
+                Ln.w("Expected temporalLayers=0|2|3|4 ({})", option);
+                return;
+            }
+            temporalLayers = value;
+        } else if("tiles".equals(pair[0])) {
+            int value = Integer.parseInt(pair[1]);
+            if (value < 1 || value > TileGeometry.MAX_TILES) {
+                Ln.w("Expected tiles=1..{} ({})", TileGeometry.MAX_TILES, option);
+                return;
+            }
+            tiles = value;
+        } else if("idle".equals(pair[0])) {
+            idle = Boolean.parseBoolean(pair[1]);
+        } else if("warmUp".equals(pair[0])) {
+            warmUp = Boolean.parseBoolean(pair[1]);
+        } else if("thermal".equals(pair[0])) {
+            thermal = ThermalMonitor.parseThresholds(pair[1]);
+            if (thermal == null) {
+                Ln.w("Expected thermal=<status>[,<status>[,<status>]], increasing statuses in 1..6 ({})", option);
+            }
         }
     }
 }
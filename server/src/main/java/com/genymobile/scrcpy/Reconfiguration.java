@@ -0,0 +1,141 @@
+package com.genymobile.scrcpy;
+
+import android.graphics.Rect;
+
+/**
+ * Encoder parameters to change during the session (see {@link ScreenEncoder#reconfigure(Reconfiguration)}).
+ * <p>
+ * Only the fields present in the mask are changed.
+ */
+public final class Reconfiguration {
+
+    public static final int FIELD_BIT_RATE = 1;
+    public static final int FIELD_MAX_SIZE = 1 << 1;
+    public static final int FIELD_CROP = 1 << 2;
+    public static final int FIELD_I_FRAME_INTERVAL = 1 << 3;
+    // server side only (thermal throttling), never requested by the client
+    public static final int FIELD_MAX_FPS = 1 << 4;
+    public static final int CLIENT_FIELDS = FIELD_BIT_RATE | FIELD_MAX_SIZE | FIELD_CROP | FIELD_I_FRAME_INTERVAL;
+    public static final int ALL_FIELDS = CLIENT_FIELDS | FIELD_MAX_FPS;
+
+    private static final int MAX_BIT_RATE = 200_000_000;
+    private static final int MAX_I_FRAME_INTERVAL = 3600; // seconds
+
+    private final int fields;
+    private final int bitRate;
+    private final int maxSize;
+    private final int iFrameInterval; // seconds
+    private final int maxFps; // 0 for no limit
+    // the crop, an empty one for no crop
+    private final int cropX;
+    private final int cropY;
+    private final int cropWidth;
+    private final int cropHeight;
+
+    public Reconfiguration(int fields, int bitRate, int maxSize, int iFrameInterval, int maxFps) {
+        this(fields, bitRate, maxSize, iFrameInterval, maxFps, 0, 0, 0, 0);
+    }
+
+    public Reconfiguration(int fields, int bitRate, int maxSize, int iFrameInterval, int maxFps, int cropX, int cropY, int cropWidth,
+                           int cropHeight) {
+        this.fields = fields;
+        this.bitRate = bitRate;
+        this.maxSize = maxSize;
+        this.iFrameInterval = iFrameInterval;
+        this.maxFps = maxFps;
+        this.cropX = cropX;
+        this.cropY = cropY;
+        this.cropWidth = cropWidth;
+        this.cropHeight = cropHeight;
+    }
+
+    /**
+     * Combine with a more recent reconfiguration, not applied yet.
+     */
+    public Reconfiguration merge(Reconfiguration next) {
+        Reconfiguration crop = next.has(FIELD_CROP) ? next : this;
+        return new Reconfiguration(fields | next.fields,
+                next.has(FIELD_BIT_RATE) ? next.bitRate : bitRate,
+                next.has(FIELD_MAX_SIZE) ? next.maxSize : maxSize,
+                next.has(FIELD_I_FRAME_INTERVAL) ? next.iFrameInterval : iFrameInterval,
+                next.has(FIELD_MAX_FPS) ? next.maxFps : maxFps,
+                crop.cropX, crop.cropY, crop.cropWidth, crop.cropHeight);
+    }
+
+    public boolean has(int field) {
+        return (fields & field) != 0;
+    }
+
+    /**
+     * Tell whether the reconfiguration may be applied to the running codec, without restarting it.
+     */
+    public boolean isLive() {
+        return (fields & ~FIELD_BIT_RATE) == 0;
+    }
+
+    /**
+     * Check the values the codec would reject (the crop and the size are checked against the screen when they are applied).
+     */
+    public boolean isValid() {
+        if (has(FIELD_BIT_RATE) && (bitRate <= 0 || bitRate > MAX_BIT_RATE)) {
+            return false;
+        }
+        if (has(FIELD_I_FRAME_INTERVAL) && (iFrameInterval <= 0 || iFrameInterval > MAX_I_FRAME_INTERVAL)) {
+            return false;
+        }
+        // a crop is either empty or has both dimensions
+        return !has(FIELD_CROP) || (cropWidth == 0) == (cropHeight == 0);
+    }
+
+    public int getFields() {
+        return fields;
+    }
+
+    public int getBitRate() {
+        return bitRate;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getCropX() {
+        return cropX;
+    }
+
+    public int getCropY() {
+        return cropY;
+    }
+
+    public int getCropWidth() {
+        return cropWidth;
+    }
+
+    public int getCropHeight() {
+        return cropHeight;
+    }
+
+    /**
+     * @return the crop, {@code null} for no crop
+     */
+    public Rect getCrop() {
+        if (cropWidth == 0 || cropHeight == 0) {
+            return null;
+        }
+        return new Rect(cropX, cropY, cropX + cropWidth, cropY + cropHeight);
+    }
+
+    public int getIFrameInterval() {
+        return iFrameInterval;
+    }
+
+    public int getMaxFps() {
+        return maxFps;
+    }
+
+    @Override
+    public String toString() {
+        return "fields=" + fields + " bitRate=" + bitRate + " maxSize=" + maxSize + " iFrameInterval=" + iFrameInterval + " maxFps=" + maxFps
+                + " crop=" + cropWidth + ":" + cropHeight + ":" + cropX + ":" + cropY;
+    }
+}
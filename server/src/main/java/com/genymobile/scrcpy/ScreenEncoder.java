@@ -6,54 +6,162 @@ import android.graphics.Rect;
 import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Bundle;
 import android.os.IBinder;
+import android.os.SystemClock;
+import android.util.Range;
 import android.view.Surface;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class ScreenEncoder implements Device.RotationListener {
 
+    public interface ReconfigurationListener {
+        /**
+         * Called on the encoder thread once a reconfiguration is applied (or failed), with the resulting parameters.
+         */
+        void onReconfigured(Reconfiguration reconfiguration, boolean result, int bitRate, Size videoSize, int iFrameInterval);
+    }
+
     private static final int DEFAULT_FRAME_RATE = 60; // fps
     private static final int REDUCED_FRAME_RATE = 30; // fps
 
     private static final int DEFAULT_I_FRAME_INTERVAL   = 5; // seconds
     private static final int INCREASED_I_FRAME_INTERVAL = 1; // seconds
 
+    // with intra refresh, key frames are only a safety net if the refresh is not honored
+    private static final int INTRA_REFRESH_I_FRAME_INTERVAL = 60; // seconds
+
     private static final int REPEAT_FRAME_DELAY    = 6; // repeat after 6 frames
     private static final int REPEAT_FRAME_NO_DELAY = 1; // repeat after 1 frame
 
     private static final int MICROSECONDS_IN_ONE_SECOND = 1_000_000;
     private static final int NO_PTS = -1;
+    private static final long STATS_INTERVAL_MS = 10_000;
+    // short, to stop the other tiles quickly
+    private static final long TILE_DEQUEUE_TIMEOUT_US = 100_000;
+    private static final long TILE_JOIN_TIMEOUT_MS = 100;
+    private static final int THERMAL_FRAME_RATE_DIVISOR = 2;
+    private static final int THERMAL_BIT_RATE_DIVISOR = 2;
+
+    // select the encoder from the cached benchmark result (benchmark in the background for the next sessions if there is none)
+    public static final String ENCODER_AUTO = "auto";
+    // benchmark the encoders again
+    public static final String ENCODER_BENCHMARK = "benchmark";
 
     private final AtomicBoolean rotationChanged = new AtomicBoolean();
     private final ByteBuffer headerBuffer = ByteBuffer.allocate(12);
+    private final EncoderStats stats = new EncoderStats(); // since the last report
+    private final EncoderStats totalStats = new EncoderStats();
+    private long lastStatsReport;
 
     private int bitRate;
     private int frameRate;
     private int iFrameInterval;
     private int repeatFrameDelay;
+    private int intraRefreshPeriod; // frames, 0 if disabled (or unsupported)
     private boolean sendFrameMeta;
     private long ptsOrigin;
+    private final boolean lowLatency;
+    private LowLatencyProfile lowLatencyProfile; // created for the first codec, then kept (without the rejected keys)
+    private long startTime; // of the current codec, to measure the first frame time
+    private TuningProfile tuning; // null for the default setup
+    private TuningDetector tuningDetector; // null if the tuning profile is not selected automatically
+    private final EncoderStats tuningStats = new EncoderStats(); // since the tuning profile is applied
+    private long tuningStart;
+    private final EncoderWatchdog watchdog; // null if disabled
+    private String encoderName; // null for the default encoder
+    private TemporalLayers temporalLayers; // null if disabled (or unsupported)
+    private FrameShedder frameShedder; // non-null with the temporal layers
+    private final int tileCount; // 1 for a single encoder
+    private final IdleDetector idleDetector; // null if disabled
+    private volatile MediaCodec activeCodec; // to resume it on input, from the controller thread
+    private int maxFps; // 0 for no limit
+    private volatile int requestedThermalLevel; // ThermalMonitor.LEVEL_*
+    private int thermalLevel; // applied (encoder thread only)
+    // the parameters before throttling, restored once the device cooled down (encoder thread only)
+    private int thermalBaseBitRate;
+    private int thermalBaseMaxSize;
+    private int thermalBaseVideoSize; // the largest dimension
 
-    private boolean abort = false;
+    private Reconfiguration pendingReconfiguration; // requested, not handled yet
+    private Reconfiguration restartReconfiguration; // to apply on the next codec restart (encoder thread only)
+    private final List<Reconfiguration> rejectedReconfigurations = new ArrayList<>(); // invalid, to reply with a failure
+    private ReconfigurationListener reconfigurationListener;
+    private volatile boolean clientReconfigures; // the client requested a reconfiguration, so it knows the reconfigured message
 
-    private ScreenEncoder(boolean sendFrameMeta, int bitRate, int frameRate, int iFrameInterval, int repeatFrameDelay) {
-        this.sendFrameMeta    = sendFrameMeta;
-        this.bitRate          = bitRate;
-        this.frameRate        = frameRate;
-        this.iFrameInterval   = iFrameInterval;
-        this.repeatFrameDelay = repeatFrameDelay;
-        Ln.i("bitRate: "+bitRate+" frameRate: "+frameRate+" iFrameInterval: "+iFrameInterval+" repeatFrameDelay: "+repeatFrameDelay);
+    private volatile boolean abort = false; // also set from the tile threads
+
+    /**
+     * @param intraRefreshPeriod if not 0, refresh the frame progressively over this number of frames instead of sending periodic key
+     *                           frames (if the encoder supports it)
+     * @param lowLatency         ask the encoder not to buffer frames (see {@link LowLatencyProfile})
+     * @param tuning             the encoder setup for the content, {@code null} for the default one
+     * @param autoTuning         switch the tuning profile when the content changes (see {@link TuningDetector})
+     * @param stallFrames        restart the codec if it produces no frame for this number of frame intervals while the display is
+     *                           expected to change (see {@link EncoderWatchdog}), 0 to disable
+     * @param encoderName        the encoder to use, {@link #ENCODER_AUTO} or {@link #ENCODER_BENCHMARK} to select it (see
+     *                           {@link #selectEncoder()}), {@code null} for the default one
+     * @param temporalLayerCount if greater than 1, encode with this number of temporal layers, tag the layer of each frame and drop the
+     *                           upper layers on congestion (see {@link TemporalLayers})
+     * @param tileCount          if greater than 1, split the video into tiles encoded in parallel (see {@link TileMuxer})
+     * @param idleSuspend        suspend the encoder on a static screen instead of sending repeated frames (see {@link IdleDetector})
+     */
+    private ScreenEncoder(boolean sendFrameMeta, int bitRate, int frameRate, int iFrameInterval, int repeatFrameDelay,
+                          int intraRefreshPeriod, boolean lowLatency, TuningProfile tuning, boolean autoTuning, int stallFrames,
+                          String encoderName, int temporalLayerCount, int tileCount, boolean idleSuspend) {
+        this.sendFrameMeta      = sendFrameMeta;
+        this.bitRate            = bitRate;
+        this.frameRate          = frameRate;
+        this.iFrameInterval     = iFrameInterval;
+        this.repeatFrameDelay   = repeatFrameDelay;
+        this.intraRefreshPeriod = intraRefreshPeriod;
+        this.lowLatency         = lowLatency;
+        this.tuning             = tuning;
+        if (autoTuning) {
+            tuningDetector = new TuningDetector(bitRate, frameRate, tuning, SystemClock.uptimeMillis());
+        }
+        watchdog = stallFrames > 0 ? new EncoderWatchdog(stallFrames, frameRate) : null;
+        this.encoderName = encoderName;
+        this.tileCount = tileCount;
+        idleDetector = idleSuspend ? new IdleDetector(bitRate, frameRate) : null;
+        if (temporalLayerCount > 1) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                temporalLayers = new TemporalLayers(temporalLayerCount);
+                frameShedder = new FrameShedder(temporalLayerCount, frameRate);
+            } else {
+                Ln.w("Temporal layering requires Android 10");
+            }
+        }
+        Ln.i("bitRate: "+bitRate+" frameRate: "+frameRate+" iFrameInterval: "+iFrameInterval+" repeatFrameDelay: "+repeatFrameDelay
+                +" intraRefreshPeriod: "+intraRefreshPeriod+" lowLatency: "+lowLatency+" tuning: "+tuning+(autoTuning ? " (auto)" : ""));
     }
 
-    public ScreenEncoder(boolean sendFrameMeta, int bitRate, boolean isTunnelForward) {
-        this(sendFrameMeta, bitRate
-                , isTunnelForward ? REDUCED_FRAME_RATE : DEFAULT_FRAME_RATE
-                , isTunnelForward ? INCREASED_I_FRAME_INTERVAL : DEFAULT_I_FRAME_INTERVAL
-                , isTunnelForward ? REPEAT_FRAME_NO_DELAY : REPEAT_FRAME_DELAY);
+    /**
+     * Configure the encoder from the server options (see {@link Options}).
+     */
+    public ScreenEncoder(Options options) {
+        this(options.getSendFrameMeta(), options.getBitRate()
+                , options.isTunnelForward() ? REDUCED_FRAME_RATE : DEFAULT_FRAME_RATE
+                , options.isTunnelForward() ? INCREASED_I_FRAME_INTERVAL : DEFAULT_I_FRAME_INTERVAL
+                , options.isTunnelForward() ? REPEAT_FRAME_NO_DELAY : REPEAT_FRAME_DELAY
+                , options.getIntraRefresh()
+                , options.getLowLatency()
+                , options.getTuning()
+                , options.getAutoTuning()
+                , options.getStallFrames()
+                , options.getEncoder()
+                , options.getTemporalLayers()
+                , options.getTiles()
+                , options.getIdle());
     }
 
     @Override
@@ -61,80 +169,721 @@ public class ScreenEncoder implements Device.RotationListener {
         rotationChanged.set(true);
     }
 
+    /**
+     * Notify that the display content is expected to change (an input event or a command was injected), from any thread.
+     */
+    public void onDisplayActivity() {
+        long now = SystemClock.uptimeMillis();
+        if (watchdog != null) {
+            watchdog.onActivity(now);
+        }
+        if (idleDetector != null) {
+            synchronized (idleDetector) {
+                // resume immediately, without waiting for the encoder thread
+                int action = idleDetector.onInput(now);
+                MediaCodec codec = activeCodec;
+                if (codec != null) {
+                    applyIdleAction(codec, action);
+                }
+            }
+        }
+    }
+
     public boolean consumeRotationChange() {
         return rotationChanged.getAndSet(false);
     }
 
-    public void streamScreen(Device device, WritableByteChannel outputChannel) throws IOException {
-        MediaFormat format = createFormat(bitRate, frameRate, iFrameInterval, repeatFrameDelay);
+    public synchronized void setReconfigurationListener(ReconfigurationListener reconfigurationListener) {
+        this.reconfigurationListener = reconfigurationListener;
+    }
+
+    /**
+     * Request to change encoder parameters, from any thread.
+     * <p>
+     * The reconfiguration is applied between two frames: the bit rate is changed on the running codec, the other parameters restart the
+     * codec and the display (as on rotation). Requests not applied yet are merged. Invalid requests are rejected, and so are the requests
+     * the codec fails to apply (the previous parameters are restored). All requests are rejected in tiled mode.
+     */
+    public synchronized void reconfigure(Reconfiguration reconfiguration) {
+        clientReconfigures = true;
+        if (tileCount > 1 || !reconfiguration.isValid()) {
+            rejectedReconfigurations.add(reconfiguration);
+            return;
+        }
+        submitReconfiguration(reconfiguration);
+    }
+
+    private synchronized List<Reconfiguration> takeRejectedReconfigurations() {
+        if (rejectedReconfigurations.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Reconfiguration> rejected = new ArrayList<>(rejectedReconfigurations);
+        rejectedReconfigurations.clear();
+        return rejected;
+    }
+
+    private void notifyRejectedReconfigurations(Device device) {
+        for (Reconfiguration rejected : takeRejectedReconfigurations()) {
+            notifyReconfigured(rejected, false, device);
+        }
+    }
+
+    private synchronized void submitReconfiguration(Reconfiguration reconfiguration) {
+        if (pendingReconfiguration == null) {
+            pendingReconfiguration = reconfiguration;
+        } else {
+            pendingReconfiguration = pendingReconfiguration.merge(reconfiguration);
+        }
+    }
+
+    private synchronized Reconfiguration takeReconfiguration() {
+        Reconfiguration reconfiguration = pendingReconfiguration;
+        pendingReconfiguration = null;
+        return reconfiguration;
+    }
+
+    /**
+     * Request a thermal throttle level (see {@link ThermalMonitor}), from any thread.
+     * <p>
+     * The level is applied between two frames, as a reconfiguration. It is not supported in tiled mode (see {@link #isThermalSupported()}).
+     */
+    public void setThermalLevel(int level) {
+        requestedThermalLevel = level;
+    }
+
+    public boolean isThermalSupported() {
+        return tileCount == 1;
+    }
+
+    /**
+     * Throttle for the requested thermal throttle level: {@link ThermalMonitor#LEVEL_FRAME_RATE} halves the frame rate (since Android 10),
+     * {@link ThermalMonitor#LEVEL_BIT_RATE} also halves the bit rate, {@link ThermalMonitor#LEVEL_SIZE} also reduces the video size by a
+     * quarter. Only the parameters differing from the current level are changed.
+     * <p>
+     * The bit rate and the max size requested by the client become the new base (restored once the device cooled down), throttled for
+     * the current level.
+     *
+     * @param reconfiguration the client reconfiguration, {@code null} if there is none
+     * @return the reconfiguration to apply, {@code null} if there is none
+     */
+    private Reconfiguration throttle(Reconfiguration reconfiguration, Device device) {
+        int level = requestedThermalLevel;
+        if (thermalLevel == ThermalMonitor.LEVEL_NONE) {
+            thermalBaseBitRate = bitRate;
+            thermalBaseMaxSize = device.getMaxSize();
+            Size videoSize = device.getScreenInfo().getVideoSize();
+            thermalBaseVideoSize = Math.max(videoSize.getWidth(), videoSize.getHeight());
+        }
+        int oldMaxFps = getThermalMaxFps(thermalLevel);
+        int oldBitRate = getThermalBitRate(thermalLevel);
+        int oldMaxSize = getThermalMaxSize(thermalLevel);
+
+        int fields = 0;
+        int iFrameInterval = 0;
+        if (reconfiguration != null) {
+            fields = reconfiguration.getFields();
+            iFrameInterval = reconfiguration.getIFrameInterval();
+            if (reconfiguration.has(Reconfiguration.FIELD_BIT_RATE)) {
+                thermalBaseBitRate = reconfiguration.getBitRate();
+            }
+            if (reconfiguration.has(Reconfiguration.FIELD_MAX_SIZE)) {
+                thermalBaseMaxSize = reconfiguration.getMaxSize();
+            }
+            if (reconfiguration.has(Reconfiguration.FIELD_MAX_SIZE) || reconfiguration.has(Reconfiguration.FIELD_CROP)) {
+                thermalBaseVideoSize = getBaseVideoSize(reconfiguration, device);
+            }
+        }
+
+        int newMaxFps = getThermalMaxFps(level);
+        if (newMaxFps != oldMaxFps) {
+            fields |= Reconfiguration.FIELD_MAX_FPS;
+        }
+        int newBitRate = getThermalBitRate(level);
+        if (newBitRate != oldBitRate) {
+            fields |= Reconfiguration.FIELD_BIT_RATE;
+        }
+        int newMaxSize = getThermalMaxSize(level);
+        if (newMaxSize != oldMaxSize) {
+            fields |= Reconfiguration.FIELD_MAX_SIZE;
+        }
+        thermalLevel = level;
+        if (fields == 0) {
+            return null;
+        }
+        if (reconfiguration == null) {
+            return new Reconfiguration(fields, newBitRate, newMaxSize, iFrameInterval, newMaxFps);
+        }
+        return new Reconfiguration(fields, newBitRate, newMaxSize, iFrameInterval, newMaxFps, reconfiguration.getCropX(),
+                reconfiguration.getCropY(), reconfiguration.getCropWidth(), reconfiguration.getCropHeight());
+    }
+
+    /**
+     * @return the largest dimension of the video for the geometry of a reconfiguration, before throttling
+     */
+    private int getBaseVideoSize(Reconfiguration reconfiguration, Device device) {
+        int contentSize;
+        if (reconfiguration.has(Reconfiguration.FIELD_CROP) && reconfiguration.getCropWidth() != 0) {
+            contentSize = Math.max(reconfiguration.getCropWidth(), reconfiguration.getCropHeight());
+        } else {
+            // the current content (approximate if the crop is removed)
+            Rect contentRect = device.getScreenInfo().getContentRect();
+            contentSize = Math.max(contentRect.width(), contentRect.height());
+        }
+        return thermalBaseMaxSize > 0 ? Math.min(thermalBaseMaxSize, contentSize) : contentSize;
+    }
+
+    private int getThermalMaxFps(int level) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            // KEY_MAX_FPS_TO_ENCODER is not honored, the frame rate step is skipped
+            return 0;
+        }
+        return level >= ThermalMonitor.LEVEL_FRAME_RATE ? frameRate / THERMAL_FRAME_RATE_DIVISOR : 0;
+    }
+
+    private int getThermalBitRate(int level) {
+        return level >= ThermalMonitor.LEVEL_BIT_RATE ? thermalBaseBitRate / THERMAL_BIT_RATE_DIVISOR : thermalBaseBitRate;
+    }
+
+    @SuppressWarnings("checkstyle:MagicNumber")
+    private int getThermalMaxSize(int level) {
+        return level >= ThermalMonitor.LEVEL_SIZE ? (thermalBaseVideoSize * 3 / 4) & ~7 : thermalBaseMaxSize; // multiple of 8
+    }
+
+    private void notifyReconfigured(Reconfiguration reconfiguration, boolean result, Device device) {
+        if (!clientReconfigures) {
+            // the client does not know the reconfigured message (the reconfiguration is internal)
+            return;
+        }
+        ReconfigurationListener listener;
+        synchronized (this) {
+            listener = reconfigurationListener;
+        }
+        if (listener != null) {
+            listener.onReconfigured(reconfiguration, result, bitRate, device.getScreenInfo().getVideoSize(), iFrameInterval);
+        }
+    }
+
+    public void streamScreen(final Device device, WritableByteChannel outputChannel) throws IOException {
+        if (tileCount > 1) {
+            streamTiles(device, outputChannel);
+            return;
+        }
         device.setRotationListener(this);
+        tuningStart = SystemClock.uptimeMillis();
+        EncodeLoop<ScreenCodec> loop = new EncodeLoop<>(watchdog);
+        EncodeLoop.Factory<ScreenCodec> factory = new EncodeLoop.Factory<ScreenCodec>() {
+            @Override
+            public ScreenCodec create() throws IOException {
+                return startCodec(device);
+            }
+        };
+        long timeoutUs = getDequeueTimeoutUs();
         try {
             boolean alive;
             do {
+                EncodeHandler handler = new EncodeHandler(device, outputChannel);
+                loop.run(factory, handler, timeoutUs);
+                alive = !handler.eof;
+            } while (alive && !abort);
+        } finally {
+            device.setRotationListener(null);
+            if (frameShedder != null && frameShedder.getDroppedFrames() > 0) {
+                Ln.i("Frames of upper temporal layers dropped on congestion: " + frameShedder.getDroppedFrames());
+            }
+            if (watchdog != null && watchdog.getRecoveryCount() > 0) {
+                Ln.i("Encoder recovered from " + watchdog.getRecoveryCount() + " stalls");
+            }
+            if (idleDetector != null) {
+                Ln.i("Idle: " + idleDetector.getIdleTime(SystemClock.uptimeMillis()) + " ms (" + idleDetector.getIdlePeriods() + " periods)");
+            }
+            if (tuning != null) {
+                logTuningStats();
+            }
+            Ln.i("Encoder stats: " + totalStats);
+        }
+    }
+
+    /**
+     * Create, configure and start a codec with its virtual display, restoring the previous parameters if a reconfiguration is rejected by
+     * the codec.
+     */
+    private ScreenCodec startCodec(Device device) throws IOException {
+        while (true) {
+            Reconfiguration previous = null;
+            if (restartReconfiguration != null) {
+                previous = captureParameters(device);
+                applyOnRestart(restartReconfiguration, device);
+            }
+            MediaCodec codec = createCodec();
+            IBinder display = createDisplay();
+            boolean sizeReduced;
+            try {
+                sizeReduced = configure(codec, device);
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                destroyDisplay(display);
+                codec.release();
+                if (previous == null) {
+                    throw e;
+                }
+                // do not end the session for a bad reconfiguration
+                Ln.e("Could not apply the reconfiguration (" + restartReconfiguration + "), restore the previous parameters", e);
+                applyOnRestart(previous, device);
+                notifyReconfigured(restartReconfiguration, false, device);
+                restartReconfiguration = null;
+                continue;
+            }
+            // read after configure(), which may reduce the video size
+            ScreenInfo screenInfo = device.getScreenInfo();
+            Rect contentRect = screenInfo.getContentRect();
+            Rect videoRect = screenInfo.getVideoSize().toRect();
+            Surface surface = codec.createInputSurface();
+            setDisplaySurface(display, surface, contentRect, videoRect);
+            startTime = SystemClock.uptimeMillis();
+            codec.start();
+            if (idleDetector != null) {
+                idleDetector.onStart(startTime);
+                activeCodec = codec;
+            }
+            if (restartReconfiguration != null) {
+                notifyReconfigured(restartReconfiguration, true, device);
+                restartReconfiguration = null;
+            } else if (sizeReduced && clientReconfigures) {
+                // the client knows the reconfigured message, tell it the new size (the stream carries it anyway)
+                notifyReconfigured(new Reconfiguration(Reconfiguration.FIELD_MAX_SIZE, 0, device.getMaxSize(), 0, 0), true, device);
+            }
+            return new ScreenCodec(codec, display, surface);
+        }
+    }
+
+    public void Abort() { abort = true; }
+
+    /**
+     * Encode the tiles in parallel, each one with its own codec and virtual display, restarting on rotation.
+     * <p>
+     * The frame headers are always sent (with the tile id). The size ladder, the watchdog, the temporal layers and the thermal throttling
+     * only apply to the single encoder. The reconfigurations are rejected.
+     */
+    private void streamTiles(Device device, WritableByteChannel outputChannel) throws IOException {
+        TileMuxer muxer = new TileMuxer(outputChannel, frameRate);
+        device.setRotationListener(this);
+        try {
+            do {
+                ScreenInfo screenInfo = device.getScreenInfo();
+                Rect contentRect = screenInfo.getContentRect();
+                List<TileGeometry.Tile> tiles = TileGeometry.split(new Point(contentRect.left, contentRect.top),
+                        new Size(contentRect.width(), contentRect.height()), screenInfo.getVideoSize(), tileCount);
+                muxer.writeLayout(tiles);
+                encodeTiles(tiles, muxer, device);
+            } while (consumeRotationChange() && !abort);
+        } finally {
+            device.setRotationListener(null);
+        }
+    }
+
+    private void encodeTiles(List<TileGeometry.Tile> tiles, final TileMuxer muxer, Device device) throws IOException {
+        List<MediaCodec> codecs = new ArrayList<>();
+        List<IBinder> displays = new ArrayList<>();
+        List<Surface> surfaces = new ArrayList<>();
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicReference<Exception> error = new AtomicReference<>();
+        try {
+            // the display transactions are global, set up the tiles from this thread
+            for (TileGeometry.Tile tile : tiles) {
                 MediaCodec codec = createCodec();
+                codecs.add(codec);
                 IBinder display = createDisplay();
-                Rect contentRect = device.getScreenInfo().getContentRect();
-                Rect videoRect = device.getScreenInfo().getVideoSize().toRect();
-                setSize(format, videoRect.width(), videoRect.height());
-                configure(codec, format);
+                displays.add(display);
+                Size size = tile.getVideoSize();
+                MediaFormat format = createFormat(size.getWidth(), size.getHeight(),
+                        codec.getCodecInfo().getCapabilitiesForType("video/avc"));
+                format.setInteger(MediaFormat.KEY_BIT_RATE, bitRate / tiles.size());
+                codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
                 Surface surface = codec.createInputSurface();
-                setDisplaySurface(display, surface, contentRect, videoRect);
+                surfaces.add(surface);
+                setDisplaySurface(display, surface, tile.getContentRect(), size.toRect());
+            }
+
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < tiles.size(); ++i) {
+                final MediaCodec codec = codecs.get(i);
+                final int tileId = tiles.get(i).getId();
                 codec.start();
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            encodeTile(codec, tileId, muxer, stop);
+                        } catch (IOException | IllegalStateException e) {
+                            error.compareAndSet(null, e);
+                        } finally {
+                            // a tile alone is useless
+                            stop.set(true);
+                        }
+                    }
+                }, "tile-" + tileId);
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
                 try {
-                    alive = encode(codec, outputChannel);
-                    // do not call stop() on exception, it would trigger an IllegalStateException
-                    codec.stop();
-                } finally {
-                    destroyDisplay(display);
-                    codec.release();
-                    surface.release();
+                    while (thread.isAlive()) {
+                        thread.join(TILE_JOIN_TIMEOUT_MS);
+                        // the reconfigurations are not supported, but the client expects a reply
+                        notifyRejectedReconfigurations(device);
+                    }
+                } catch (InterruptedException e) {
+                    stop.set(true);
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while encoding the tiles", e);
                 }
-            } while (alive && !abort);
+            }
         } finally {
-            device.setRotationListener(null);
+            for (IBinder display : displays) {
+                destroyDisplay(display);
+            }
+            for (MediaCodec codec : codecs) {
+                codec.release();
+            }
+            for (Surface surface : surfaces) {
+                surface.release();
+            }
+        }
+        Exception e = error.get();
+        if (e instanceof IOException) {
+            throw (IOException) e;
+        }
+        if (e != null) {
+            throw (IllegalStateException) e;
         }
     }
 
-    public void Abort() { abort = true; }
-
-    private boolean encode(MediaCodec codec, final WritableByteChannel out) throws IOException {
-        boolean eof = false;
+    private void encodeTile(MediaCodec codec, int tileId, TileMuxer muxer, AtomicBoolean stop) throws IOException {
         MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
-
-        final long timeoutUs = 1*1000*1000; // 1 second
-
-        while (!consumeRotationChange() && !eof && !abort) {
-            int outputBufferId = codec.dequeueOutputBuffer(bufferInfo, timeoutUs);
-            eof = (bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
-            if (abort) break;
+        while (!stop.get() && !abort && !rotationChanged.get()) {
+            int outputBufferId = codec.dequeueOutputBuffer(bufferInfo, TILE_DEQUEUE_TIMEOUT_US);
+            if (outputBufferId < 0) {
+                continue;
+            }
             try {
-                if (consumeRotationChange()) {
-                    // must restart encoding with new size
+                if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    abort = true;
                     break;
                 }
-                if (outputBufferId >= 0) {
-                    ByteBuffer codecBuffer = codec.getOutputBuffer(outputBufferId);
+                boolean config = (bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
+                muxer.writePacket(tileId, bufferInfo.presentationTimeUs, config, codec.getOutputBuffer(outputBufferId));
+            } finally {
+                codec.releaseOutputBuffer(outputBufferId, false);
+            }
+        }
+        // do not call stop() on exception, it would trigger an IllegalStateException
+        codec.stop();
+    }
 
-                    if (sendFrameMeta) {
-                        writeFrameMeta(out, bufferInfo, codecBuffer.remaining());
-                    }
-                    if (out.write(codecBuffer) <= 0) {
-                        Ln.w("Can't send frame");
-                        abort = true;
-                        break;
+    /**
+     * @return the current parameters, to restore them if a reconfiguration fails
+     */
+    private Reconfiguration captureParameters(Device device) {
+        Rect crop = device.getCrop();
+        if (crop == null) {
+            return new Reconfiguration(Reconfiguration.ALL_FIELDS, bitRate, device.getMaxSize(), iFrameInterval, maxFps);
+        }
+        return new Reconfiguration(Reconfiguration.ALL_FIELDS, bitRate, device.getMaxSize(), iFrameInterval, maxFps, crop.left, crop.top,
+                crop.width(), crop.height());
+    }
+
+    private void applyOnRestart(Reconfiguration reconfiguration, Device device) {
+        if (reconfiguration.has(Reconfiguration.FIELD_BIT_RATE)) {
+            bitRate = reconfiguration.getBitRate();
+            if (tuningDetector != null) {
+                tuningDetector.setBitRate(bitRate, frameRate);
+            }
+            if (idleDetector != null) {
+                idleDetector.setBitRate(bitRate, frameRate);
+            }
+        }
+        if (reconfiguration.has(Reconfiguration.FIELD_I_FRAME_INTERVAL)) {
+            iFrameInterval = reconfiguration.getIFrameInterval();
+        }
+        if (reconfiguration.has(Reconfiguration.FIELD_MAX_FPS)) {
+            maxFps = reconfiguration.getMaxFps();
+        }
+        if (reconfiguration.has(Reconfiguration.FIELD_CROP) || reconfiguration.has(Reconfiguration.FIELD_MAX_SIZE)) {
+            Rect crop = reconfiguration.has(Reconfiguration.FIELD_CROP) ? reconfiguration.getCrop() : device.getCrop();
+            int maxSize = reconfiguration.has(Reconfiguration.FIELD_MAX_SIZE) ? reconfiguration.getMaxSize() : device.getMaxSize();
+            device.setGeometry(crop, maxSize);
+        }
+        Ln.i("Reconfigured: bitRate: " + bitRate + " iFrameInterval: " + iFrameInterval + " maxFps: " + maxFps + " videoSize: "
+                + device.getScreenInfo().getVideoSize());
+    }
+
+    private void setBitRate(MediaCodec codec, Reconfiguration reconfiguration, Device device) {
+        Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, reconfiguration.getBitRate());
+        boolean result;
+        try {
+            codec.setParameters(params);
+            // kept on restart
+            bitRate = reconfiguration.getBitRate();
+            if (tuningDetector != null) {
+                tuningDetector.setBitRate(bitRate, frameRate);
+            }
+            if (idleDetector != null) {
+                idleDetector.setBitRate(bitRate, frameRate);
+            }
+            result = true;
+            Ln.i("Bit rate changed to " + bitRate);
+        } catch (IllegalStateException e) {
+            Ln.e("Could not change the bit rate", e);
+            result = false;
+        }
+        notifyReconfigured(reconfiguration, result, device);
+    }
+
+    private long getDequeueTimeoutUs() {
+        long timeoutUs = 1*1000*1000; // 1 second
+        if (watchdog != null) {
+            // check the watchdog often enough
+            timeoutUs = Math.min(timeoutUs, watchdog.getTimeoutMs() * 1000 / 2);
+        }
+        if (idleDetector != null) {
+            // probe a suspended codec on time
+            timeoutUs = Math.min(timeoutUs, IdleDetector.PROBE_INTERVAL_MS * 1000 / 2);
+        }
+        return timeoutUs;
+    }
+
+    /**
+     * Send the frames of a codec, until the end of stream, a rotation, a restart or an abort.
+     */
+    private final class EncodeHandler implements EncodeLoop.Handler<ScreenCodec> {
+
+        private final Device device;
+        private final WritableByteChannel out;
+        private boolean eof;
+        private boolean restart;
+
+        EncodeHandler(Device device, WritableByteChannel out) {
+            this.device = device;
+            this.out = out;
+        }
+
+        @Override
+        public boolean beforeDequeue(ScreenCodec codec) {
+            if (consumeRotationChange() || eof || abort) {
+                return false;
+            }
+            notifyRejectedReconfigurations(device);
+            Reconfiguration reconfiguration = takeReconfiguration();
+            if (reconfiguration != null || requestedThermalLevel != thermalLevel) {
+                reconfiguration = throttle(reconfiguration, device);
+            }
+            if (reconfiguration != null) {
+                if (!reconfiguration.isLive()) {
+                    // must restart encoding with the new parameters
+                    restartReconfiguration = reconfiguration;
+                    return false;
+                }
+                setBitRate(codec.codec, reconfiguration, device);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean onDequeued(ScreenCodec screenCodec, int outputBufferId) throws IOException {
+            MediaCodec codec = screenCodec.codec;
+            MediaCodec.BufferInfo bufferInfo = screenCodec.bufferInfo;
+            eof = (bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+            if (abort) {
+                return false;
+            }
+            if (idleDetector != null && outputBufferId == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                synchronized (idleDetector) {
+                    applyIdleAction(codec, idleDetector.onTick(SystemClock.uptimeMillis()));
+                }
+            }
+            if (consumeRotationChange()) {
+                // must restart encoding with new size
+                return false;
+            }
+            if (outputBufferId == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED && intraRefreshPeriod > 0
+                    && !codec.getOutputFormat().containsKey(MediaFormat.KEY_INTRA_REFRESH_PERIOD)) {
+                Ln.w("Intra refresh not reported by the encoder output format, it may be ignored");
+            }
+            if (outputBufferId == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED && temporalLayers != null
+                    && !codec.getOutputFormat().containsKey(MediaFormat.KEY_TEMPORAL_LAYERING)) {
+                Ln.w("Temporal layering not reported by the encoder output format, it may be ignored");
+            }
+            if (outputBufferId < 0) {
+                return true;
+            }
+            ByteBuffer codecBuffer = codec.getOutputBuffer(outputBufferId);
+            if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0) {
+                if (startTime != 0) {
+                    Ln.i("First frame encoded in " + (SystemClock.uptimeMillis() - startTime) + " ms");
+                    startTime = 0;
+                }
+                updateStats(bufferInfo);
+                if (idleDetector != null) {
+                    boolean keyFrame = (bufferInfo.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+                    synchronized (idleDetector) {
+                        // the current frame is still sent
+                        applyIdleAction(codec, idleDetector.onFrame(SystemClock.uptimeMillis(), bufferInfo.size, keyFrame));
                     }
                 }
-            } finally {
-                if (outputBufferId >= 0) {
-                    codec.releaseOutputBuffer(outputBufferId, false);
+                if (tuningDetector != null && updateTuning(bufferInfo.size)) {
+                    // the current frame is still sent, then the codec is restarted with the new profile
+                    restart = true;
                 }
             }
+
+            boolean layered = temporalLayers != null && (bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0;
+            int layer = 0;
+            if (layered) {
+                layer = temporalLayers.getLayer(codecBuffer);
+                if (frameShedder.shouldDrop(layer)) {
+                    // no sent frame references it
+                    return !restart;
+                }
+            }
+            long writeStart = System.nanoTime();
+            if (sendFrameMeta) {
+                writeFrameMeta(out, bufferInfo, codecBuffer.remaining(), layer);
+            }
+            if (out.write(codecBuffer) <= 0) {
+                Ln.w("Can't send frame");
+                abort = true;
+                return false;
+            }
+            if (layered) {
+                frameShedder.onWritten((System.nanoTime() - writeStart) / 1000);
+            }
+            return !restart;
         }
+    }
+
+    /**
+     * A started codec, with the virtual display feeding it.
+     */
+    private final class ScreenCodec implements EncodeLoop.Codec {
 
-        return !eof;
+        private final MediaCodec codec;
+        private final IBinder display;
+        private final Surface surface;
+        private final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+
+        ScreenCodec(MediaCodec codec, IBinder display, Surface surface) {
+            this.codec = codec;
+            this.display = display;
+            this.surface = surface;
+        }
+
+        @Override
+        public int dequeueOutputBuffer(long timeoutUs) {
+            return codec.dequeueOutputBuffer(bufferInfo, timeoutUs);
+        }
+
+        @Override
+        public void releaseOutputBuffer(int index) {
+            codec.releaseOutputBuffer(index, false);
+        }
+
+        @Override
+        public void requestSyncFrame() {
+            Bundle params = new Bundle();
+            params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+            try {
+                codec.setParameters(params);
+            } catch (IllegalStateException e) {
+                Ln.d("Could not request a key frame: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void stop() {
+            codec.stop();
+        }
+
+        @Override
+        public void release() {
+            activeCodec = null;
+            destroyDisplay(display);
+            codec.release();
+            surface.release();
+        }
     }
 
-    private void writeFrameMeta(WritableByteChannel out, MediaCodec.BufferInfo bufferInfo, int packetSize) throws IOException {
+    /**
+     * Apply an action of the idle detector, with the detector lock held (so that the codec is suspended and resumed in the order of the
+     * detector states, whatever the thread).
+     */
+    private static void applyIdleAction(MediaCodec codec, int action) {
+        if (action == IdleDetector.ACTION_NONE) {
+            return;
+        }
+        boolean suspended = action == IdleDetector.ACTION_SUSPEND;
+        Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_SUSPEND, suspended ? 1 : 0);
+        if (action == IdleDetector.ACTION_RESUME_SYNC) {
+            // the frames posted while suspended were dropped
+            params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+        }
+        try {
+            codec.setParameters(params);
+        } catch (IllegalStateException e) {
+            // the codec may be released concurrently
+            Ln.d("Could not " + (suspended ? "suspend" : "resume") + " the encoder: " + e.getMessage());
+        }
+    }
+
+    private void updateStats(MediaCodec.BufferInfo bufferInfo) {
+        boolean keyFrame = (bufferInfo.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+        stats.add(bufferInfo.size, keyFrame);
+        totalStats.add(bufferInfo.size, keyFrame);
+        tuningStats.add(bufferInfo.size, keyFrame);
+        long now = SystemClock.uptimeMillis();
+        if (lastStatsReport == 0) {
+            lastStatsReport = now;
+        } else if (now - lastStatsReport >= STATS_INTERVAL_MS) {
+            Ln.d("Encoder stats: " + stats + (idleDetector != null ? ", idle " + idleDetector.getIdleTime(now) + " ms" : ""));
+            stats.reset();
+            lastStatsReport = now;
+        }
+    }
+
+    /**
+     * @return true if the tuning profile changed (the codec must be restarted)
+     */
+    private boolean updateTuning(int size) {
+        long now = SystemClock.uptimeMillis();
+        TuningProfile next = tuningDetector.onFrame(now, size);
+        if (next == null) {
+            return false;
+        }
+        logTuningStats();
+        Ln.i("Content changed, switch tuning profile from " + tuning + " to " + next);
+        tuning = next;
+        return true;
+    }
+
+    private void logTuningStats() {
+        long now = SystemClock.uptimeMillis();
+        if (tuningStart != 0 && now > tuningStart) {
+            // to compare the bandwidth used by each profile on the same content
+            long bytesPerSecond = tuningStats.getTotalBytes() * 1000 / (now - tuningStart);
+            Ln.i("Tuning " + tuning + " during " + (now - tuningStart) + " ms: " + bytesPerSecond + " B/s, " + tuningStats);
+        }
+        tuningStats.reset();
+        tuningStart = now;
+    }
+
+    /**
+     * @return the statistics of the frame sizes since the start of the stream
+     */
+    public EncoderStats getTotalStats() {
+        return totalStats;
+    }
+
+    private void writeFrameMeta(WritableByteChannel out, MediaCodec.BufferInfo bufferInfo, int packetSize, int layer) throws IOException {
         headerBuffer.clear();
 
         long pts;
@@ -145,6 +894,9 @@ public class ScreenEncoder implements Device.RotationListener {
                 ptsOrigin = bufferInfo.presentationTimeUs;
             }
             pts = bufferInfo.presentationTimeUs - ptsOrigin;
+            if (temporalLayers != null) {
+                pts = TemporalLayers.tagPts(pts, layer);
+            }
         }
 
         headerBuffer.putLong(pts);
@@ -153,19 +905,111 @@ public class ScreenEncoder implements Device.RotationListener {
         out.write(headerBuffer);
     }
 
-    private static MediaCodec createCodec() throws IOException {
+    /**
+     * Resolve {@link #ENCODER_AUTO} and {@link #ENCODER_BENCHMARK} to the cached encoder name, benchmarking the encoders in the
+     * background if necessary (see {@link EncoderBenchmark}).
+     */
+    public void selectEncoder() {
+        if (ENCODER_AUTO.equals(encoderName) || ENCODER_BENCHMARK.equals(encoderName)) {
+            encoderName = EncoderBenchmark.select(ENCODER_BENCHMARK.equals(encoderName), frameRate);
+        }
+        if (encoderName != null) {
+            Ln.i("Encoder: " + encoderName);
+        }
+    }
+
+    /**
+     * Query the video sizes supported by the encoder, to select the video size before it is sent to the client.
+     *
+     * @return the constraints, or {@code null} if they are unknown
+     */
+    public VideoConstraints queryVideoConstraints() {
+        MediaCodec codec;
+        try {
+            codec = createCodec();
+        } catch (IOException | IllegalArgumentException e) {
+            Ln.w("Could not query the encoder capabilities: " + e.getMessage());
+            return null;
+        }
+        try {
+            final MediaCodecInfo.VideoCapabilities capabilities = codec.getCodecInfo().getCapabilitiesForType("video/avc")
+                    .getVideoCapabilities();
+            // the achievable frame rates are measured conservatively
+            final double minFrameRate = frameRate / 2.0;
+            Ln.i("Encoder " + codec.getName() + " supports widths " + capabilities.getSupportedWidths() + " (alignment "
+                    + capabilities.getWidthAlignment() + "), heights " + capabilities.getSupportedHeights() + " (alignment "
+                    + capabilities.getHeightAlignment() + ")");
+            return new VideoConstraints() {
+                @Override
+                public int getWidthAlignment() {
+                    return capabilities.getWidthAlignment();
+                }
+
+                @Override
+                public int getHeightAlignment() {
+                    return capabilities.getHeightAlignment();
+                }
+
+                @Override
+                public boolean isSupported(int width, int height) {
+                    if (!capabilities.isSizeSupported(width, height)) {
+                        return false;
+                    }
+                    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+                        return true;
+                    }
+                    // null if the codec does not publish its performance
+                    Range<Double> frameRates = capabilities.getAchievableFrameRatesFor(width, height);
+                    return frameRates == null || frameRates.getUpper() >= minFrameRate;
+                }
+            };
+        } finally {
+            codec.release();
+        }
+    }
+
+    private MediaCodec createCodec() throws IOException {
+        if (encoderName != null) {
+            try {
+                return MediaCodec.createByCodecName(encoderName);
+            } catch (IOException | IllegalArgumentException e) {
+                Ln.w("Could not create the encoder " + encoderName + ", use the default one: " + e.getMessage());
+                encoderName = null;
+            }
+        }
         return MediaCodec.createEncoderByType("video/avc");
     }
 
-    private static MediaFormat createFormat(int bitRate, int frameRate, int iFrameInterval, int repeatFrameDelay) throws IOException {
+    private MediaFormat createFormat(int width, int height, MediaCodecInfo.CodecCapabilities capabilities) {
         MediaFormat format = new MediaFormat();
         format.setString(MediaFormat.KEY_MIME, "video/avc");
         format.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
         format.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
         format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
-        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, iFrameInterval);
+        if (maxFps > 0) {
+            // public since Android 10, ignored if not supported
+            format.setFloat(MediaFormat.KEY_MAX_FPS_TO_ENCODER, maxFps);
+        }
+        if (intraRefreshPeriod > 0) {
+            format.setInteger(MediaFormat.KEY_INTRA_REFRESH_PERIOD, intraRefreshPeriod);
+            format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, INTRA_REFRESH_I_FRAME_INTERVAL);
+        } else {
+            format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, iFrameInterval);
+        }
         // display the very first frame, and recover from bad quality when no new frames
-        format.setLong(MediaFormat.KEY_REPEAT_PREVIOUS_FRAME_AFTER, MICROSECONDS_IN_ONE_SECOND * repeatFrameDelay / frameRate); // µs
+        int delay = tuning != null ? tuning.getRepeatFrameDelay() : repeatFrameDelay;
+        format.setLong(MediaFormat.KEY_REPEAT_PREVIOUS_FRAME_AFTER, MICROSECONDS_IN_ONE_SECOND * delay / frameRate); // µs
+        format.setInteger(MediaFormat.KEY_WIDTH, width);
+        format.setInteger(MediaFormat.KEY_HEIGHT, height);
+        if (tuning != null) {
+            tuning.apply(format, capabilities, Build.VERSION.SDK_INT);
+        }
+        if (temporalLayers != null) {
+            format.setString(MediaFormat.KEY_TEMPORAL_LAYERING, temporalLayers.getSchema());
+        }
+        if (lowLatencyProfile != null) {
+            lowLatencyProfile.apply(format);
+        }
         return format;
     }
 
@@ -173,13 +1017,93 @@ public class ScreenEncoder implements Device.RotationListener {
         return SurfaceControl.createDisplay("scrcpy", true);
     }
 
-    private static void configure(MediaCodec codec, MediaFormat format) {
-        codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+    /**
+     * Configure the codec, retrying without the optional keys it rejects, then with a smaller video size (and all the keys again).
+     *
+     * @return true if the video size had to be reduced
+     */
+    private boolean configure(MediaCodec codec, Device device) {
+        if (intraRefreshPeriod > 0 && !isIntraRefreshSupported(codec)) {
+            Ln.w("Intra refresh not supported by the encoder, fallback to key frames");
+            intraRefreshPeriod = 0;
+        }
+        if (lowLatency && lowLatencyProfile == null) {
+            lowLatencyProfile = new LowLatencyProfile(codec.getName(), Build.VERSION.SDK_INT);
+        }
+        MediaCodecInfo.CodecCapabilities capabilities = codec.getCodecInfo().getCapabilitiesForType("video/avc");
+        // the features dropped for a size are tried again with the smaller size, they may have been rejected because of the size
+        TuningProfile initialTuning = tuning;
+        TuningDetector initialTuningDetector = tuningDetector;
+        TemporalLayers initialTemporalLayers = temporalLayers;
+        FrameShedder initialFrameShedder = frameShedder;
+        int initialIntraRefreshPeriod = intraRefreshPeriod;
+        boolean sizeReduced = false;
+        while (true) {
+            Size videoSize = device.getScreenInfo().getVideoSize();
+            try {
+                codec.configure(createFormat(videoSize.getWidth(), videoSize.getHeight(), capabilities), null, null,
+                        MediaCodec.CONFIGURE_FLAG_ENCODE);
+                break;
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                // the features dropped for the final size are not tried again on restart
+                if (lowLatencyProfile != null && !lowLatencyProfile.isEmpty()) {
+                    String key = lowLatencyProfile.dropLeastImportant();
+                    Ln.w("Could not configure the encoder, retry without " + key + ": " + e.getMessage());
+                } else if (tuning != null) {
+                    Ln.w("Could not configure the tuning profile " + tuning + ", fallback to the default setup: " + e.getMessage());
+                    tuning = null;
+                    tuningDetector = null;
+                } else if (temporalLayers != null) {
+                    Ln.w("Could not configure temporal layering, disable it: " + e.getMessage());
+                    temporalLayers = null;
+                    frameShedder = null;
+                } else if (intraRefreshPeriod > 0) {
+                    Ln.w("Could not configure intra refresh, fallback to key frames: " + e.getMessage());
+                    intraRefreshPeriod = 0;
+                } else if (device.reduceVideoSize()) {
+                    Size reducedSize = device.getScreenInfo().getVideoSize();
+                    Ln.w("Could not configure the encoder for " + videoSize.getWidth() + "x" + videoSize.getHeight() + ", retry with "
+                            + reducedSize.getWidth() + "x" + reducedSize.getHeight() + ": " + e.getMessage());
+                    sizeReduced = true;
+                    if (lowLatencyProfile != null) {
+                        lowLatencyProfile.restoreDropped();
+                    }
+                    tuning = initialTuning;
+                    tuningDetector = initialTuningDetector;
+                    temporalLayers = initialTemporalLayers;
+                    frameShedder = initialFrameShedder;
+                    intraRefreshPeriod = initialIntraRefreshPeriod;
+                } else {
+                    throw e;
+                }
+                codec.reset();
+            }
+        }
+        if (lowLatencyProfile != null) {
+            logLowLatencyKeys(codec);
+        }
+        return sizeReduced;
     }
 
-    private static void setSize(MediaFormat format, int width, int height) {
-        format.setInteger(MediaFormat.KEY_WIDTH, width);
-        format.setInteger(MediaFormat.KEY_HEIGHT, height);
+    private void logLowLatencyKeys(MediaCodec codec) {
+        Ln.i("Low latency keys: " + lowLatencyProfile);
+        // the codec may report the keys it handles in its input format
+        MediaFormat inputFormat = codec.getInputFormat();
+        StringBuilder builder = new StringBuilder();
+        for (String key : lowLatencyProfile.getKeyNames()) {
+            if (inputFormat.containsKey(key)) {
+                builder.append(' ').append(key);
+            }
+        }
+        Ln.i("Low latency keys reported by the codec:" + (builder.length() > 0 ? builder : " none"));
+    }
+
+    private static boolean isIntraRefreshSupported(MediaCodec codec) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            return false;
+        }
+        MediaCodecInfo.CodecCapabilities capabilities = codec.getCodecInfo().getCapabilitiesForType("video/avc");
+        return capabilities.isFeatureSupported(MediaCodecInfo.CodecCapabilities.FEATURE_IntraRefresh);
     }
 
     private static void setDisplaySurface(IBinder display, Surface surface, Rect deviceRect, Rect displayRect) {
@@ -1,6 +1,10 @@
 package com.genymobile.scrcpy;
 
+import com.genymobile.scrcpy.wrappers.ServiceManager;
+
 import android.graphics.Rect;
+import android.os.Build;
+import android.os.SystemClock;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -19,11 +23,23 @@ public final class Server {
     private static void scrcpy(Options options) {
         final Device device = new Device(options);
         try {
+            ScreenEncoder screenEncoder = new ScreenEncoder(options);
+            // may benchmark the encoders in the background, once per device
+            screenEncoder.selectEncoder();
+            // the video size sent to the client must be supported by the encoder
+            device.setVideoConstraints(screenEncoder.queryVideoConstraints());
             DesktopConnection connection = DesktopConnection.open(device, options.isTunnelForward(), options.getPort());
-            ScreenEncoder screenEncoder = new ScreenEncoder(options.getSendFrameMeta(), options.getBitRate(), options.isTunnelForward());
+            ThermalMonitor thermalMonitor = null;
+            if (options.getThermal() != null) {
+                if (screenEncoder.isThermalSupported()) {
+                    thermalMonitor = startThermalMonitor(options.getThermal(), screenEncoder);
+                } else {
+                    Ln.w("Thermal throttling not supported in tiled mode");
+                }
+            }
 
             if (options.getControl()) {
-                Controller controller = new Controller(device, connection);
+                Controller controller = new Controller(device, connection, screenEncoder, options);
 
                 // asynchronous
                 startController(controller, screenEncoder, options.getTabletMode());
@@ -37,6 +53,9 @@ public final class Server {
                 // this is expected on close
             }
             Ln.d("Screen streaming stopped");
+            if (thermalMonitor != null) {
+                thermalMonitor.stop();
+            }
             connection.close();
         } catch (Exception e) {
             Ln.e("strcpy: ", e);
@@ -71,6 +90,39 @@ public final class Server {
         }).start();
     }
 
+    /**
+     * @return the started monitor, {@code null} if the thermal status is not available
+     */
+    private static ThermalMonitor startThermalMonitor(int[] thresholds, final ScreenEncoder screenEncoder) {
+        ThermalSource source = ThermalMonitor.createSource();
+        if (source == null) {
+            Ln.w("Thermal status not available, no thermal throttling");
+            return null;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            Ln.w("Thermal frame rate throttling requires Android 10, only the bit rate and the video size are throttled");
+        }
+        ThermalMonitor monitor = new ThermalMonitor(source, thresholds, new ThermalMonitor.Listener() {
+            @Override
+            public void onThrottleLevelChanged(int level, int status) {
+                screenEncoder.setThermalLevel(level);
+            }
+        });
+        monitor.start();
+        return monitor;
+    }
+
+    private static void startServiceWarmUp(final Options options) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long elapsed = ServiceManager.getInstance().warmUp(options.getControl());
+                // at most this time is saved on the startup path (less if the main thread needed a service before it was ready)
+                Ln.i("System services warmed up in " + elapsed + " ms, in parallel with the startup");
+            }
+        }).start();
+    }
+
     private static final int FIXED_ARGS = 6;
 
     @SuppressWarnings("checkstyle:MagicNumber")
@@ -177,6 +229,7 @@ public final class Server {
     }
 
     public static void main(String... args) throws Exception {
+        Ln.enableLogcat();
         Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
             @Override
             public void uncaughtException(Thread t, Throwable e) {
@@ -187,10 +240,19 @@ public final class Server {
         if (ForkIfRequired(args)) return;
 
         Options options = createOptions(args);
+        if (options.getLogLevel() != null) {
+            Ln.setThreshold(options.getLogLevel());
+        }
 
         Ln.i("scrcpy started: "+android.os.Process.myPid());
+        if (options.getWarmUp()) {
+            startServiceWarmUp(options);
+        }
         try {
+            long start = SystemClock.uptimeMillis();
             final DeviceControl deviceControl = new DeviceControl(options);
+            // to compare with and without the warm-up (warmUp=false)
+            Ln.i("DeviceControl started in " + (SystemClock.uptimeMillis() - start) + " ms");
             scrcpy(options);
             deviceControl.Finish();
             Ln.i("scrcpy stopped");
@@ -0,0 +1,86 @@
+package com.genymobile.scrcpy;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Thermal status derived from the hottest thermal zone of {@code /sys/class/thermal}, for the devices without the thermal service.
+ * <p>
+ * The zones report millidegrees Celsius (some report degrees). The implausible values of unused or broken sensors are ignored.
+ */
+public final class SysfsThermalSource implements ThermalSource {
+
+    public static final String THERMAL_PATH = "/sys/class/thermal";
+
+    // minimal temperature (°C) of each status, from STATUS_LIGHT to STATUS_SHUTDOWN
+    private static final int[] STATUS_TEMPERATURES = {60, 70, 80, 90, 100, 110};
+    private static final int MAX_PLAUSIBLE_TEMPERATURE = 150; // °C
+    // a sensor reporting more than this reports millidegrees
+    private static final int MAX_DEGREES_VALUE = 1000;
+    private static final int MILLIDEGREES_PER_DEGREE = 1000;
+
+    private final List<File> zones = new ArrayList<>(); // the temp files
+
+    public SysfsThermalSource(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            File temp = new File(file, "temp");
+            if (file.getName().startsWith("thermal_zone") && temp.exists()) {
+                zones.add(temp);
+            }
+        }
+    }
+
+    public int getZoneCount() {
+        return zones.size();
+    }
+
+    @Override
+    public int getStatus() {
+        int max = Integer.MIN_VALUE;
+        for (File zone : zones) {
+            int temperature = readTemperature(zone);
+            if (temperature > 0 && temperature < MAX_PLAUSIBLE_TEMPERATURE && temperature > max) {
+                max = temperature;
+            }
+        }
+        if (max == Integer.MIN_VALUE) {
+            return STATUS_UNKNOWN;
+        }
+        return toStatus(max);
+    }
+
+    static int toStatus(int temperature) {
+        int status = STATUS_NONE;
+        while (status < STATUS_TEMPERATURES.length && temperature >= STATUS_TEMPERATURES[status]) {
+            ++status;
+        }
+        return status;
+    }
+
+    /**
+     * @return the temperature in degrees Celsius, {@link Integer#MIN_VALUE} if it could not be read
+     */
+    private static int readTemperature(File file) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.US_ASCII))) {
+            String line = reader.readLine();
+            if (line == null) {
+                return Integer.MIN_VALUE;
+            }
+            int value = Integer.parseInt(line.trim());
+            return Math.abs(value) > MAX_DEGREES_VALUE ? value / MILLIDEGREES_PER_DEGREE : value;
+        } catch (IOException | NumberFormatException e) {
+            // some sensors are not readable, or not ready
+            return Integer.MIN_VALUE;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.genymobile.scrcpy;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Temporal layering of the H.264 stream ({@code android.generic.N} schema), and the layer of each encoded frame.
+ * <p>
+ * Frames of a layer only reference frames of lower layers, so the frames above a layer may be dropped without breaking the decoding.
+ * The layer is read from the SVC prefix NAL unit if the encoder writes one. Otherwise, only the non-reference frames (which nothing
+ * depends on) are known to be in the top layer, the other frames are considered in the base layer.
+ * <p>
+ * When the layers are tagged, the layer is written in bits 60 to 62 of the PTS in the frame header.
+ */
+public final class TemporalLayers {
+
+    public static final int MIN_LAYER_COUNT = 2;
+    public static final int MAX_LAYER_COUNT = 4;
+
+    static final int PTS_LAYER_SHIFT = 60;
+    private static final long PTS_LAYER_MASK = 0x7L << PTS_LAYER_SHIFT;
+
+    private static final int NAL_TYPE_MASK = 0x1f;
+    private static final int NAL_REF_IDC_MASK = 0x60;
+    private static final int NAL_TYPE_SLICE = 1;
+    private static final int NAL_TYPE_IDR = 5;
+    private static final int NAL_TYPE_PREFIX = 14;
+    private static final int SVC_EXTENSION_FLAG = 0x80;
+
+    private final int layerCount;
+
+    public TemporalLayers(int layerCount) {
+        if (layerCount < MIN_LAYER_COUNT || layerCount > MAX_LAYER_COUNT) {
+            throw new IllegalArgumentException("Invalid temporal layer count: " + layerCount);
+        }
+        this.layerCount = layerCount;
+    }
+
+    public int getLayerCount() {
+        return layerCount;
+    }
+
+    /**
+     * @return the value of {@code MediaFormat.KEY_TEMPORAL_LAYERING}
+     */
+    public String getSchema() {
+        return "android.generic." + layerCount;
+    }
+
+    /**
+     * Read the layer of an encoded frame (Annex B), without changing the buffer position.
+     *
+     * @return the layer, 0 for the base layer
+     */
+    public int getLayer(ByteBuffer buffer) {
+        int end = buffer.limit();
+        int i = buffer.position();
+        while (i + 3 < end) {
+            // start code 00 00 01 (possibly preceded by another 00)
+            if (buffer.get(i) != 0 || buffer.get(i + 1) != 0 || buffer.get(i + 2) != 1) {
+                ++i;
+                continue;
+            }
+            int header = buffer.get(i + 3) & 0xff;
+            int type = header & NAL_TYPE_MASK;
+            if (type == NAL_TYPE_PREFIX) {
+                // nal_unit_header_svc_extension: svc_extension_flag (1), idr_flag (1), priority_id (6), no_inter_layer_pred_flag (1),
+                // dependency_id (3), quality_id (4), temporal_id (3), ...
+                if (i + 6 < end && (buffer.get(i + 4) & SVC_EXTENSION_FLAG) != 0) {
+                    int temporalId = (buffer.get(i + 6) & 0xff) >> 5;
+                    return Math.min(temporalId, layerCount - 1);
+                }
+            } else if (type == NAL_TYPE_IDR) {
+                return 0;
+            } else if (type == NAL_TYPE_SLICE) {
+                // no prefix NAL unit before the first slice
+                return (header & NAL_REF_IDC_MASK) == 0 ? layerCount - 1 : 0;
+            }
+            i += 3;
+        }
+        return 0;
+    }
+
+    public static long tagPts(long pts, int layer) {
+        return (pts & ~PTS_LAYER_MASK) | ((long) layer << PTS_LAYER_SHIFT);
+    }
+
+    public static int getPtsLayer(long pts) {
+        return (int) ((pts & PTS_LAYER_MASK) >>> PTS_LAYER_SHIFT);
+    }
+}
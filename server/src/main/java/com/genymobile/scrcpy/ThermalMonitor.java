@@ -0,0 +1,175 @@
+package com.genymobile.scrcpy;
+
+import com.genymobile.scrcpy.wrappers.ServiceManager;
+import com.genymobile.scrcpy.wrappers.ThermalService;
+
+import android.os.SystemClock;
+
+import java.io.File;
+
+/**
+ * Poll the thermal status, to lower the encoding load before the SoC throttles (which makes the encoder stall unpredictably).
+ * <p>
+ * Each throttle level is entered when the status reaches its threshold: {@link #LEVEL_FRAME_RATE} lowers the frame rate,
+ * {@link #LEVEL_BIT_RATE} also lowers the bit rate, {@link #LEVEL_SIZE} also lowers the video size. The levels are entered as soon as
+ * the status rises, but left one at a time, once the status stayed below the threshold for a while, so that the encoder does not
+ * oscillate (every level change but the bit rate restarts the codec).
+ */
+public final class ThermalMonitor {
+
+    public interface Listener {
+        /**
+         * Called on the monitor thread when the throttle level changes.
+         */
+        void onThrottleLevelChanged(int level, int status);
+    }
+
+    public static final int LEVEL_NONE = 0;
+    public static final int LEVEL_FRAME_RATE = 1;
+    public static final int LEVEL_BIT_RATE = 2;
+    public static final int LEVEL_SIZE = 3;
+    public static final int MAX_LEVEL = LEVEL_SIZE;
+
+    static final long POLL_INTERVAL_MS = 5_000;
+    static final long COOL_DOWN_MS = 30_000;
+
+    private final ThermalSource source;
+    private final int[] thresholds; // the minimal status of each level
+    private final Listener listener;
+
+    private int level = LEVEL_NONE;
+    private long coolSince = -1; // since when the status is below the current level, -1 if it is not
+    private volatile boolean stopped;
+    private Thread thread;
+
+    public ThermalMonitor(ThermalSource source, int[] thresholds, Listener listener) {
+        this.source = source;
+        this.thresholds = thresholds;
+        this.listener = listener;
+    }
+
+    /**
+     * Parse the thresholds of the levels: statuses ({@code PowerManager.THERMAL_STATUS_*}) separated by ',', in increasing order. The
+     * thresholds not given follow the last one.
+     *
+     * @return the thresholds of the {@link #MAX_LEVEL} levels, {@code null} if the value is invalid
+     */
+    public static int[] parseThresholds(String value) {
+        String[] tokens = value.split(",");
+        if (tokens.length > MAX_LEVEL) {
+            return null;
+        }
+        int[] thresholds = new int[MAX_LEVEL];
+        try {
+            for (int i = 0; i < MAX_LEVEL; ++i) {
+                int threshold = i < tokens.length ? Integer.parseInt(tokens[i].trim())
+                        : Math.min(thresholds[i - 1] + 1, ThermalSource.STATUS_SHUTDOWN);
+                if (threshold <= ThermalSource.STATUS_NONE || threshold > ThermalSource.STATUS_SHUTDOWN
+                        || (i > 0 && threshold < thresholds[i - 1])) {
+                    return null;
+                }
+                thresholds[i] = threshold;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return thresholds;
+    }
+
+    /**
+     * @return the thermal service, or the thermal zones if there is no service, {@code null} if neither is available
+     */
+    public static ThermalSource createSource() {
+        final ThermalService service = ServiceManager.getInstance().getThermalService();
+        if (service != null && service.getCurrentThermalStatus() >= 0) {
+            return new ThermalSource() {
+                @Override
+                public int getStatus() {
+                    return service.getCurrentThermalStatus();
+                }
+            };
+        }
+        SysfsThermalSource sysfs = new SysfsThermalSource(new File(SysfsThermalSource.THERMAL_PATH));
+        if (sysfs.getStatus() != ThermalSource.STATUS_UNKNOWN) {
+            Ln.i("No thermal service, read the " + sysfs.getZoneCount() + " thermal zones");
+            return sysfs;
+        }
+        return null;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    private int getTargetLevel(int status) {
+        int target = LEVEL_NONE;
+        while (target < MAX_LEVEL && status >= thresholds[target]) {
+            ++target;
+        }
+        return target;
+    }
+
+    /**
+     * Read the status and update the throttle level.
+     *
+     * @return the throttle level
+     */
+    public int poll(long now) {
+        int status = source.getStatus();
+        if (status == ThermalSource.STATUS_UNKNOWN) {
+            // keep the current level
+            return level;
+        }
+        int target = getTargetLevel(status);
+        if (target > level) {
+            // step down immediately
+            coolSince = -1;
+            setLevel(target, status);
+        } else if (target < level) {
+            if (coolSince == -1) {
+                coolSince = now;
+            } else if (now - coolSince >= COOL_DOWN_MS) {
+                // step back up one level at a time
+                coolSince = target < level - 1 ? now : -1;
+                setLevel(level - 1, status);
+            }
+        } else {
+            coolSince = -1;
+        }
+        return level;
+    }
+
+    private void setLevel(int newLevel, int status) {
+        Ln.i("Thermal status " + status + ", throttle level " + level + " -> " + newLevel);
+        level = newLevel;
+        listener.onThrottleLevelChanged(newLevel, status);
+    }
+
+    public void start() {
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!stopped) {
+                        poll(SystemClock.uptimeMillis());
+                        Thread.sleep(POLL_INTERVAL_MS);
+                    }
+                } catch (InterruptedException e) {
+                    // stopped
+                }
+                Ln.d("Thermal monitor stopped");
+            }
+        }, "scrcpy-thermal");
+        // do not keep the server alive
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        stopped = true;
+        if (thread != null) {
+            // do not wait for the end of the poll interval
+            thread.interrupt();
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.genymobile.scrcpy;
+
+/**
+ * Source of the device thermal status.
+ */
+public interface ThermalSource {
+
+    int STATUS_UNKNOWN = -1;
+    // the values of PowerManager.THERMAL_STATUS_*
+    int STATUS_NONE = 0;
+    int STATUS_LIGHT = 1;
+    int STATUS_MODERATE = 2;
+    int STATUS_SEVERE = 3;
+    int STATUS_CRITICAL = 4;
+    int STATUS_EMERGENCY = 5;
+    int STATUS_SHUTDOWN = 6;
+
+    /**
+     * @return the current thermal status, {@link #STATUS_UNKNOWN} if it could not be read
+     */
+    int getStatus();
+}
@@ -0,0 +1,126 @@
+package com.genymobile.scrcpy;
+
+import android.graphics.Rect;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Split the video into a grid of tiles, each one encoded separately.
+ * <p>
+ * The tile boundaries are aligned to macroblocks (16 pixels), except at the right and bottom edges of the video. Each tile captures the
+ * matching part of the content rect.
+ */
+public final class TileGeometry {
+
+    public static final class Tile {
+        private final int id;
+        // in device coordinates
+        private final Point contentOffset;
+        private final Size contentSize;
+        // in video coordinates
+        private final Point videoOffset;
+        private final Size videoSize;
+
+        Tile(int id, Point contentOffset, Size contentSize, Point videoOffset, Size videoSize) {
+            this.id = id;
+            this.contentOffset = contentOffset;
+            this.contentSize = contentSize;
+            this.videoOffset = videoOffset;
+            this.videoSize = videoSize;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public Point getContentOffset() {
+            return contentOffset;
+        }
+
+        public Size getContentSize() {
+            return contentSize;
+        }
+
+        public Rect getContentRect() {
+            return new Rect(contentOffset.getX(), contentOffset.getY(), contentOffset.getX() + contentSize.getWidth(),
+                    contentOffset.getY() + contentSize.getHeight());
+        }
+
+        public Point getVideoOffset() {
+            return videoOffset;
+        }
+
+        public Size getVideoSize() {
+            return videoSize;
+        }
+    }
+
+    public static final int MAX_TILES = 16;
+    private static final int ALIGNMENT = 16;
+
+    private TileGeometry() {
+        // not instantiable
+    }
+
+    /**
+     * Split into {@code count} tiles, in a grid whose tiles are as square as possible.
+     *
+     * @param contentOffset the top-left corner of the content, in device coordinates
+     * @param contentSize   the size of the content, in device coordinates
+     */
+    public static List<Tile> split(Point contentOffset, Size contentSize, Size videoSize, int count) {
+        if (count < 1 || count > MAX_TILES) {
+            throw new IllegalArgumentException("Invalid tile count: " + count);
+        }
+        int width = videoSize.getWidth();
+        int height = videoSize.getHeight();
+        int columns = selectColumns(width, height, count);
+        int rows = count / columns;
+
+        List<Tile> tiles = new ArrayList<>(count);
+        for (int row = 0; row < rows; ++row) {
+            int top = boundary(height, rows, row);
+            int bottom = boundary(height, rows, row + 1);
+            int contentTop = contentOffset.getY() + top * contentSize.getHeight() / height;
+            int contentBottom = contentOffset.getY() + bottom * contentSize.getHeight() / height;
+            for (int column = 0; column < columns; ++column) {
+                int left = boundary(width, columns, column);
+                int right = boundary(width, columns, column + 1);
+                int contentLeft = contentOffset.getX() + left * contentSize.getWidth() / width;
+                int contentRight = contentOffset.getX() + right * contentSize.getWidth() / width;
+                tiles.add(new Tile(tiles.size(), new Point(contentLeft, contentTop), new Size(contentRight - contentLeft,
+                        contentBottom - contentTop), new Point(left, top), new Size(right - left, bottom - top)));
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * @return the number of columns (a divisor of {@code count}) making the tiles the closest to squares
+     */
+    static int selectColumns(int width, int height, int count) {
+        int best = 1;
+        double bestScore = Double.MAX_VALUE;
+        for (int columns = 1; columns <= count; ++columns) {
+            if (count % columns != 0) {
+                continue;
+            }
+            int rows = count / columns;
+            double score = Math.abs(Math.log(((double) width / columns) / ((double) height / rows)));
+            if (score < bestScore) {
+                best = columns;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    private static int boundary(int size, int parts, int index) {
+        if (index == parts) {
+            return size;
+        }
+        int exact = size * index / parts;
+        return (exact + ALIGNMENT / 2) / ALIGNMENT * ALIGNMENT;
+    }
+}
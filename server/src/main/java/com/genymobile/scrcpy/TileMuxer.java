@@ -0,0 +1,90 @@
+package com.genymobile.scrcpy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+/**
+ * Interleave the packets of the tile encoders on the video socket.
+ * <p>
+ * In tiled mode, each packet is preceded by a 13-byte header (big-endian):
+ *
+ * <pre>
+ * [tile id u8][pts u64][packet size u32]
+ * </pre>
+ *
+ * The config packets have no PTS (-1). The PTS of the media packets is shared by the tiles: the capture timestamps of the frames
+ * composed at the same vsync are rounded to the same frame interval, so that the client may reassemble them.
+ * <p>
+ * A layout packet (tile id 255, no PTS) starts each encoding session, with the tiles in video coordinates:
+ *
+ * <pre>
+ * [tile count u8] then, for each tile: [x u16][y u16][width u16][height u16]
+ * </pre>
+ */
+public final class TileMuxer {
+
+    public static final int HEADER_LENGTH = 13;
+    public static final int LAYOUT_ID = 0xff;
+    public static final long NO_PTS = -1;
+    private static final int LAYOUT_TILE_LENGTH = 8;
+
+    private final WritableByteChannel channel;
+    private final long frameIntervalUs;
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+    private long ptsOrigin = NO_PTS;
+
+    public TileMuxer(WritableByteChannel channel, int frameRate) {
+        this.channel = channel;
+        frameIntervalUs = 1_000_000 / frameRate;
+    }
+
+    public synchronized void writeLayout(List<TileGeometry.Tile> tiles) throws IOException {
+        ByteBuffer layout = ByteBuffer.allocate(1 + tiles.size() * LAYOUT_TILE_LENGTH);
+        layout.put((byte) tiles.size());
+        for (TileGeometry.Tile tile : tiles) {
+            layout.putShort((short) tile.getVideoOffset().getX());
+            layout.putShort((short) tile.getVideoOffset().getY());
+            layout.putShort((short) tile.getVideoSize().getWidth());
+            layout.putShort((short) tile.getVideoSize().getHeight());
+        }
+        layout.flip();
+        write(LAYOUT_ID, NO_PTS, layout);
+    }
+
+    /**
+     * Write a packet of a tile encoder, from any thread (the header and the data are never interleaved with another packet).
+     *
+     * @param presentationTimeUs the capture timestamp, ignored for a config packet
+     */
+    public synchronized void writePacket(int tileId, long presentationTimeUs, boolean config, ByteBuffer data) throws IOException {
+        write(tileId, config ? NO_PTS : toSharedPts(presentationTimeUs), data);
+    }
+
+    private long toSharedPts(long presentationTimeUs) {
+        if (ptsOrigin == NO_PTS) {
+            ptsOrigin = presentationTimeUs;
+        }
+        long frames = (presentationTimeUs - ptsOrigin + frameIntervalUs / 2) / frameIntervalUs;
+        return Math.max(0, frames) * frameIntervalUs;
+    }
+
+    private void write(int tileId, long pts, ByteBuffer data) throws IOException {
+        header.clear();
+        header.put((byte) tileId);
+        header.putLong(pts);
+        header.putInt(data.remaining());
+        header.flip();
+        writeFully(header);
+        writeFully(data);
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.write(buffer) < 0) {
+                throw new IOException("Could not write the video stream");
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.genymobile.scrcpy;
+
+/**
+ * Detect whether the content is static (text, UI) or in motion (games, videos) from the encoded frame sizes.
+ * <p>
+ * On a static screen, the encoder only produces a frame on changes (or a tiny repeated frame), while motion produces a frame for every
+ * vsync, using a large part of the per-frame bit budget. The content is classified per window, and the profile only changes after
+ * several consecutive windows (and not too often), since every change restarts the codec.
+ */
+public final class TuningDetector {
+
+    static final long WINDOW_MS = 1000;
+    // frames smaller than this part of the per-frame budget do not count as motion
+    private static final int SIGNIFICANT_FRAME_BUDGET_DIVISOR = 8;
+    private static final int MOTION_FRAMES_PER_SECOND = 15;
+    // switching to motion must be fast, switching back must not happen between two scrolls
+    static final int MOTION_WINDOWS = 3;
+    static final int STATIC_WINDOWS = 5;
+    static final long MIN_SWITCH_INTERVAL_MS = 10_000;
+
+    private int frameBudget; // bytes
+    private TuningProfile current;
+
+    private long windowStart = -1;
+    private int significantFrames;
+    private int motionWindows;
+    private int staticWindows;
+    private long lastSwitch;
+
+    public TuningDetector(int bitRate, int frameRate, TuningProfile initial, long now) {
+        setBitRate(bitRate, frameRate);
+        current = initial;
+        lastSwitch = now;
+    }
+
+    public void setBitRate(int bitRate, int frameRate) {
+        frameBudget = bitRate / 8 / frameRate;
+    }
+
+    public TuningProfile getCurrent() {
+        return current;
+    }
+
+    /**
+     * Account for an encoded frame.
+     *
+     * @return the profile to switch to, or {@code null} to keep the current one
+     */
+    public TuningProfile onFrame(long now, int size) {
+        if (windowStart == -1) {
+            windowStart = now;
+        }
+        long elapsed = now - windowStart;
+        if (elapsed >= WINDOW_MS) {
+            closeWindow(significantFrames * 1000 / elapsed >= MOTION_FRAMES_PER_SECOND);
+            // the windows without any frame were static
+            long emptyWindows = elapsed / WINDOW_MS - 1;
+            for (long i = 0; i < emptyWindows && i < STATIC_WINDOWS; ++i) {
+                closeWindow(false);
+            }
+            windowStart = now;
+            significantFrames = 0;
+        }
+        if (size >= frameBudget / SIGNIFICANT_FRAME_BUDGET_DIVISOR) {
+            ++significantFrames;
+        }
+
+        TuningProfile next = null;
+        if (current != TuningProfile.MOTION && motionWindows >= MOTION_WINDOWS) {
+            next = TuningProfile.MOTION;
+        } else if (current != TuningProfile.TEXT && staticWindows >= STATIC_WINDOWS) {
+            next = TuningProfile.TEXT;
+        }
+        if (next == null || now - lastSwitch < MIN_SWITCH_INTERVAL_MS) {
+            return null;
+        }
+        current = next;
+        lastSwitch = now;
+        motionWindows = 0;
+        staticWindows = 0;
+        return next;
+    }
+
+    private void closeWindow(boolean motion) {
+        if (motion) {
+            ++motionWindows;
+            staticWindows = 0;
+        } else {
+            ++staticWindows;
+            motionWindows = 0;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.genymobile.scrcpy;
+
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+
+/**
+ * Encoder setup suited to a kind of content.
+ * <p>
+ * Text (UI screens) is mostly static and must stay sharp: High profile, variable bit rate and a low maximum QP. Motion (games, videos)
+ * needs a steady bit rate and a low encoding latency: Baseline profile, constant bit rate and a higher maximum QP.
+ * <p>
+ * The keys not supported by the codec (or the Android version) are not set.
+ */
+public final class TuningProfile {
+
+    // MediaFormat.KEY_VIDEO_QP_MIN and KEY_VIDEO_QP_MAX, since Android 12 (not in the compile SDK)
+    static final String KEY_VIDEO_QP_MIN = "video-qp-min";
+    static final String KEY_VIDEO_QP_MAX = "video-qp-max";
+
+    private static final int SDK_M = 23;
+    private static final int SDK_S = 31;
+
+    public static final TuningProfile TEXT = new TuningProfile("text", MediaCodecInfo.CodecProfileLevel.AVCProfileHigh,
+            new int[] {MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR, MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR}, 10, 32, 2);
+    public static final TuningProfile MOTION = new TuningProfile("motion", MediaCodecInfo.CodecProfileLevel.AVCProfileBaseline,
+            new int[] {MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR, MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR}, 20, 45, 6);
+
+    private final String name;
+    private final int avcProfile;
+    private final int[] bitrateModes; // by preference
+    private final int minQp;
+    private final int maxQp;
+    private final int repeatFrameDelay; // frames
+
+    private TuningProfile(String name, int avcProfile, int[] bitrateModes, int minQp, int maxQp, int repeatFrameDelay) {
+        this.name = name;
+        this.avcProfile = avcProfile;
+        this.bitrateModes = bitrateModes;
+        this.minQp = minQp;
+        this.maxQp = maxQp;
+        this.repeatFrameDelay = repeatFrameDelay;
+    }
+
+    /**
+     * @return the profile for this name, or {@code null} if unknown
+     */
+    public static TuningProfile fromName(String name) {
+        if (TEXT.name.equals(name)) {
+            return TEXT;
+        }
+        if (MOTION.name.equals(name)) {
+            return MOTION;
+        }
+        return null;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getAvcProfile() {
+        return avcProfile;
+    }
+
+    public int getMinQp() {
+        return minQp;
+    }
+
+    public int getMaxQp() {
+        return maxQp;
+    }
+
+    public int getRepeatFrameDelay() {
+        return repeatFrameDelay;
+    }
+
+    /**
+     * Set the keys supported by the codec (the repeat frame delay is handled by the caller).
+     */
+    public void apply(MediaFormat format, MediaCodecInfo.CodecCapabilities capabilities, int sdkInt) {
+        // the profile is ignored by most encoders before Android 6
+        if (sdkInt >= SDK_M) {
+            int level = selectLevel(capabilities.profileLevels);
+            if (level != 0) {
+                format.setInteger(MediaFormat.KEY_PROFILE, avcProfile);
+                format.setInteger(MediaFormat.KEY_LEVEL, level);
+            }
+        }
+        int bitrateMode = selectBitrateMode(getSupportedBitrateModes(capabilities.getEncoderCapabilities()));
+        if (bitrateMode != -1) {
+            format.setInteger(MediaFormat.KEY_BITRATE_MODE, bitrateMode);
+        }
+        if (sdkInt >= SDK_S) {
+            format.setInteger(KEY_VIDEO_QP_MIN, minQp);
+            format.setInteger(KEY_VIDEO_QP_MAX, maxQp);
+        }
+    }
+
+    /**
+     * @return the highest level supported for the AVC profile, or 0 if the profile is not supported
+     */
+    int selectLevel(MediaCodecInfo.CodecProfileLevel[] profileLevels) {
+        int level = 0;
+        for (MediaCodecInfo.CodecProfileLevel profileLevel : profileLevels) {
+            // levels are bit flags, increasing with the level
+            if (profileLevel.profile == avcProfile && profileLevel.level > level) {
+                level = profileLevel.level;
+            }
+        }
+        return level;
+    }
+
+    /**
+     * @return the bit rate modes of the profile supported by the encoder, as a mask of {@code 1 << mode}
+     */
+    private int getSupportedBitrateModes(MediaCodecInfo.EncoderCapabilities encoderCapabilities) {
+        int supportedModes = 0;
+        for (int mode : bitrateModes) {
+            if (encoderCapabilities.isBitrateModeSupported(mode)) {
+                supportedModes |= 1 << mode;
+            }
+        }
+        return supportedModes;
+    }
+
+    /**
+     * @param supportedModes the bit rate modes supported by the encoder, as a mask of {@code 1 << mode}
+     * @return the preferred bit rate mode supported by the encoder, or -1 if none
+     */
+    int selectBitrateMode(int supportedModes) {
+        for (int mode : bitrateModes) {
+            if ((supportedModes & (1 << mode)) != 0) {
+                return mode;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
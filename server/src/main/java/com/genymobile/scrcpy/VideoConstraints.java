@@ -0,0 +1,16 @@
+package com.genymobile.scrcpy;
+
+/**
+ * Video sizes accepted by the encoder.
+ */
+public interface VideoConstraints {
+
+    int getWidthAlignment();
+
+    int getHeightAlignment();
+
+    /**
+     * @return true if the encoder supports this size (at the expected frame rate)
+     */
+    boolean isSupported(int width, int height);
+}
@@ -2,16 +2,22 @@ package com.genymobile.scrcpy.wrappers;
 
 import android.content.ComponentName;
 import android.content.Intent;
+import android.os.Binder;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.IBinder;
 import android.os.IInterface;
 
 import com.genymobile.scrcpy.Ln;
 
+import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 
 public final class ActivityManager {
     private final IInterface manager;
     private Method broadcastIntentMethod;
+    private Method getContentProviderExternalMethod;
+    private Method removeContentProviderExternalMethod;
 
     public static final int OP_NONE = -1;
     private static final String SHELL_PACKAGE_NAME = "com.android.shell";
@@ -113,4 +119,60 @@ ComponentName startService(in IApplicationThread caller, in Intent service,
         }
         return false;
     }
+/*
+    ContentProviderHolder getContentProviderExternal(String name, int userId, IBinder token);
+    ContentProviderHolder getContentProviderExternal(String name, int userId, IBinder token, String tag); // Android 10+
+ */
+    private ContentProvider getContentProviderExternal(String name, IBinder token) {
+        try {
+            Class<?> cls = manager.getClass();
+            Object holder;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                if (getContentProviderExternalMethod == null) {
+                    getContentProviderExternalMethod = cls.getMethod("getContentProviderExternal", String.class, int.class, IBinder.class,
+                            String.class);
+                }
+                holder = getContentProviderExternalMethod.invoke(manager, name, ServiceManager.USER_CURRENT, token, null);
+            } else {
+                if (getContentProviderExternalMethod == null) {
+                    getContentProviderExternalMethod = cls.getMethod("getContentProviderExternal", String.class, int.class, IBinder.class);
+                }
+                holder = getContentProviderExternalMethod.invoke(manager, name, ServiceManager.USER_CURRENT, token);
+            }
+            if (holder == null) {
+                Ln.w("No content provider: " + name);
+                return null;
+            }
+            // IContentProvider provider = holder.provider;
+            Field providerField = holder.getClass().getDeclaredField("provider");
+            providerField.setAccessible(true);
+            Object provider = providerField.get(holder);
+            if (provider == null) {
+                Ln.w("No content provider: " + name);
+                return null;
+            }
+            return new ContentProvider(this, provider, name, token);
+        } catch (Exception e) {
+            Ln.e("getContentProviderExternal", e);
+        }
+        return null;
+    }
+
+    void removeContentProviderExternal(String name, IBinder token) {
+        try {
+            if (removeContentProviderExternalMethod == null) {
+                removeContentProviderExternalMethod = manager.getClass().getMethod("removeContentProviderExternal", String.class, IBinder.class);
+            }
+            removeContentProviderExternalMethod.invoke(manager, name, token);
+        } catch (Exception e) {
+            Ln.e("removeContentProviderExternal", e);
+        }
+    }
+
+    /**
+     * @return the settings provider, to be closed by the caller, or {@code null} if it is not available
+     */
+    public ContentProvider createSettingsProvider() {
+        return getContentProviderExternal("settings", new Binder());
+    }
 }
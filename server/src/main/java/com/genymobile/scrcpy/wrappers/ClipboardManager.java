@@ -1,18 +1,46 @@
 package com.genymobile.scrcpy.wrappers;
 
+import com.genymobile.scrcpy.Ln;
+
 import android.content.ClipData;
+import android.content.IClipboard;
+import android.content.IOnPrimaryClipChangedListener;
 import android.os.IInterface;
+import android.os.RemoteException;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
 public class ClipboardManager {
+    private static final String PACKAGE_NAME = "com.android.shell";
+    private static final int DEVICE_ID_DEFAULT = 0; // Context.DEVICE_ID_DEFAULT
+
+    private static final int LISTENER_METHOD_LEGACY = 0; // add(listener, callingPackage), remove(listener), Android 5 to 9
+    private static final int LISTENER_METHOD_USER_ID = 1; // (listener, callingPackage, userId), Android 10
+    private static final int LISTENER_METHOD_ATTRIBUTION_TAG = 2; // (listener, callingPackage, attributionTag, userId), Android 11
+    private static final int LISTENER_METHOD_DEVICE_ID = 3; // (listener, callingPackage, attributionTag, userId, deviceId), Android 14+
+
     private final IInterface manager;
+    private final IClipboard directManager; // null if the methods must be called by reflection
     private final Method getPrimaryClipMethod;
     private final Method setPrimaryClipMethod;
+    private Method addListenerMethod; // resolved on first use, with removeListenerMethod
+    private Method removeListenerMethod;
+    private int listenerMethodVersion;
 
     public ClipboardManager(IInterface manager) {
         this.manager = manager;
+        IClipboard direct = DirectBinder.resolve(manager, IClipboard.class, "getPrimaryClip", String.class);
+        if (direct != null) {
+            direct = DirectBinder.resolve(manager, IClipboard.class, "setPrimaryClip", ClipData.class, String.class);
+        }
+        directManager = direct;
+        if (directManager != null) {
+            getPrimaryClipMethod = null;
+            setPrimaryClipMethod = null;
+            return;
+        }
+        Ln.d("ClipboardManager: calling getPrimaryClip()/setPrimaryClip() by reflection");
         try {
             getPrimaryClipMethod = manager.getClass().getMethod("getPrimaryClip", String.class);
             setPrimaryClipMethod = manager.getClass().getMethod("setPrimaryClip", ClipData.class, String.class);
@@ -21,24 +49,128 @@ public class ClipboardManager {
         }
     }
 
-    public CharSequence getText() {
-        try {
-            ClipData clipData = (ClipData) getPrimaryClipMethod.invoke(manager, "com.android.shell");
-            if (clipData == null || clipData.getItemCount() == 0) {
-                return null;
+    private ClipData getPrimaryClip() {
+        if (directManager != null) {
+            try {
+                return directManager.getPrimaryClip(PACKAGE_NAME);
+            } catch (RemoteException e) {
+                throw new AssertionError(e);
             }
-            return clipData.getItemAt(0).getText();
+        }
+        try {
+            return (ClipData) getPrimaryClipMethod.invoke(manager, PACKAGE_NAME);
         } catch (InvocationTargetException | IllegalAccessException e) {
             throw new AssertionError(e);
         }
     }
 
-    public void setText(CharSequence text) {
-        ClipData clipData = ClipData.newPlainText(null, text);
+    private void setPrimaryClip(ClipData clipData) {
+        if (directManager != null) {
+            try {
+                directManager.setPrimaryClip(clipData, PACKAGE_NAME);
+            } catch (RemoteException e) {
+                throw new AssertionError(e);
+            }
+            return;
+        }
         try {
-            setPrimaryClipMethod.invoke(manager, clipData, "com.android.shell");
+            setPrimaryClipMethod.invoke(manager, clipData, PACKAGE_NAME);
         } catch (InvocationTargetException | IllegalAccessException e) {
             throw new AssertionError(e);
         }
     }
+
+    private synchronized void resolveListenerMethods() throws NoSuchMethodException {
+        if (addListenerMethod != null) {
+            return;
+        }
+        Class<?> cls = manager.getClass();
+        Class<?> listenerClass = IOnPrimaryClipChangedListener.class;
+        try {
+            addListenerMethod = cls.getMethod("addPrimaryClipChangedListener", listenerClass, String.class);
+            removeListenerMethod = cls.getMethod("removePrimaryClipChangedListener", listenerClass);
+            listenerMethodVersion = LISTENER_METHOD_LEGACY;
+        } catch (NoSuchMethodException e) {
+            try {
+                addListenerMethod = cls.getMethod("addPrimaryClipChangedListener", listenerClass, String.class, int.class);
+                removeListenerMethod = cls.getMethod("removePrimaryClipChangedListener", listenerClass, String.class, int.class);
+                listenerMethodVersion = LISTENER_METHOD_USER_ID;
+            } catch (NoSuchMethodException e2) {
+                try {
+                    addListenerMethod = cls.getMethod("addPrimaryClipChangedListener", listenerClass, String.class, String.class, int.class);
+                    removeListenerMethod = cls.getMethod("removePrimaryClipChangedListener", listenerClass, String.class, String.class,
+                            int.class);
+                    listenerMethodVersion = LISTENER_METHOD_ATTRIBUTION_TAG;
+                } catch (NoSuchMethodException e3) {
+                    addListenerMethod = cls.getMethod("addPrimaryClipChangedListener", listenerClass, String.class, String.class, int.class,
+                            int.class);
+                    removeListenerMethod = cls.getMethod("removePrimaryClipChangedListener", listenerClass, String.class, String.class,
+                            int.class, int.class);
+                    listenerMethodVersion = LISTENER_METHOD_DEVICE_ID;
+                }
+            }
+        }
+    }
+
+    private void invokeListenerMethod(Method method, IOnPrimaryClipChangedListener listener, boolean add)
+            throws InvocationTargetException, IllegalAccessException {
+        switch (listenerMethodVersion) {
+            case LISTENER_METHOD_DEVICE_ID:
+                method.invoke(manager, listener, PACKAGE_NAME, null, ServiceManager.USER_CURRENT, DEVICE_ID_DEFAULT);
+                break;
+            case LISTENER_METHOD_ATTRIBUTION_TAG:
+                method.invoke(manager, listener, PACKAGE_NAME, null, ServiceManager.USER_CURRENT);
+                break;
+            case LISTENER_METHOD_USER_ID:
+                method.invoke(manager, listener, PACKAGE_NAME, ServiceManager.USER_CURRENT);
+                break;
+            default:
+                if (add) {
+                    method.invoke(manager, listener, PACKAGE_NAME);
+                } else {
+                    method.invoke(manager, listener);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Register a listener called (on a binder thread) when the primary clip changes.
+     *
+     * @return {@code true} on success
+     */
+    public boolean addPrimaryClipChangedListener(IOnPrimaryClipChangedListener listener) {
+        try {
+            resolveListenerMethods();
+            invokeListenerMethod(addListenerMethod, listener, true);
+            return true;
+        } catch (InvocationTargetException | IllegalAccessException | NoSuchMethodException e) {
+            Ln.e("Could not register the clipboard listener", e);
+            return false;
+        }
+    }
+
+    /**
+     * Unregister a listener registered by {@link #addPrimaryClipChangedListener(IOnPrimaryClipChangedListener)}.
+     */
+    public void removePrimaryClipChangedListener(IOnPrimaryClipChangedListener listener) {
+        try {
+            resolveListenerMethods();
+            invokeListenerMethod(removeListenerMethod, listener, false);
+        } catch (InvocationTargetException | IllegalAccessException | NoSuchMethodException e) {
+            Ln.e("Could not unregister the clipboard listener", e);
+        }
+    }
+
+    public CharSequence getText() {
+        ClipData clipData = getPrimaryClip();
+        if (clipData == null || clipData.getItemCount() == 0) {
+            return null;
+        }
+        return clipData.getItemAt(0).getText();
+    }
+
+    public void setText(CharSequence text) {
+        setPrimaryClip(ClipData.newPlainText(null, text));
+    }
 }
@@ -0,0 +1,134 @@
+package com.genymobile.scrcpy.wrappers;
+
+import android.annotation.SuppressLint;
+import android.os.Bundle;
+import android.os.IBinder;
+import android.os.Process;
+
+import java.io.Closeable;
+import java.lang.reflect.Method;
+
+/**
+ * Wrapper around a {@code IContentProvider} acquired by {@link ActivityManager}.
+ * <p>
+ * It must be closed to release the provider.
+ */
+@SuppressLint("PrivateApi")
+public final class ContentProvider implements Closeable {
+
+    // see <https://android.googlesource.com/platform/frameworks/base/+/refs/heads/android10-release/core/java/android/provider/Settings.java>
+    private static final String CALL_METHOD_USER_KEY = "_user";
+    private static final String NAME_VALUE_TABLE_VALUE = "value";
+
+    private static final String CALLING_PACKAGE = "com.android.shell";
+
+    private static final int CALL_METHOD_LEGACY = 0; // call(callingPkg, method, arg, extras), Android 5 to 9
+    private static final int CALL_METHOD_AUTHORITY = 1; // call(callingPkg, authority, method, arg, extras), Android 10
+    private static final int CALL_METHOD_FEATURE_ID = 2; // call(callingPkg, featureId, authority, method, arg, extras), Android 11
+    private static final int CALL_METHOD_ATTRIBUTION = 3; // call(attributionSource, authority, method, arg, extras), Android 12+
+
+    private final ActivityManager manager;
+    private final Object provider; // IContentProvider
+    private final String name;
+    private final IBinder token;
+
+    private Method callMethod;
+    private int callMethodVersion;
+    private Object attributionSource;
+
+    ContentProvider(ActivityManager manager, Object provider, String name, IBinder token) {
+        this.manager = manager;
+        this.provider = provider;
+        this.name = name;
+        this.token = token;
+    }
+
+    private Method getCallMethod() throws ReflectiveOperationException {
+        if (callMethod == null) {
+            Class<?> cls = provider.getClass();
+            try {
+                Class<?> attributionSourceClass = Class.forName("android.content.AttributionSource");
+                callMethod = cls.getMethod("call", attributionSourceClass, String.class, String.class, String.class, Bundle.class);
+                callMethodVersion = CALL_METHOD_ATTRIBUTION;
+            } catch (ClassNotFoundException | NoSuchMethodException e) {
+                try {
+                    callMethod = cls.getMethod("call", String.class, String.class, String.class, String.class, String.class, Bundle.class);
+                    callMethodVersion = CALL_METHOD_FEATURE_ID;
+                } catch (NoSuchMethodException e2) {
+                    try {
+                        callMethod = cls.getMethod("call", String.class, String.class, String.class, String.class, Bundle.class);
+                        callMethodVersion = CALL_METHOD_AUTHORITY;
+                    } catch (NoSuchMethodException e3) {
+                        callMethod = cls.getMethod("call", String.class, String.class, String.class, Bundle.class);
+                        callMethodVersion = CALL_METHOD_LEGACY;
+                    }
+                }
+            }
+        }
+        return callMethod;
+    }
+
+    private Object getAttributionSource() throws ReflectiveOperationException {
+        if (attributionSource == null) {
+            // new AttributionSource.Builder(uid).setPackageName(CALLING_PACKAGE).build()
+            Class<?> builderClass = Class.forName("android.content.AttributionSource$Builder");
+            Object builder = builderClass.getConstructor(int.class).newInstance(Process.myUid());
+            builderClass.getMethod("setPackageName", String.class).invoke(builder, CALLING_PACKAGE);
+            attributionSource = builderClass.getMethod("build").invoke(builder);
+        }
+        return attributionSource;
+    }
+
+    private Bundle call(String callMethodName, String arg, Bundle extras) throws ReflectiveOperationException {
+        Method method = getCallMethod();
+        Object result;
+        switch (callMethodVersion) {
+            case CALL_METHOD_ATTRIBUTION:
+                result = method.invoke(provider, getAttributionSource(), name, callMethodName, arg, extras);
+                break;
+            case CALL_METHOD_FEATURE_ID:
+                result = method.invoke(provider, CALLING_PACKAGE, null, name, callMethodName, arg, extras);
+                break;
+            case CALL_METHOD_AUTHORITY:
+                result = method.invoke(provider, CALLING_PACKAGE, name, callMethodName, arg, extras);
+                break;
+            default:
+                result = method.invoke(provider, CALLING_PACKAGE, callMethodName, arg, extras);
+                break;
+        }
+        return (Bundle) result;
+    }
+
+    /**
+     * Read a value from the settings provider.
+     *
+     * @param table one of {@link Settings#SYSTEM}, {@link Settings#SECURE} or {@link Settings#GLOBAL}
+     * @return the value, or {@code null} if it is not set
+     */
+    public String getValue(String table, String key) throws ReflectiveOperationException {
+        Bundle extras = new Bundle();
+        extras.putInt(CALL_METHOD_USER_KEY, ServiceManager.USER_CURRENT);
+        Bundle bundle = call("GET_" + table, key, extras);
+        if (bundle == null) {
+            return null;
+        }
+        return bundle.getString(NAME_VALUE_TABLE_VALUE);
+    }
+
+    /**
+     * Write a value to the settings provider.
+     *
+     * @param table one of {@link Settings#SYSTEM}, {@link Settings#SECURE} or {@link Settings#GLOBAL}
+     */
+    public void putValue(String table, String key, String value) throws ReflectiveOperationException {
+        Bundle extras = new Bundle();
+        extras.putInt(CALL_METHOD_USER_KEY, ServiceManager.USER_CURRENT);
+        extras.putString(NAME_VALUE_TABLE_VALUE, value);
+        call("PUT_" + table, key, extras);
+    }
+
+    @Override
+    public void close() {
+        manager.removeContentProviderExternal(name, token);
+    }
+}
@@ -0,0 +1,31 @@
+package com.genymobile.scrcpy.wrappers;
+
+/**
+ * Resolve a hidden service interface once, so that hot methods are called directly instead of through {@link java.lang.reflect.Method#invoke}.
+ * <p>
+ * The hidden interfaces are declared in this project with only the methods we call (see {@code android.hardware.input.IInputManager}); at
+ * runtime, they are shadowed by the framework classes. A direct call avoids the argument array, the boxing of primitives and the wrapping
+ * of exceptions, but it links against the declared signature, so it is only used if the runtime interface provides it. Otherwise, the
+ * wrapper falls back to reflection.
+ */
+final class DirectBinder {
+
+    private DirectBinder() {
+        // not instantiable
+    }
+
+    /**
+     * Return {@code manager} as {@code type} if {@code type} provides the method at runtime, {@code null} otherwise.
+     */
+    static <T> T resolve(Object manager, Class<T> type, String methodName, Class<?>... parameterTypes) {
+        if (!type.isInstance(manager)) {
+            return null;
+        }
+        try {
+            type.getMethod(methodName, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+        return type.cast(manager);
+    }
+}
@@ -1,6 +1,10 @@
 package com.genymobile.scrcpy.wrappers;
 
+import com.genymobile.scrcpy.Ln;
+
+import android.hardware.input.IInputManager;
 import android.os.IInterface;
+import android.os.RemoteException;
 import android.view.InputEvent;
 
 import java.lang.reflect.InvocationTargetException;
@@ -13,10 +17,17 @@ public final class InputManager {
     public static final int INJECT_INPUT_EVENT_MODE_WAIT_FOR_FINISH = 2;
 
     private final IInterface manager;
+    private final IInputManager directManager; // null if injectInputEvent() must be called by reflection
     private final Method injectInputEventMethod;
 
     public InputManager(IInterface manager) {
         this.manager = manager;
+        directManager = DirectBinder.resolve(manager, IInputManager.class, "injectInputEvent", InputEvent.class, int.class);
+        if (directManager != null) {
+            injectInputEventMethod = null;
+            return;
+        }
+        Ln.d("InputManager: calling injectInputEvent() by reflection");
         try {
             injectInputEventMethod = manager.getClass().getMethod("injectInputEvent", InputEvent.class, int.class);
         } catch (NoSuchMethodException e) {
@@ -25,6 +36,13 @@ public final class InputManager {
     }
 
     public boolean injectInputEvent(InputEvent inputEvent, int mode) {
+        if (directManager != null) {
+            try {
+                return directManager.injectInputEvent(inputEvent, mode);
+            } catch (RemoteException e) {
+                throw new AssertionError(e);
+            }
+        }
         try {
             return (Boolean) injectInputEventMethod.invoke(manager, inputEvent, mode);
         } catch (InvocationTargetException | IllegalAccessException e) {
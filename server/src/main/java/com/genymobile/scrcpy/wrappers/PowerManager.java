@@ -1,18 +1,29 @@
 package com.genymobile.scrcpy.wrappers;
 
+import com.genymobile.scrcpy.Ln;
+
 import android.annotation.SuppressLint;
 import android.os.Build;
 import android.os.IInterface;
+import android.os.IPowerManager;
+import android.os.RemoteException;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
 public final class PowerManager {
     private final IInterface manager;
+    private final IPowerManager directManager; // null if isInteractive() must be called by reflection
     private final Method isScreenOnMethod;
 
     public PowerManager(IInterface manager) {
         this.manager = manager;
+        directManager = DirectBinder.resolve(manager, IPowerManager.class, "isInteractive");
+        if (directManager != null) {
+            isScreenOnMethod = null;
+            return;
+        }
+        Ln.d("PowerManager: calling isScreenOn() by reflection");
         try {
             @SuppressLint("ObsoleteSdkInt") // we may lower minSdkVersion in the future
             String methodName = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT_WATCH ? "isInteractive" : "isScreenOn";
@@ -23,6 +34,13 @@ public final class PowerManager {
     }
 
     public boolean isScreenOn() {
+        if (directManager != null) {
+            try {
+                return directManager.isInteractive();
+            } catch (RemoteException e) {
+                throw new AssertionError(e);
+            }
+        }
         try {
             return (Boolean) isScreenOnMethod.invoke(manager);
         } catch (InvocationTargetException | IllegalAccessException e) {
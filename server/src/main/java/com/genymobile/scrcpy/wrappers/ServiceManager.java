@@ -1,31 +1,113 @@
 package com.genymobile.scrcpy.wrappers;
 
 import android.annotation.SuppressLint;
+import android.os.Build;
 import android.os.IBinder;
 import android.os.IInterface;
+import android.os.SystemClock;
 
 import java.lang.reflect.Method;
 
 import com.genymobile.scrcpy.Ln;
 
+/**
+ * Process-wide registry of the system service wrappers.
+ * <p>
+ * The wrappers are created lazily, at most once, and may be requested from any thread (controller, encoder, rotation watcher). Each
+ * wrapper has its own lock, so that looking up a service does not block the threads requesting another one.
+ */
 @SuppressLint("PrivateApi")
 public final class ServiceManager {
+    private static final class Holder {
+        private static final ServiceManager INSTANCE = new ServiceManager();
+    }
+
+    /**
+     * Wrapper created on first use.
+     */
+    private abstract static class Lazy<T> {
+        private T value;
+
+        protected abstract T create();
+
+        synchronized T get() {
+            if (value == null) {
+                value = create();
+            }
+            return value;
+        }
+    }
+
     private final Method getServiceMethod;
     private final Method checkServiceMethod;
 
-    private WindowManager      windowManager;
-    private DisplayManager     displayManager;
-    private InputManager       inputManager;
-    private PowerManager       powerManager;
-    private StatusBarManager   statusBarManager;
-    private ClipboardManager   clipboardManager;
-    private ActivityManager    activityManager;
-    private InputMethodManager inputMethodManager;
-    private PackageManager     packageManager;
+    private final Lazy<WindowManager> windowManager = new Lazy<WindowManager>() {
+        @Override
+        protected WindowManager create() {
+            return new WindowManager(getService("window", "android.view.IWindowManager"));
+        }
+    };
+    private final Lazy<DisplayManager> displayManager = new Lazy<DisplayManager>() {
+        @Override
+        protected DisplayManager create() {
+            return new DisplayManager(getService("display", "android.hardware.display.IDisplayManager"));
+        }
+    };
+    private final Lazy<InputManager> inputManager = new Lazy<InputManager>() {
+        @Override
+        protected InputManager create() {
+            return new InputManager(getService("input", "android.hardware.input.IInputManager"));
+        }
+    };
+    private final Lazy<PowerManager> powerManager = new Lazy<PowerManager>() {
+        @Override
+        protected PowerManager create() {
+            return new PowerManager(getService("power", "android.os.IPowerManager"));
+        }
+    };
+    private final Lazy<StatusBarManager> statusBarManager = new Lazy<StatusBarManager>() {
+        @Override
+        protected StatusBarManager create() {
+            return new StatusBarManager(getService("statusbar", "com.android.internal.statusbar.IStatusBarService"));
+        }
+    };
+    private final Lazy<ClipboardManager> clipboardManager = new Lazy<ClipboardManager>() {
+        @Override
+        protected ClipboardManager create() {
+            return new ClipboardManager(getService("clipboard", "android.content.IClipboard"));
+        }
+    };
+    private final Lazy<ActivityManager> activityManager = new Lazy<ActivityManager>() {
+        @Override
+        protected ActivityManager create() {
+            // This does not work for Android 6
+            // return new ActivityManager(getService("activity", "android.app.IActivityManager"));
+            // This works for both Android 6 and 8
+            return new ActivityManager(checkService("activity", "android.app.ActivityManagerNative"));
+        }
+    };
+    private final Lazy<InputMethodManager> inputMethodManager = new Lazy<InputMethodManager>() {
+        @Override
+        protected InputMethodManager create() {
+            return new InputMethodManager(getService("input_method", "com.android.internal.view.IInputMethodManager"));
+        }
+    };
+    private final Lazy<PackageManager> packageManager = new Lazy<PackageManager>() {
+        @Override
+        protected PackageManager create() {
+            return new PackageManager(getService("package", "android.content.pm.IPackageManager"));
+        }
+    };
+    private final Lazy<ThermalService> thermalService = new Lazy<ThermalService>() {
+        @Override
+        protected ThermalService create() {
+            return new ThermalService(getService("thermalservice", "android.os.IThermalService"));
+        }
+    };
 
     public static final int USER_CURRENT = -2;
 
-    public ServiceManager() {
+    private ServiceManager() {
         try {
             getServiceMethod   = Class.forName("android.os.ServiceManager").getDeclaredMethod("getService",   String.class);
             checkServiceMethod = Class.forName("android.os.ServiceManager").getDeclaredMethod("checkService", String.class);
@@ -35,6 +117,39 @@ public final class ServiceManager {
         }
     }
 
+    public static ServiceManager getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Create the wrappers the session needs after the startup, so that the session threads do not pay for the lookups on their first
+     * calls.
+     * <p>
+     * The services {@code DeviceControl} requests on startup are left to it (warming them up would only make it wait for the same
+     * lookups), and so are the services not safe to create early (the clipboard service fails on some Android 10 builds). A failure
+     * only leaves the wrapper to be created on first use.
+     *
+     * @return the time spent, in milliseconds
+     */
+    public long warmUp(boolean control) {
+        long start = SystemClock.uptimeMillis();
+        warmUp(displayManager, "display");
+        warmUp(powerManager, "power");
+        warmUp(inputManager, "input");
+        if (control) {
+            warmUp(statusBarManager, "statusbar");
+        }
+        return SystemClock.uptimeMillis() - start;
+    }
+
+    private static void warmUp(Lazy<?> wrapper, String name) {
+        try {
+            wrapper.get();
+        } catch (AssertionError | RuntimeException e) {
+            Ln.w("Could not warm up the " + name + " service: " + e.getMessage());
+        }
+    }
+
     private IInterface getService(String service, String type) {
         try {
             IBinder binder = (IBinder) getServiceMethod.invoke(null, service);
@@ -58,68 +173,54 @@ public final class ServiceManager {
     }
 
     public WindowManager getWindowManager() {
-        if (windowManager == null) {
-            windowManager = new WindowManager(getService("window", "android.view.IWindowManager"));
-        }
-        return windowManager;
+        return windowManager.get();
     }
 
     public DisplayManager getDisplayManager() {
-        if (displayManager == null) {
-            displayManager = new DisplayManager(getService("display", "android.hardware.display.IDisplayManager"));
-        }
-        return displayManager;
+        return displayManager.get();
     }
 
     public InputManager getInputManager() {
-        if (inputManager == null) {
-            inputManager = new InputManager(getService("input", "android.hardware.input.IInputManager"));
-        }
-        return inputManager;
+        return inputManager.get();
     }
 
     public PowerManager getPowerManager() {
-        if (powerManager == null) {
-            powerManager = new PowerManager(getService("power", "android.os.IPowerManager"));
-        }
-        return powerManager;
+        return powerManager.get();
     }
 
     public StatusBarManager getStatusBarManager() {
-        if (statusBarManager == null) {
-            statusBarManager = new StatusBarManager(getService("statusbar", "com.android.internal.statusbar.IStatusBarService"));
-        }
-        return statusBarManager;
+        return statusBarManager.get();
     }
 
     public ClipboardManager getClipboardManager() {
-        if (clipboardManager == null) {
-            clipboardManager = new ClipboardManager(getService("clipboard", "android.content.IClipboard"));
-        }
-        return clipboardManager;
+        return clipboardManager.get();
     }
 
     public ActivityManager getActivityManager() {
-        if (activityManager == null) {
-            // This does not work for Android 6
-            // activityManager = new ActivityManager(getService("activity", "android.app.IActivityManager"));
-            // This works for both Android 6 and 8
-            activityManager = new ActivityManager(checkService("activity", "android.app.ActivityManagerNative"));
-        }
-        return activityManager;
+        return activityManager.get();
     }
 
     public InputMethodManager getInputMethodManager() {
-        if (inputMethodManager == null) {
-            inputMethodManager = new InputMethodManager(getService("input_method", "com.android.internal.view.IInputMethodManager"));
-        }
-        return inputMethodManager;
+        return inputMethodManager.get();
     }
 
     public PackageManager getPackageManager() {
-        if (packageManager == null) {
-            packageManager = new PackageManager(getService("package", "android.content.pm.IPackageManager"));
+        return packageManager.get();
+    }
+
+    /**
+     * @return the thermal service, {@code null} before Android 10 or if it is not available
+     */
+    public ThermalService getThermalService() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            return null;
+        }
+        try {
+            return thermalService.get();
+        } catch (AssertionError | RuntimeException e) {
+            // the service may be missing (getService() returns null) or not expose the method
+            Ln.w("Could not get the thermal service: " + e.getMessage());
+            return null;
         }
-        return packageManager;
     }
 }
@@ -2,39 +2,158 @@ package com.genymobile.scrcpy.wrappers;
 
 import com.genymobile.scrcpy.Ln;
 
+import android.os.SystemClock;
+
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
 
+/**
+ * Access to the settings provider.
+ * <p>
+ * Values are read and written over binder through the settings content provider, falling back to the {@code settings} shell command
+ * (which forks a process for every call) if the provider is not available. Values are cached for the session: writes go through the cache
+ * to the provider.
+ */
 public final class Settings {
     public static final String SYSTEM = "system";
     public static final String SECURE = "secure";
+    public static final String GLOBAL = "global";
     public static final String SCREEN_BRIGHTNESS = android.provider.Settings.System.SCREEN_BRIGHTNESS;
     public static final String HIDE_ROTATION_LOCK_TOGGLE_FOR_ACCESSIBILITY = "hide_rotation_lock_toggle_for_accessibility"; //android.provider.Settings.System.HIDE_ROTATION_LOCK_TOGGLE_FOR_ACCESSIBILITY;
     public static final String ACCELEROMETER_ROTATION = android.provider.Settings.System.ACCELEROMETER_ROTATION;
     public static final String USER_ROTATION = android.provider.Settings.System.USER_ROTATION;
     public static final String DEFAULT_INPUT_METHOD = "default_input_method";
 
-    public static String get(final String namespace, final String key) {
-        String[] cmd = new String[]{"settings", "get", namespace, key};
-        try {
-            final Process p = Runtime.getRuntime().exec(cmd);
-            BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream(),"UTF-8"));
-            String line = reader.readLine();
-            reader.close();
-            return line;
+    private static final Map<String, String> CACHE = new HashMap<>();
+
+    private static ContentProvider provider;
+    private static boolean providerUnavailable;
+
+    private static int callCount;
+    private static long totalCallTime;
+
+    private Settings() {
+        // only static methods
+    }
+
+    private static ContentProvider getProvider() {
+        if (provider == null && !providerUnavailable) {
+            provider = ServiceManager.getInstance().getActivityManager().createSettingsProvider();
+            providerUnavailable = provider == null;
+        }
+        return provider;
+    }
+
+    /**
+     * @return the value, {@code null} if it is not set, or an empty string on error
+     */
+    public static synchronized String get(final String namespace, final String key) {
+        String cacheKey = namespace + '/' + key;
+        if (CACHE.containsKey(cacheKey)) {
+            return CACHE.get(cacheKey);
+        }
+
+        long start = SystemClock.uptimeMillis();
+        String value = null;
+        boolean read = false;
+        String method = "binder";
+        ContentProvider settingsProvider = getProvider();
+        if (settingsProvider != null) {
+            try {
+                value = settingsProvider.getValue(namespace, key);
+                read = true;
+            } catch (Exception e) {
+                Ln.e("Settings.get: could not read from the provider", e);
+            }
+        }
+        if (!read) {
+            method = "shell";
+            try {
+                value = shellGet(namespace, key);
+                read = true;
+            } catch (Exception e) {
+                Ln.e("Settings.get", e);
+            }
+        }
+        logCall("get", namespace, key, method, start);
+
+        if (!read) {
+            return "";
+        }
+        CACHE.put(cacheKey, value);
+        return value;
+    }
+
+    public static synchronized void put(final String namespace, final String key, final String value) {
+        long start = SystemClock.uptimeMillis();
+        boolean written = false;
+        String method = "binder";
+        ContentProvider settingsProvider = getProvider();
+        if (settingsProvider != null) {
+            try {
+                settingsProvider.putValue(namespace, key, value);
+                written = true;
+            } catch (Exception e) {
+                Ln.e("Settings.put: could not write to the provider", e);
+            }
         }
-        catch (Exception e) {
-            Ln.e("Settings.get", e);
+        if (!written) {
+            method = "shell";
+            try {
+                shellPut(namespace, key, value);
+                written = true;
+            } catch (Exception e) {
+                Ln.e("Settings.put", e);
+            }
+        }
+        logCall("put", namespace, key, method, start);
+
+        String cacheKey = namespace + '/' + key;
+        if (written) {
+            CACHE.put(cacheKey, value);
+        } else {
+            // the actual value is unknown
+            CACHE.remove(cacheKey);
         }
-        return "";
     }
 
-    public static void put(final String namespace, final String key, final String value) {
-        String[] cmd = new String[]{"settings","put", namespace, key, value};
-        try {
-            final Process p = Runtime.getRuntime().exec(cmd);
-            p.waitFor();
+    /**
+     * Release the settings provider and forget the cached values, at the end of the session.
+     */
+    public static synchronized void release() {
+        if (provider != null) {
+            provider.close();
+            provider = null;
+        }
+        providerUnavailable = false;
+        CACHE.clear();
+        if (callCount > 0) {
+            Ln.i("Settings: " + callCount + " calls in " + totalCallTime + " ms");
         }
-        catch (Exception e) {}
+    }
+
+    private static void logCall(String name, String namespace, String key, String method, long start) {
+        long elapsed = SystemClock.uptimeMillis() - start;
+        ++callCount;
+        totalCallTime += elapsed;
+        Ln.d("Settings.{}({}, {}): {} ms ({})", name, namespace, key, elapsed, method);
+    }
+
+    private static String shellGet(final String namespace, final String key) throws Exception {
+        String[] cmd = new String[]{"settings", "get", namespace, key};
+        final Process p = Runtime.getRuntime().exec(cmd);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream(), "UTF-8"));
+        String line = reader.readLine();
+        reader.close();
+        // the command prints "null" if the value is not set
+        return "null".equals(line) ? null : line;
+    }
+
+    private static void shellPut(final String namespace, final String key, final String value) throws Exception {
+        String[] cmd = new String[]{"settings", "put", namespace, key, value};
+        final Process p = Runtime.getRuntime().exec(cmd);
+        p.waitFor();
     }
 }
@@ -0,0 +1,34 @@
+package com.genymobile.scrcpy.wrappers;
+
+import com.genymobile.scrcpy.Ln;
+
+import android.os.IInterface;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+public final class ThermalService {
+    private final IInterface manager;
+    private final Method getCurrentThermalStatusMethod;
+
+    public ThermalService(IInterface manager) {
+        this.manager = manager;
+        try {
+            getCurrentThermalStatusMethod = manager.getClass().getMethod("getCurrentThermalStatus");
+        } catch (NoSuchMethodException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * @return the current status (a {@code PowerManager.THERMAL_STATUS_*} value), -1 on error
+     */
+    public int getCurrentThermalStatus() {
+        try {
+            return (Integer) getCurrentThermalStatusMethod.invoke(manager);
+        } catch (InvocationTargetException | IllegalAccessException e) {
+            Ln.e("Could not read the thermal status", e);
+            return -1;
+        }
+    }
+}
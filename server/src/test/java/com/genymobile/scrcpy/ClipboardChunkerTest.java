@@ -0,0 +1,102 @@
+package com.genymobile.scrcpy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+public class ClipboardChunkerTest {
+
+    private static String createText(int lines) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < lines; ++i) {
+            // multibyte characters (2, 3 and 4 bytes in UTF-8), split at various positions by the chunks
+            builder.append("{\"id\": ").append(i).append(", \"value\": \"é€😀\"}\n");
+        }
+        return builder.toString();
+    }
+
+    private static String transfer(String text, boolean deflate, int chunkSize) throws IOException {
+        ClipboardChunker chunker = new ClipboardChunker(text, deflate);
+        ClipboardAssembler assembler = new ClipboardAssembler();
+        byte[] chunk = new byte[chunkSize];
+        String result = null;
+        do {
+            Assert.assertNull(result);
+            int len = chunker.nextChunk(chunk);
+            Assert.assertEquals(deflate, (chunker.getFlags() & ClipboardChunker.FLAG_DEFLATE) != 0);
+            result = assembler.accept(chunker.getFlags(), chunk, 0, len);
+        } while (!chunker.isFinished());
+        return result;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        String text = createText(10000);
+        for (int chunkSize : new int[] {1, 7, 1020, 4092, 100000}) {
+            Assert.assertEquals(text, transfer(text, false, chunkSize));
+            Assert.assertEquals(text, transfer(text, true, chunkSize));
+        }
+    }
+
+    @Test
+    public void testEmptyText() throws IOException {
+        Assert.assertEquals("", transfer("", false, 16));
+        Assert.assertEquals("", transfer("", true, 16));
+    }
+
+    @Test
+    public void testDeflateReducesChunks() {
+        String text = createText(10000);
+        int plain = 0;
+        ClipboardChunker chunker = new ClipboardChunker(text, false);
+        byte[] chunk = new byte[4092];
+        do {
+            chunker.nextChunk(chunk);
+            ++plain;
+        } while (!chunker.isFinished());
+
+        int deflated = 0;
+        chunker = new ClipboardChunker(text, true);
+        do {
+            chunker.nextChunk(chunk);
+            ++deflated;
+        } while (!chunker.isFinished());
+
+        Assert.assertTrue(deflated * 4 < plain);
+    }
+
+    @Test
+    public void testSuccessiveTransfers() throws IOException {
+        ClipboardAssembler assembler = new ClipboardAssembler();
+        byte[] chunk = new byte[100];
+        String[] texts = {createText(50), "short", createText(20)};
+        for (int i = 0; i < texts.length; ++i) {
+            ClipboardChunker chunker = new ClipboardChunker(texts[i], i % 2 == 0);
+            String result;
+            do {
+                int len = chunker.nextChunk(chunk);
+                result = assembler.accept(chunker.getFlags(), chunk, 0, len);
+            } while (!chunker.isFinished());
+            Assert.assertEquals(texts[i], result);
+        }
+    }
+
+    @Test
+    public void testInvalidCompressedData() throws IOException {
+        ClipboardAssembler assembler = new ClipboardAssembler();
+        byte[] garbage = new byte[64];
+        new Random(42).nextBytes(garbage);
+        try {
+            assembler.accept(ClipboardChunker.FLAG_DEFLATE | ClipboardChunker.FLAG_LAST, garbage, 0, garbage.length);
+            Assert.fail("Expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // the assembler is usable again
+        byte[] data = "ok".getBytes("UTF-8");
+        Assert.assertEquals("ok", assembler.accept(ClipboardChunker.FLAG_LAST, data, 0, data.length));
+    }
+}
@@ -0,0 +1,101 @@
+package com.genymobile.scrcpy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class ClipboardMonitorTest {
+
+    private static final class FakeClipboard implements ClipboardMonitor.Source, ClipboardMonitor.Listener {
+        private String text;
+        private int readCount;
+        private final List<String> pushed = new ArrayList<>();
+
+        @Override
+        public synchronized String getText() {
+            ++readCount;
+            return text;
+        }
+
+        @Override
+        public synchronized void onClipboardTextChanged(String text) {
+            pushed.add(text);
+        }
+    }
+
+    private static final ClipboardMonitor.Clock CLOCK = new ClipboardMonitor.Clock() {
+        @Override
+        public long now() {
+            return 10_000;
+        }
+    };
+
+    @Test
+    public void testPushOnlyChangedText() {
+        FakeClipboard clipboard = new FakeClipboard();
+        ClipboardMonitor monitor = new ClipboardMonitor(clipboard, clipboard, null, CLOCK);
+
+        clipboard.text = "hello";
+        monitor.check();
+        monitor.check();
+        clipboard.text = "world";
+        monitor.check();
+        clipboard.text = "hello";
+        monitor.check();
+
+        Assert.assertEquals(4, clipboard.readCount);
+        Assert.assertEquals(3, clipboard.pushed.size());
+        Assert.assertEquals("hello", clipboard.pushed.get(0));
+        Assert.assertEquals("world", clipboard.pushed.get(1));
+        Assert.assertEquals("hello", clipboard.pushed.get(2));
+    }
+
+    @Test
+    public void testTextFromClientNotPushedBack() {
+        FakeClipboard clipboard = new FakeClipboard();
+        ClipboardMonitor monitor = new ClipboardMonitor(clipboard, clipboard, null, CLOCK);
+
+        monitor.setKnownText("from client");
+        clipboard.text = "from client";
+        monitor.check();
+
+        Assert.assertTrue(clipboard.pushed.isEmpty());
+    }
+
+    @Test
+    public void testChangesCoalesced() throws Exception {
+        FakeClipboard clipboard = new FakeClipboard();
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            // just after a check, so that the next one is delayed by MIN_INTERVAL_MS
+            ClipboardMonitor monitor = new ClipboardMonitor(clipboard, clipboard, scheduler, new ClipboardMonitor.Clock() {
+                @Override
+                public long now() {
+                    return 0;
+                }
+            });
+            clipboard.text = "abc";
+            for (int i = 0; i < 10; ++i) {
+                monitor.onClipboardChanged();
+            }
+            // wait for the pending check
+            scheduler.schedule(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    return null;
+                }
+            }, ClipboardMonitor.MIN_INTERVAL_MS, TimeUnit.MILLISECONDS).get();
+
+            Assert.assertEquals(1, clipboard.readCount);
+            Assert.assertEquals(1, clipboard.pushed.size());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+}
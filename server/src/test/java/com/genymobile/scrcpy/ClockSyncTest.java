@@ -0,0 +1,125 @@
+package com.genymobile.scrcpy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class ClockSyncTest {
+
+    private static final long MIN_DELAY_MS = 5;
+
+    /**
+     * Network simulation: the client sends a message every {@code period} ms, received on the device after a random delay.
+     */
+    private static final class Network {
+        private final Random random = new Random(42);
+        private final long offset;
+        private final double skew;
+        private final long clientStart;
+
+        Network(long offset, double skew, long clientStart) {
+            this.offset = offset;
+            this.skew = skew;
+            this.clientStart = clientStart;
+        }
+
+        long deviceTime(long clientTime) {
+            return offset + clientTime + Math.round(skew * (clientTime - clientStart));
+        }
+
+        long delay() {
+            // most messages are delayed by queuing, some are not
+            if (random.nextInt(10) == 0) {
+                return MIN_DELAY_MS;
+            }
+            return MIN_DELAY_MS + (long) (-20 * Math.log(1 - random.nextDouble()));
+        }
+    }
+
+    private static long toWire(long clientTime) {
+        return clientTime & 0xffffffffL;
+    }
+
+    /**
+     * Feed samples for {@code duration} ms and check the mapping of each message.
+     *
+     * @return the maximum error of the mapped times (with respect to the earliest possible receive time) during the last minute
+     */
+    private static long simulate(ClockSync clockSync, Network network, long duration) {
+        long maxError = 0;
+        long lastMapped = Long.MIN_VALUE;
+        for (long t = network.clientStart; t < network.clientStart + duration; t += 100) {
+            long receiveTime = network.deviceTime(t) + network.delay();
+            clockSync.addSample(toWire(t), receiveTime);
+            long mapped = clockSync.toDeviceTime(toWire(t), receiveTime);
+
+            Assert.assertTrue("Mapped times must be monotonic", mapped >= lastMapped);
+            Assert.assertTrue("Mapped times must not be in the future", mapped <= receiveTime);
+            lastMapped = mapped;
+
+            if (t > network.clientStart + duration - 60000) {
+                long error = Math.abs(mapped - (network.deviceTime(t) + MIN_DELAY_MS));
+                maxError = Math.max(maxError, error);
+            }
+        }
+        return maxError;
+    }
+
+    @Test
+    public void testConstantOffset() {
+        ClockSync clockSync = new ClockSync();
+        Network network = new Network(123456789, 0, 1000);
+
+        long maxError = simulate(clockSync, network, 5 * 60000);
+
+        Assert.assertTrue(clockSync.isEstimated());
+        Assert.assertTrue("Error: " + maxError + " ms", maxError <= 2);
+        Assert.assertEquals(0, clockSync.getSkewPpm(), 20);
+    }
+
+    @Test
+    public void testDrift() {
+        ClockSync clockSync = new ClockSync();
+        // the device clock runs 200 ppm faster (12 ms per minute)
+        Network network = new Network(-50000, 200e-6, 1000);
+
+        long maxError = simulate(clockSync, network, 10 * 60000);
+
+        Assert.assertEquals(200, clockSync.getSkewPpm(), 30);
+        Assert.assertTrue("Error: " + maxError + " ms", maxError <= 3);
+    }
+
+    @Test
+    public void testClientTimestampWrap() {
+        ClockSync clockSync = new ClockSync();
+        // the client timestamps wrap after 2 minutes
+        long clientStart = (1L << 32) - 2 * 60000;
+        Network network = new Network(1000000 - clientStart, 0, clientStart);
+
+        long maxError = simulate(clockSync, network, 5 * 60000);
+
+        Assert.assertTrue("Error: " + maxError + " ms", maxError <= 2);
+    }
+
+    @Test
+    public void testMappingBeforeFirstSample() {
+        ClockSync clockSync = new ClockSync();
+        Assert.assertFalse(clockSync.isEstimated());
+        Assert.assertEquals(1000, clockSync.toDeviceTime(42, 1000));
+    }
+
+    @Test
+    public void testMonotonicWhenEstimateDecreases() {
+        ClockSync clockSync = new ClockSync();
+        clockSync.addSample(1000, 11100); // delayed by 100 ms
+        Assert.assertEquals(11100, clockSync.toDeviceTime(1000, 11100));
+
+        clockSync.addSample(1010, 11015); // not delayed, the offset was overestimated
+        long mapped = clockSync.toDeviceTime(1010, 11015);
+        Assert.assertEquals(11100, mapped);
+
+        clockSync.addSample(1200, 11205);
+        Assert.assertEquals(11205, clockSync.toDeviceTime(1200, 11205));
+    }
+}
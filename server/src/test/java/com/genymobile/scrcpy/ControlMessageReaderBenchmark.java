@@ -0,0 +1,107 @@
+package com.genymobile.scrcpy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Throughput benchmark of {@link ControlMessageReader}, run manually (it is not a unit test):
+ * <pre>
+ * java -cp ... com.genymobile.scrcpy.ControlMessageReaderBenchmark [readSize]
+ * </pre>
+ */
+public final class ControlMessageReaderBenchmark {
+
+    private static final int MESSAGE_COUNT = 1000;
+    private static final int ITERATIONS = 2000;
+
+    private ControlMessageReaderBenchmark() {
+        // not instantiable
+    }
+
+    /**
+     * Channel replaying the same data indefinitely, by reads of at most {@code readSize} bytes.
+     */
+    private static final class LoopChannel implements ReadableByteChannel {
+        private final byte[] data;
+        private final int readSize;
+        private int offset;
+
+        LoopChannel(byte[] data, int readSize) {
+            this.data = data;
+            this.readSize = readSize;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            int len = Math.min(Math.min(dst.remaining(), data.length - offset), readSize);
+            dst.put(data, offset, len);
+            offset = (offset + len) % data.length;
+            return len;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static byte[] createStream() throws IOException {
+        // a typical stream: mostly touch events, some key and text events
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        for (int i = 0; i < MESSAGE_COUNT; ++i) {
+            if (i % 10 == 0) {
+                dos.writeByte(ControlMessage.TYPE_INJECT_KEYCODE);
+                dos.writeByte(0);
+                dos.writeInt(i);
+                dos.writeInt(0);
+            } else if (i % 10 == 5) {
+                byte[] text = "benchmark".getBytes("UTF-8");
+                dos.writeByte(ControlMessage.TYPE_INJECT_TEXT);
+                dos.writeShort(text.length);
+                dos.write(text);
+            } else {
+                dos.writeByte(ControlMessage.TYPE_INJECT_TOUCH_EVENT);
+                dos.writeByte(2);
+                dos.writeInt(0);
+                dos.writeInt(i);
+                dos.writeInt(i);
+                dos.writeShort(1080);
+                dos.writeShort(1920);
+                dos.writeInt(i);
+            }
+        }
+        return bos.toByteArray();
+    }
+
+    public static void main(String... args) throws IOException {
+        int readSize = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+        byte[] data = createStream();
+        LoopChannel channel = new LoopChannel(data, readSize);
+        ControlMessageReader reader = new ControlMessageReader();
+        List<ControlMessage> messages = new ArrayList<>();
+
+        for (int round = 0; round < 3; ++round) {
+            long start = System.nanoTime();
+            long count = 0;
+            long total = (long) MESSAGE_COUNT * ITERATIONS;
+            while (count < total) {
+                reader.readFrom(channel);
+                count += reader.drainTo(messages);
+                messages.clear();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            double mb = (double) data.length * ITERATIONS / (1024 * 1024);
+            System.out.printf("round %d: %.0f messages/s, %.1f MB/s (read size %d)%n", round, count / seconds, mb / seconds, readSize);
+        }
+    }
+}
@@ -10,8 +10,15 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 
 
 public class ControlMessageReaderTest {
@@ -111,6 +118,7 @@ public class ControlMessageReaderTest {
         dos.writeShort(1920);
         dos.writeInt(1);
         dos.writeInt(-1);
+        dos.writeInt(0); // client timestamp
 
         byte[] packet = bos.toByteArray();
 
@@ -132,14 +140,17 @@ public class ControlMessageReaderTest {
 
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
         DataOutputStream dos = new DataOutputStream(bos);
-        dos.writeByte(ControlMessage.TYPE_BACK_OR_SCREEN_ON);
+        dos.writeByte(ControlMessage.TYPE_COMMAND);
+        dos.writeByte(ControlMessage.COMMAND_BACK_OR_SCREEN_ON);
+        dos.writeInt(1234); // client timestamp
 
         byte[] packet = bos.toByteArray();
 
         reader.readFrom(new ByteArrayInputStream(packet));
         ControlMessage event = reader.next();
 
-        Assert.assertEquals(ControlMessage.TYPE_BACK_OR_SCREEN_ON, event.getType());
+        Assert.assertEquals(ControlMessage.TYPE_COMMAND, event.getType());
+        Assert.assertEquals(ControlMessage.COMMAND_BACK_OR_SCREEN_ON, event.getAction());
     }
 
     @Test
@@ -148,14 +159,17 @@ public class ControlMessageReaderTest {
 
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
         DataOutputStream dos = new DataOutputStream(bos);
-        dos.writeByte(ControlMessage.TYPE_EXPAND_NOTIFICATION_PANEL);
+        dos.writeByte(ControlMessage.TYPE_COMMAND);
+        dos.writeByte(ControlMessage.COMMAND_EXPAND_NOTIFICATION_PANEL);
+        dos.writeInt(1234); // client timestamp
 
         byte[] packet = bos.toByteArray();
 
         reader.readFrom(new ByteArrayInputStream(packet));
         ControlMessage event = reader.next();
 
-        Assert.assertEquals(ControlMessage.TYPE_EXPAND_NOTIFICATION_PANEL, event.getType());
+        Assert.assertEquals(ControlMessage.TYPE_COMMAND, event.getType());
+        Assert.assertEquals(ControlMessage.COMMAND_EXPAND_NOTIFICATION_PANEL, event.getAction());
     }
 
     @Test
@@ -164,14 +178,17 @@ public class ControlMessageReaderTest {
 
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
         DataOutputStream dos = new DataOutputStream(bos);
-        dos.writeByte(ControlMessage.TYPE_COLLAPSE_NOTIFICATION_PANEL);
+        dos.writeByte(ControlMessage.TYPE_COMMAND);
+        dos.writeByte(ControlMessage.COMMAND_COLLAPSE_NOTIFICATION_PANEL);
+        dos.writeInt(1234); // client timestamp
 
         byte[] packet = bos.toByteArray();
 
         reader.readFrom(new ByteArrayInputStream(packet));
         ControlMessage event = reader.next();
 
-        Assert.assertEquals(ControlMessage.TYPE_COLLAPSE_NOTIFICATION_PANEL, event.getType());
+        Assert.assertEquals(ControlMessage.TYPE_COMMAND, event.getType());
+        Assert.assertEquals(ControlMessage.COMMAND_COLLAPSE_NOTIFICATION_PANEL, event.getAction());
     }
 
     @Test
@@ -180,14 +197,146 @@ public class ControlMessageReaderTest {
 
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
         DataOutputStream dos = new DataOutputStream(bos);
-        dos.writeByte(ControlMessage.TYPE_GET_CLIPBOARD);
+        dos.writeByte(ControlMessage.TYPE_COMMAND);
+        dos.writeByte(ControlMessage.COMMAND_GET_CLIPBOARD);
+        dos.writeInt(1234); // client timestamp
 
         byte[] packet = bos.toByteArray();
 
         reader.readFrom(new ByteArrayInputStream(packet));
         ControlMessage event = reader.next();
 
-        Assert.assertEquals(ControlMessage.TYPE_GET_CLIPBOARD, event.getType());
+        Assert.assertEquals(ControlMessage.TYPE_COMMAND, event.getType());
+        Assert.assertEquals(ControlMessage.COMMAND_GET_CLIPBOARD, event.getAction());
+    }
+
+    @Test
+    public void testParseHeartbeat() throws IOException {
+        ControlMessageReader reader = new ControlMessageReader();
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeByte(ControlMessage.TYPE_HEARTBEAT);
+        dos.writeInt(0xfffffff0); // client timestamp, greater than Integer.MAX_VALUE
+        dos.writeInt(5000);
+        dos.writeInt(12);
+
+        byte[] packet = bos.toByteArray();
+
+        reader.readFrom(new ByteArrayInputStream(packet));
+        ControlMessage event = reader.next();
+
+        Assert.assertEquals(ControlMessage.TYPE_HEARTBEAT, event.getType());
+        Assert.assertEquals(0xfffffff0L, event.getClientTime());
+        Assert.assertEquals(5000, event.getEchoTime());
+        Assert.assertEquals(12, event.getEchoDelay());
+    }
+
+    @Test
+    public void testSequence() throws IOException {
+        ControlMessageReader reader = new ControlMessageReader();
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        for (int i = 0; i < 3; ++i) {
+            dos.writeByte(ControlMessage.TYPE_COMMAND);
+            dos.writeByte(ControlMessage.COMMAND_PING);
+            dos.writeInt(i);
+        }
+
+        byte[] packet = bos.toByteArray();
+
+        reader.readFrom(new ByteArrayInputStream(packet));
+        for (int i = 0; i < 3; ++i) {
+            ControlMessage event = reader.next();
+            Assert.assertEquals(i, event.getSequence());
+            Assert.assertEquals(i, event.getClientTime());
+        }
+        Assert.assertNull(reader.next());
+    }
+
+    @Test
+    public void testParseRecording() throws IOException {
+        ControlMessageReader reader = new ControlMessageReader();
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeByte(ControlMessage.TYPE_RECORDING);
+        dos.writeByte(ControlMessage.RECORDING_REPLAY);
+        byte[] path = "/data/local/tmp/scenario.scir".getBytes(StandardCharsets.UTF_8);
+        dos.writeShort(path.length);
+        dos.write(path);
+
+        byte[] packet = bos.toByteArray();
+
+        reader.readFrom(new ByteArrayInputStream(packet));
+        ControlMessage event = reader.next();
+
+        Assert.assertEquals(ControlMessage.TYPE_RECORDING, event.getType());
+        Assert.assertEquals(ControlMessage.RECORDING_REPLAY, event.getAction());
+        Assert.assertEquals("/data/local/tmp/scenario.scir", event.getText());
+    }
+
+    @Test
+    public void testParseReconfigure() throws IOException {
+        ControlMessageReader reader = new ControlMessageReader();
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeByte(ControlMessage.TYPE_RECONFIGURE);
+        dos.writeByte(Reconfiguration.FIELD_BIT_RATE | Reconfiguration.FIELD_CROP);
+        dos.writeInt(2000000);
+        dos.writeShort(1024);
+        dos.writeShort(0);
+        dos.writeShort(100); // crop x
+        dos.writeShort(200); // crop y
+        dos.writeShort(640); // crop width
+        dos.writeShort(480); // crop height
+
+        byte[] packet = bos.toByteArray();
+
+        reader.readFrom(new ByteArrayInputStream(packet));
+        ControlMessage event = reader.next();
+
+        Assert.assertEquals(ControlMessage.TYPE_RECONFIGURE, event.getType());
+        Reconfiguration reconfiguration = event.getReconfiguration();
+        Assert.assertTrue(reconfiguration.has(Reconfiguration.FIELD_BIT_RATE));
+        Assert.assertTrue(reconfiguration.has(Reconfiguration.FIELD_CROP));
+        Assert.assertFalse(reconfiguration.has(Reconfiguration.FIELD_MAX_SIZE));
+        Assert.assertEquals(2000000, reconfiguration.getBitRate());
+        Assert.assertEquals(100, reconfiguration.getCropX());
+        Assert.assertEquals(200, reconfiguration.getCropY());
+        Assert.assertEquals(640, reconfiguration.getCropWidth());
+        Assert.assertEquals(480, reconfiguration.getCropHeight());
+        Assert.assertTrue(reconfiguration.isValid());
+    }
+
+    @Test
+    public void testParseInvalidReconfigureEvent() throws IOException {
+        ControlMessageReader reader = new ControlMessageReader();
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeByte(ControlMessage.TYPE_RECONFIGURE);
+        dos.writeByte(Reconfiguration.FIELD_BIT_RATE | Reconfiguration.FIELD_MAX_FPS);
+        dos.writeInt(-1);
+        dos.writeShort(0);
+        dos.writeShort(0);
+        dos.writeShort(0);
+        dos.writeShort(0);
+        dos.writeShort(0);
+        dos.writeShort(0);
+
+        byte[] packet = bos.toByteArray();
+
+        reader.readFrom(new ByteArrayInputStream(packet));
+        ControlMessage event = reader.next();
+
+        // still delivered, so that the encoder replies with a failure
+        Reconfiguration reconfiguration = event.getReconfiguration();
+        Assert.assertFalse(reconfiguration.isValid());
+        // the server side fields may not be requested
+        Assert.assertFalse(reconfiguration.has(Reconfiguration.FIELD_MAX_FPS));
     }
 
     @Test
@@ -301,4 +450,193 @@ public class ControlMessageReaderTest {
         Assert.assertEquals(MotionEvent.BUTTON_PRIMARY, event.getKeycode());
         Assert.assertEquals(KeyEvent.META_CTRL_ON, event.getMetaState());
     }
+
+    @Test
+    public void testParseClipboardChunksFromPartialReads() throws IOException {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 2000; ++i) {
+            builder.append("line ").append(i).append(" héhé €\n");
+        }
+        String text = builder.toString();
+
+        // serialize the chunks in a single stream
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        ClipboardChunker chunker = new ClipboardChunker(text, true);
+        byte[] chunk = new byte[ControlMessageReader.CLIPBOARD_CHUNK_MAX_LENGTH];
+        do {
+            int len = chunker.nextChunk(chunk);
+            dos.writeByte(ControlMessage.TYPE_CLIPBOARD_CHUNK);
+            dos.writeByte(chunker.getFlags());
+            dos.writeShort(len);
+            dos.write(chunk, 0, len);
+        } while (!chunker.isFinished());
+        byte[] packet = bos.toByteArray();
+
+        // deliver the stream in pieces, split at arbitrary positions
+        final ByteArrayInputStream input = new ByteArrayInputStream(packet);
+        InputStream partialInput = new InputStream() {
+            private int step = 1;
+
+            @Override
+            public int read() {
+                return input.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                step = step * 7 % 1031 + 1;
+                return input.read(b, off, Math.min(len, step));
+            }
+        };
+        ControlMessageReader reader = new ControlMessageReader();
+        ClipboardAssembler assembler = new ClipboardAssembler();
+        String result = null;
+        while (input.available() > 0) {
+            reader.readFrom(partialInput);
+            ControlMessage event;
+            while ((event = reader.next()) != null) {
+                Assert.assertEquals(ControlMessage.TYPE_CLIPBOARD_CHUNK, event.getType());
+                Assert.assertNull(result);
+                result = assembler.accept(event.getAction(), event.getData(), 0, event.getData().length);
+            }
+        }
+
+        Assert.assertEquals(text, result);
+    }
+
+    /**
+     * Channel returning the data in random fragments.
+     */
+    private static final class FragmentedChannel implements ReadableByteChannel {
+        private final byte[] data;
+        private final Random random;
+        private final int maxFragment;
+        private int offset;
+
+        FragmentedChannel(byte[] data, long seed, int maxFragment) {
+            this.data = data;
+            this.random = new Random(seed);
+            this.maxFragment = maxFragment;
+        }
+
+        boolean hasRemaining() {
+            return offset < data.length;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (offset == data.length) {
+                return -1;
+            }
+            int len = Math.min(Math.min(dst.remaining(), data.length - offset), 1 + random.nextInt(maxFragment));
+            dst.put(data, offset, len);
+            offset += len;
+            return len;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static byte[] createMixedStream(int count, String longText) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        for (int i = 0; i < count; ++i) {
+            dos.writeByte(ControlMessage.TYPE_INJECT_TOUCH_EVENT);
+            dos.writeByte(MotionEvent.ACTION_MOVE);
+            dos.writeInt(i % ControlMessage.MAX_FINGERS);
+            dos.writeInt(i);
+            dos.writeInt(-i);
+            dos.writeShort(1080);
+            dos.writeShort(1920);
+            dos.writeInt(i);
+
+            dos.writeByte(ControlMessage.TYPE_INJECT_TEXT);
+            byte[] text = ("text " + i + " é").getBytes(StandardCharsets.UTF_8);
+            dos.writeShort(text.length);
+            dos.write(text);
+
+            if (i % 10 == 0) {
+                // much larger than the initial buffer
+                dos.writeByte(ControlMessage.TYPE_SET_CLIPBOARD);
+                byte[] clipboard = longText.getBytes(StandardCharsets.UTF_8);
+                dos.writeShort(clipboard.length);
+                dos.write(clipboard);
+            }
+        }
+        return bos.toByteArray();
+    }
+
+    private static String createLongText() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 5000; ++i) {
+            builder.append(i % 10);
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void testParseRandomlyFragmentedStream() throws IOException {
+        String longText = createLongText();
+        int count = 200;
+        byte[] data = createMixedStream(count, longText);
+
+        for (long seed = 0; seed < 10; ++seed) {
+            ControlMessageReader reader = new ControlMessageReader();
+            FragmentedChannel channel = new FragmentedChannel(data, seed, seed % 2 == 0 ? 7 : 3000);
+            List<ControlMessage> messages = new ArrayList<>();
+            while (channel.hasRemaining()) {
+                reader.readFrom(channel);
+                reader.drainTo(messages);
+            }
+
+            Assert.assertEquals(count * 2 + count / 10, messages.size());
+            int index = 0;
+            for (int i = 0; i < count; ++i) {
+                ControlMessage touch = messages.get(index++);
+                Assert.assertEquals(ControlMessage.TYPE_INJECT_TOUCH_EVENT, touch.getType());
+                Assert.assertEquals(i % ControlMessage.MAX_FINGERS, touch.getFingerId());
+                Assert.assertEquals(i, touch.getPosition().getPoint().getX());
+                Assert.assertEquals(-i, touch.getPosition().getPoint().getY());
+                Assert.assertEquals(i, touch.getClientTime());
+                Assert.assertEquals(index - 1, touch.getSequence());
+
+                ControlMessage text = messages.get(index++);
+                Assert.assertEquals(ControlMessage.TYPE_INJECT_TEXT, text.getType());
+                Assert.assertEquals("text " + i + " é", text.getText());
+
+                if (i % 10 == 0) {
+                    ControlMessage clipboard = messages.get(index++);
+                    Assert.assertEquals(ControlMessage.TYPE_SET_CLIPBOARD, clipboard.getType());
+                    Assert.assertEquals(longText, clipboard.getText());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDrainAllMessagesFromOneRead() throws IOException {
+        byte[] data = createMixedStream(3, "clipboard");
+        ControlMessageReader reader = new ControlMessageReader();
+        reader.readFrom(Channels.newChannel(new ByteArrayInputStream(data)));
+
+        List<ControlMessage> messages = new ArrayList<>();
+        Assert.assertEquals(7, reader.drainTo(messages));
+        Assert.assertEquals(7, messages.size());
+        Assert.assertNull(reader.next());
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnknownType() throws IOException {
+        ControlMessageReader reader = new ControlMessageReader();
+        reader.readFrom(new ByteArrayInputStream(new byte[] {(byte) 0xff, 0, 0}));
+        reader.next();
+    }
 }
@@ -0,0 +1,180 @@
+package com.genymobile.scrcpy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class DeviceMessageSenderTest {
+
+    private static final class FakeOutput implements DeviceMessageSender.Output {
+        private final List<List<DeviceMessage>> batches = new ArrayList<>();
+
+        @Override
+        public synchronized void send(List<DeviceMessage> messages) {
+            batches.add(new ArrayList<>(messages));
+            notifyAll();
+        }
+
+        synchronized List<DeviceMessage> awaitMessages(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (getAll().size() < count && System.currentTimeMillis() < deadline) {
+                wait(100);
+            }
+            return getAll();
+        }
+
+        synchronized List<DeviceMessage> getAll() {
+            List<DeviceMessage> all = new ArrayList<>();
+            for (List<DeviceMessage> batch : batches) {
+                all.addAll(batch);
+            }
+            return all;
+        }
+    }
+
+    private static Thread start(final DeviceMessageSender sender) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sender.loop();
+                } catch (IOException | InterruptedException e) {
+                    // stopped
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    public void testPriorityAndCoalescing() throws Exception {
+        FakeOutput output = new FakeOutput();
+        DeviceMessageSender sender = new DeviceMessageSender(output, false, false, new DeviceMessageSender.Clock() {
+            @Override
+            public long now() {
+                return 300;
+            }
+        });
+
+        // pushed before the sender thread runs, so that they are all pending together
+        sender.pushClipboardText("first");
+        sender.pushInjectAck(1, 10, 11, true);
+        sender.pushHeartbeat(100, 200);
+        sender.pushClipboardText("second");
+        sender.pushInjectAck(2, 12, 13, false);
+        sender.pushHeartbeat(101, 201);
+
+        Thread thread = start(sender);
+        List<DeviceMessage> messages = output.awaitMessages(4);
+        sender.stop();
+        thread.join();
+
+        Assert.assertEquals(4, messages.size());
+        // all in a single batch
+        Assert.assertEquals(1, output.batches.size());
+
+        DeviceMessage heartbeat = messages.get(0);
+        Assert.assertEquals(DeviceMessage.TYPE_HEARTBEAT, heartbeat.getType());
+        Assert.assertEquals(101, heartbeat.getClientTime());
+        Assert.assertEquals(201, heartbeat.getReceiveTime());
+        Assert.assertEquals(300, heartbeat.getSendTime());
+
+        Assert.assertEquals(DeviceMessage.TYPE_INJECT_ACK, messages.get(1).getType());
+        Assert.assertEquals(1, messages.get(1).getSequence());
+        Assert.assertEquals(DeviceMessage.TYPE_INJECT_ACK, messages.get(2).getType());
+        Assert.assertEquals(2, messages.get(2).getSequence());
+
+        Assert.assertEquals(DeviceMessage.TYPE_CLIPBOARD, messages.get(3).getType());
+        Assert.assertEquals("second", messages.get(3).getText());
+    }
+
+    @Test
+    public void testBounded() {
+        DeviceMessageSender sender = new DeviceMessageSender(new FakeOutput());
+        for (int i = 0; i < DeviceMessageSender.MAX_QUEUED_MESSAGES; ++i) {
+            Assert.assertTrue(sender.push(DeviceMessage.createInjectAck(i, 0, 0, true), DeviceMessageSender.PRIORITY_NORMAL, null));
+        }
+        Assert.assertFalse(sender.push(DeviceMessage.createInjectAck(0, 0, 0, true), DeviceMessageSender.PRIORITY_NORMAL, null));
+        // coalesced messages are never dropped
+        Assert.assertTrue(sender.push(DeviceMessage.createClipboard("text"), DeviceMessageSender.PRIORITY_LOW,
+                DeviceMessageSender.KEY_CLIPBOARD));
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        FakeOutput output = new FakeOutput();
+        final DeviceMessageSender sender = new DeviceMessageSender(output);
+        Thread thread = start(sender);
+
+        final int producerCount = 4;
+        final int messagesPerProducer = 500;
+        Thread[] producers = new Thread[producerCount];
+        for (int p = 0; p < producerCount; ++p) {
+            final int producer = p;
+            producers[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < messagesPerProducer; ++i) {
+                        sender.pushInjectAck(producer * messagesPerProducer + i, 0, 0, true);
+                    }
+                }
+            });
+            producers[p].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        List<DeviceMessage> messages = output.awaitMessages(producerCount * messagesPerProducer);
+        sender.stop();
+        thread.join();
+
+        Assert.assertEquals(producerCount * messagesPerProducer, messages.size());
+        // the order of each producer is preserved
+        long[] last = new long[producerCount];
+        Arrays.fill(last, -1);
+        for (DeviceMessage msg : messages) {
+            int producer = (int) (msg.getSequence() / messagesPerProducer);
+            Assert.assertTrue(msg.getSequence() > last[producer]);
+            last[producer] = msg.getSequence();
+        }
+        for (List<DeviceMessage> batch : output.batches) {
+            Assert.assertTrue(batch.size() <= DeviceMessageSender.MAX_BATCH_MESSAGES);
+        }
+    }
+
+    @Test
+    public void testClipboardChunksDoNotDelayHigherPriorities() throws Exception {
+        FakeOutput output = new FakeOutput();
+        DeviceMessageSender sender = new DeviceMessageSender(output, true, false);
+
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 10000; ++i) {
+            builder.append("line ").append(i).append('\n');
+        }
+        sender.pushClipboardText(builder.toString());
+        sender.pushInjectAck(1, 0, 0, true);
+
+        Thread thread = start(sender);
+        List<DeviceMessage> messages;
+        do {
+            messages = output.awaitMessages(2);
+        } while (messages.get(messages.size() - 1).getType() != DeviceMessage.TYPE_CLIPBOARD_CHUNK
+                || (messages.get(messages.size() - 1).getFlags() & ClipboardChunker.FLAG_LAST) == 0);
+        sender.stop();
+        thread.join();
+
+        Assert.assertEquals(DeviceMessage.TYPE_INJECT_ACK, messages.get(0).getType());
+        for (int i = 1; i < messages.size(); ++i) {
+            Assert.assertEquals(DeviceMessage.TYPE_CLIPBOARD_CHUNK, messages.get(i).getType());
+        }
+        // one chunk per batch
+        Assert.assertTrue(messages.size() > 2);
+        Assert.assertEquals(messages.size() - 1, output.batches.size());
+    }
+}
@@ -6,7 +6,13 @@ import org.junit.Test;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class DeviceMessageWriterTest {
 
@@ -26,10 +32,189 @@ public class DeviceMessageWriterTest {
 
         DeviceMessage msg = DeviceMessage.createClipboard(text);
         bos = new ByteArrayOutputStream();
-        writer.writeTo(msg, bos);
+        writer.writeTo(msg, Channels.newChannel(bos));
 
         byte[] actual = bos.toByteArray();
 
         Assert.assertArrayEquals(expected, actual);
     }
+
+    @Test
+    public void testSerializeHeartbeat() throws IOException {
+        DeviceMessageWriter writer = new DeviceMessageWriter();
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeByte(DeviceMessage.TYPE_HEARTBEAT);
+        dos.writeShort(12);
+        dos.writeInt(0xfffffff0);
+        dos.writeInt(1000);
+        dos.writeInt(1002);
+
+        byte[] expected = bos.toByteArray();
+
+        // device times are truncated to 32 bits
+        DeviceMessage msg = DeviceMessage.createHeartbeat(0xfffffff0L, 0x100000000L + 1000, 0x100000000L + 1002);
+        bos = new ByteArrayOutputStream();
+        writer.writeTo(msg, Channels.newChannel(bos));
+
+        byte[] actual = bos.toByteArray();
+
+        Assert.assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void testSerializeInjectAck() throws IOException {
+        DeviceMessageWriter writer = new DeviceMessageWriter();
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeByte(DeviceMessage.TYPE_INJECT_ACK);
+        dos.writeShort(13);
+        dos.writeInt(42);
+        dos.writeInt(1000);
+        dos.writeInt(1003);
+        dos.writeByte(1);
+
+        byte[] expected = bos.toByteArray();
+
+        DeviceMessage msg = DeviceMessage.createInjectAck(42, 1000, 1003, true);
+        bos = new ByteArrayOutputStream();
+        writer.writeTo(msg, Channels.newChannel(bos));
+
+        byte[] actual = bos.toByteArray();
+
+        Assert.assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void testSerializeReconfigured() throws IOException {
+        DeviceMessageWriter writer = new DeviceMessageWriter();
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeByte(DeviceMessage.TYPE_RECONFIGURED);
+        dos.writeShort(12);
+        dos.writeByte(Reconfiguration.FIELD_MAX_SIZE);
+        dos.writeByte(1);
+        dos.writeInt(8000000);
+        dos.writeShort(1024);
+        dos.writeShort(576);
+        dos.writeShort(5);
+
+        byte[] expected = bos.toByteArray();
+
+        DeviceMessage msg = DeviceMessage.createReconfigured(Reconfiguration.FIELD_MAX_SIZE, true, 8000000, new Size(1024, 576), 5);
+        bos = new ByteArrayOutputStream();
+        writer.writeTo(msg, Channels.newChannel(bos));
+
+        byte[] actual = bos.toByteArray();
+
+        Assert.assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void testSerializeClipboardChunk() throws IOException {
+        DeviceMessageWriter writer = new DeviceMessageWriter();
+
+        byte[] data = {1, 2, 3, 4, 5, 6};
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeByte(DeviceMessage.TYPE_CLIPBOARD_CHUNK);
+        dos.writeShort(5); // flags + data
+        dos.writeByte(ClipboardChunker.FLAG_LAST);
+        dos.write(data, 0, 4);
+
+        byte[] expected = bos.toByteArray();
+
+        // only the first 4 bytes of the buffer belong to the chunk
+        DeviceMessage msg = DeviceMessage.createClipboardChunk(ClipboardChunker.FLAG_LAST, data, 4);
+        bos = new ByteArrayOutputStream();
+        writer.writeTo(msg, Channels.newChannel(bos));
+
+        byte[] actual = bos.toByteArray();
+
+        Assert.assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void testSerializeTruncatedClipboard() throws IOException {
+        DeviceMessageWriter writer = new DeviceMessageWriter();
+
+        // "é" is 2 bytes in UTF-8: the text can not be truncated exactly at 4093 bytes
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 3000; ++i) {
+            builder.append('é');
+        }
+        String text = builder.toString();
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        writer.writeTo(DeviceMessage.createClipboard(text), Channels.newChannel(bos));
+        byte[] actual = bos.toByteArray();
+
+        Assert.assertEquals(3 + 4092, actual.length);
+        Assert.assertEquals(DeviceMessage.TYPE_CLIPBOARD, actual[0]);
+        Assert.assertEquals(4092, ((actual[1] & 0xff) << 8) | (actual[2] & 0xff));
+        String truncated = new String(actual, 3, 4092, StandardCharsets.UTF_8);
+        Assert.assertEquals(text.substring(0, 2046), truncated);
+    }
+
+    @Test
+    public void testSerializeMultipleMessages() throws IOException {
+        DeviceMessageWriter writer = new DeviceMessageWriter();
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        List<DeviceMessage> messages = new ArrayList<>();
+        byte[] text = "héhé".getBytes(StandardCharsets.UTF_8);
+        // more than the writer buffer can hold at once
+        for (int i = 0; i < 100; ++i) {
+            messages.add(DeviceMessage.createInjectAck(i, 1000, 1001, false));
+            dos.writeByte(DeviceMessage.TYPE_INJECT_ACK);
+            dos.writeShort(13);
+            dos.writeInt(i);
+            dos.writeInt(1000);
+            dos.writeInt(1001);
+            dos.writeByte(0);
+
+            messages.add(DeviceMessage.createClipboard("héhé"));
+            dos.writeByte(DeviceMessage.TYPE_CLIPBOARD);
+            dos.writeShort(text.length);
+            dos.write(text);
+
+            byte[] chunk = new byte[DeviceMessageWriter.CLIPBOARD_CHUNK_MAX_LENGTH];
+            Arrays.fill(chunk, (byte) i);
+            messages.add(DeviceMessage.createClipboardChunk(0, chunk, chunk.length));
+            dos.writeByte(DeviceMessage.TYPE_CLIPBOARD_CHUNK);
+            dos.writeShort(chunk.length + 1);
+            dos.writeByte(0);
+            dos.write(chunk);
+        }
+        byte[] expected = bos.toByteArray();
+
+        // a channel accepting only part of the data on each write
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WritableByteChannel channel = new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) {
+                int len = Math.min(src.remaining(), 1500);
+                for (int i = 0; i < len; ++i) {
+                    out.write(src.get());
+                }
+                return len;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        writer.writeTo(messages, channel);
+
+        Assert.assertArrayEquals(expected, out.toByteArray());
+    }
 }
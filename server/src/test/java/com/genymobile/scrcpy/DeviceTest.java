@@ -0,0 +1,67 @@
+package com.genymobile.scrcpy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DeviceTest {
+
+    private static VideoConstraints constraints(final int alignment, final int maxWidth, final int maxHeight) {
+        return new VideoConstraints() {
+            @Override
+            public int getWidthAlignment() {
+                return alignment;
+            }
+
+            @Override
+            public int getHeightAlignment() {
+                return alignment;
+            }
+
+            @Override
+            public boolean isSupported(int width, int height) {
+                return width % alignment == 0 && height % alignment == 0 && width <= maxWidth && height <= maxHeight;
+            }
+        };
+    }
+
+    @Test
+    public void testComputeVideoSizeWithoutConstraints() {
+        Assert.assertEquals(new Size(1080, 2336), Device.computeVideoSize(1080, 2340, 0, null));
+        Assert.assertEquals(new Size(600, 1296), Device.computeVideoSize(1080, 2340, 1296, null));
+    }
+
+    @Test
+    public void testComputeVideoSizeAlignment() {
+        Size size = Device.computeVideoSize(1080, 2340, 1296, constraints(16, 4096, 4096));
+        Assert.assertEquals(new Size(592, 1296), size);
+    }
+
+    @Test
+    public void testComputeVideoSizeReducedUntilSupported() {
+        // the native resolution is not supported in portrait
+        Size size = Device.computeVideoSize(1440, 3200, 0, constraints(16, 2048, 2048));
+        Assert.assertTrue(size.getHeight() <= 2048);
+        Assert.assertEquals(0, size.getWidth() % 16);
+        Assert.assertEquals(0, size.getHeight() % 16);
+        // the aspect ratio is kept (to the alignment)
+        Assert.assertEquals(1440.0 / 3200, (double) size.getWidth() / size.getHeight(), 0.02);
+    }
+
+    @Test
+    public void testComputeVideoSizeNothingSupported() {
+        Size size = Device.computeVideoSize(1080, 2340, 0, constraints(8, 100, 100));
+        // the smallest size of the ladder
+        Assert.assertTrue(Math.max(size.getWidth(), size.getHeight()) < 400);
+    }
+
+    @Test
+    public void testSizeLadder() {
+        Assert.assertEquals(1536, Device.getSmallerMaxSize(1920));
+        int steps = 0;
+        for (int major = Device.getSmallerMaxSize(2340); major != 0; major = Device.getSmallerMaxSize(major)) {
+            Assert.assertEquals(0, major % 8);
+            ++steps;
+        }
+        Assert.assertTrue(steps < 10);
+    }
+}
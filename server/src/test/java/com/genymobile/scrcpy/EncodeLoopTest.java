@@ -0,0 +1,194 @@
+package com.genymobile.scrcpy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class EncodeLoopTest {
+
+    private static final long TIMEOUT_US = 500_000;
+
+    private long now;
+
+    private final EncodeLoop.Clock clock = new EncodeLoop.Clock() {
+        @Override
+        public long now() {
+            return now;
+        }
+    };
+
+    private final List<FakeCodec> codecs = new ArrayList<>();
+
+    private final class FakeCodec implements EncodeLoop.Codec {
+        private final boolean hung;
+        private int pendingFrames;
+        private int releasedBuffers;
+        private int syncFrameRequests;
+        private boolean stopped;
+        private boolean released;
+
+        FakeCodec(boolean hung, int pendingFrames) {
+            this.hung = hung;
+            this.pendingFrames = pendingFrames;
+        }
+
+        @Override
+        public int dequeueOutputBuffer(long timeoutUs) {
+            if (!hung && pendingFrames > 0) {
+                --pendingFrames;
+                return 0;
+            }
+            // wait until the timeout
+            now += timeoutUs / 1000;
+            return -1; // INFO_TRY_AGAIN_LATER
+        }
+
+        @Override
+        public void releaseOutputBuffer(int index) {
+            ++releasedBuffers;
+        }
+
+        @Override
+        public void requestSyncFrame() {
+            ++syncFrameRequests;
+        }
+
+        @Override
+        public void stop() {
+            stopped = true;
+        }
+
+        @Override
+        public void release() {
+            released = true;
+        }
+    }
+
+    /**
+     * Create a hung codec first, then healthy codecs.
+     */
+    private EncodeLoop.Factory<FakeCodec> createFactory(final boolean firstHung) {
+        return new EncodeLoop.Factory<FakeCodec>() {
+            @Override
+            public FakeCodec create() {
+                FakeCodec codec = new FakeCodec(firstHung && codecs.isEmpty(), 3);
+                codecs.add(codec);
+                return codec;
+            }
+        };
+    }
+
+    /**
+     * Handle the given number of dequeues per codec, then end the loop.
+     */
+    private static final class CountingHandler implements EncodeLoop.Handler<FakeCodec> {
+        private final int dequeues;
+        private int count;
+        private int frames;
+
+        CountingHandler(int dequeues) {
+            this.dequeues = dequeues;
+        }
+
+        @Override
+        public boolean beforeDequeue(FakeCodec codec) {
+            return true;
+        }
+
+        @Override
+        public boolean onDequeued(FakeCodec codec, int index) {
+            if (index >= 0) {
+                ++frames;
+            }
+            return ++count < dequeues;
+        }
+    }
+
+    @Test
+    public void testStallRebuildsCodec() throws IOException {
+        EncoderWatchdog watchdog = new EncoderWatchdog(60, 60); // 1 second
+        EncodeLoop<FakeCodec> loop = new EncodeLoop<>(watchdog, clock);
+        CountingHandler handler = new CountingHandler(4);
+        loop.run(createFactory(true), handler, TIMEOUT_US);
+
+        Assert.assertEquals(2, codecs.size());
+        FakeCodec stalled = codecs.get(0);
+        // a stalled codec may block in stop()
+        Assert.assertFalse(stalled.stopped);
+        Assert.assertTrue(stalled.released);
+        Assert.assertEquals(0, stalled.syncFrameRequests);
+
+        FakeCodec rebuilt = codecs.get(1);
+        Assert.assertEquals(1, rebuilt.syncFrameRequests);
+        Assert.assertEquals(3, rebuilt.releasedBuffers);
+        Assert.assertTrue(rebuilt.stopped);
+        Assert.assertTrue(rebuilt.released);
+
+        Assert.assertEquals(1, watchdog.getRecoveryCount());
+        Assert.assertEquals(3, handler.frames);
+    }
+
+    @Test
+    public void testHealthyCodecIsNotRebuilt() throws IOException {
+        EncoderWatchdog watchdog = new EncoderWatchdog(60, 60);
+        EncodeLoop<FakeCodec> loop = new EncodeLoop<>(watchdog, clock);
+        loop.run(createFactory(false), new CountingHandler(3), TIMEOUT_US);
+
+        Assert.assertEquals(1, codecs.size());
+        Assert.assertTrue(codecs.get(0).stopped);
+        Assert.assertTrue(codecs.get(0).released);
+        Assert.assertEquals(0, codecs.get(0).syncFrameRequests);
+        Assert.assertEquals(0, watchdog.getRecoveryCount());
+    }
+
+    @Test
+    public void testStaticScreenIsNotStalled() throws IOException {
+        EncoderWatchdog watchdog = new EncoderWatchdog(60, 60);
+        EncodeLoop<FakeCodec> loop = new EncodeLoop<>(watchdog, clock);
+        // 3 frames, then no frame for 10 seconds without display activity
+        loop.run(createFactory(false), new CountingHandler(23), TIMEOUT_US);
+
+        Assert.assertEquals(1, codecs.size());
+        Assert.assertEquals(0, watchdog.getRecoveryCount());
+    }
+
+    @Test
+    public void testStallDisabled() throws IOException {
+        EncodeLoop<FakeCodec> loop = new EncodeLoop<>(null, clock);
+        loop.run(createFactory(true), new CountingHandler(10), TIMEOUT_US);
+
+        Assert.assertEquals(1, codecs.size());
+        Assert.assertTrue(codecs.get(0).stopped);
+    }
+
+    @Test
+    public void testExceptionReleasesWithoutStop() {
+        EncodeLoop<FakeCodec> loop = new EncodeLoop<>(null, clock);
+        EncodeLoop.Handler<FakeCodec> handler = new EncodeLoop.Handler<FakeCodec>() {
+            @Override
+            public boolean beforeDequeue(FakeCodec codec) {
+                return true;
+            }
+
+            @Override
+            public boolean onDequeued(FakeCodec codec, int index) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        };
+        try {
+            loop.run(createFactory(false), handler, TIMEOUT_US);
+            Assert.fail();
+        } catch (IOException e) {
+            // expected
+        }
+
+        FakeCodec codec = codecs.get(0);
+        Assert.assertFalse(codec.stopped);
+        Assert.assertTrue(codec.released);
+        // the dequeued buffer is released anyway
+        Assert.assertEquals(1, codec.releasedBuffers);
+    }
+}
@@ -0,0 +1,66 @@
+package com.genymobile.scrcpy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class EncoderBenchmarkTest {
+
+    private static final int FRAME_RATE = 60;
+
+    @Test
+    public void testSelectLowestLatency() {
+        List<EncoderBenchmark.Result> results = Arrays.asList(
+                new EncoderBenchmark.Result("c2.android.avc.encoder", 60, 25, 500_000),
+                new EncoderBenchmark.Result("c2.vendor.avc.encoder", 59, 8, 700_000),
+                new EncoderBenchmark.Result("c2.vendor.avc.encoder.low", 58, 12, 400_000));
+        Assert.assertEquals("c2.vendor.avc.encoder", EncoderBenchmark.selectBest(results, FRAME_RATE).getName());
+    }
+
+    @Test
+    public void testSelectFastEnough() {
+        // the lowest latency does not matter if the encoder drops frames
+        List<EncoderBenchmark.Result> results = Arrays.asList(
+                new EncoderBenchmark.Result("slow", 30, 5, 300_000),
+                new EncoderBenchmark.Result("fast", 60, 20, 500_000));
+        Assert.assertEquals("fast", EncoderBenchmark.selectBest(results, FRAME_RATE).getName());
+
+        // none is fast enough: the fastest
+        results = Arrays.asList(
+                new EncoderBenchmark.Result("slower", 20, 5, 300_000),
+                new EncoderBenchmark.Result("slow", 30, 30, 300_000));
+        Assert.assertEquals("slow", EncoderBenchmark.selectBest(results, FRAME_RATE).getName());
+    }
+
+    @Test
+    public void testSelectSmallerOutputOnSameLatency() {
+        List<EncoderBenchmark.Result> results = Arrays.asList(
+                new EncoderBenchmark.Result("big", 60, 10.2, 900_000),
+                new EncoderBenchmark.Result("small", 60, 10.6, 400_000));
+        Assert.assertEquals("small", EncoderBenchmark.selectBest(results, FRAME_RATE).getName());
+    }
+
+    @Test
+    public void testSelectNone() {
+        Assert.assertNull(EncoderBenchmark.selectBest(new ArrayList<EncoderBenchmark.Result>(), FRAME_RATE));
+    }
+
+    @Test
+    public void testCache() throws IOException {
+        File file = File.createTempFile("encoder", ".txt");
+        try {
+            EncoderBenchmark.writeCache(file, "vendor/device:12/build", "c2.vendor.avc.encoder");
+            Assert.assertEquals("c2.vendor.avc.encoder", EncoderBenchmark.readCache(file, "vendor/device:12/build"));
+            // the system was updated
+            Assert.assertNull(EncoderBenchmark.readCache(file, "vendor/device:13/build"));
+        } finally {
+            file.delete();
+        }
+        Assert.assertNull(EncoderBenchmark.readCache(file, "vendor/device:12/build"));
+    }
+}
@@ -0,0 +1,50 @@
+package com.genymobile.scrcpy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EncoderStatsTest {
+
+    @Test
+    public void testMeanAndVariance() {
+        EncoderStats stats = new EncoderStats();
+        int[] sizes = {2, 4, 4, 4, 5, 5, 7, 9};
+        for (int size : sizes) {
+            stats.add(size, false);
+        }
+        Assert.assertEquals(8, stats.getFrameCount());
+        Assert.assertEquals(40, stats.getTotalBytes());
+        Assert.assertEquals(9, stats.getMaxSize());
+        Assert.assertEquals(5.0, stats.getMean(), 1e-9);
+        Assert.assertEquals(4.0, stats.getVariance(), 1e-9);
+        Assert.assertEquals(2.0, stats.getStandardDeviation(), 1e-9);
+    }
+
+    @Test
+    public void testKeyFramesIncreaseVariance() {
+        // same total size: periodic key frames vs evenly spread intra refresh
+        EncoderStats keyFrames = new EncoderStats();
+        EncoderStats intraRefresh = new EncoderStats();
+        for (int i = 0; i < 300; ++i) {
+            boolean key = i % 60 == 0;
+            keyFrames.add(key ? 50000 : 5000, key);
+            intraRefresh.add(5750, false);
+        }
+        Assert.assertEquals(keyFrames.getTotalBytes(), intraRefresh.getTotalBytes());
+        Assert.assertEquals(5, keyFrames.getKeyFrameCount());
+        Assert.assertEquals(0, intraRefresh.getVariance(), 1e-9);
+        Assert.assertTrue(keyFrames.getStandardDeviation() > 5000);
+    }
+
+    @Test
+    public void testReset() {
+        EncoderStats stats = new EncoderStats();
+        stats.add(1000, true);
+        stats.add(3000, false);
+        stats.reset();
+        Assert.assertEquals(0, stats.getFrameCount());
+        Assert.assertEquals(0, stats.getVariance(), 0);
+        stats.add(42, false);
+        Assert.assertEquals(42, stats.getMean(), 1e-9);
+    }
+}
@@ -0,0 +1,73 @@
+package com.genymobile.scrcpy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EncoderWatchdogTest {
+
+    private final EncoderWatchdog watchdog = new EncoderWatchdog(60, 60);
+
+    @Test
+    public void testTimeout() {
+        Assert.assertEquals(1000, watchdog.getTimeoutMs());
+        Assert.assertEquals(2000, new EncoderWatchdog(60, 30).getTimeoutMs());
+    }
+
+    @Test
+    public void testNotStalledBeforeStart() {
+        Assert.assertFalse(watchdog.isStalled(60_000));
+    }
+
+    @Test
+    public void testStalledAfterStart() {
+        // the first frame is expected
+        watchdog.onStart(1000);
+        Assert.assertFalse(watchdog.isStalled(1999));
+        Assert.assertTrue(watchdog.isStalled(2000));
+    }
+
+    @Test
+    public void testStaticScreenIsNotStalled() {
+        watchdog.onStart(1000);
+        watchdog.onOutput();
+        // no activity, no frame expected
+        Assert.assertFalse(watchdog.isStalled(60_000));
+    }
+
+    @Test
+    public void testTimeoutFromFirstActivity() {
+        watchdog.onStart(0);
+        watchdog.onOutput();
+        watchdog.onActivity(5000);
+        // a later activity does not postpone the timeout
+        watchdog.onActivity(5500);
+        Assert.assertFalse(watchdog.isStalled(5999));
+        Assert.assertTrue(watchdog.isStalled(6000));
+    }
+
+    @Test
+    public void testOutputResetsTimeout() {
+        watchdog.onStart(0);
+        watchdog.onOutput();
+        watchdog.onActivity(5000);
+        watchdog.onOutput();
+        Assert.assertFalse(watchdog.isStalled(10_000));
+        // the timeout runs from the next activity
+        watchdog.onActivity(10_000);
+        Assert.assertFalse(watchdog.isStalled(10_999));
+        Assert.assertTrue(watchdog.isStalled(11_000));
+    }
+
+    @Test
+    public void testRecovery() {
+        watchdog.onStart(0);
+        Assert.assertTrue(watchdog.isStalled(1000));
+        watchdog.onRecovery();
+        // the rebuilt codec is expected to produce a frame again
+        watchdog.onStart(1500);
+        Assert.assertFalse(watchdog.isStalled(2000));
+        watchdog.onOutput();
+        Assert.assertFalse(watchdog.isStalled(10_000));
+        Assert.assertEquals(1, watchdog.getRecoveryCount());
+    }
+}
@@ -0,0 +1,58 @@
+package com.genymobile.scrcpy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FrameShedderTest {
+
+    private static final int FRAME_RATE = 60;
+    private static final long SLOW_WRITE_US = 40_000;
+    private static final long FAST_WRITE_US = 500;
+
+    @Test
+    public void testNoCongestion() {
+        FrameShedder shedder = new FrameShedder(3, FRAME_RATE);
+        for (int i = 0; i < 100; ++i) {
+            Assert.assertFalse(shedder.shouldDrop(i % 3));
+            shedder.onWritten(FAST_WRITE_US);
+        }
+        Assert.assertEquals(0, shedder.getDroppedFrames());
+    }
+
+    @Test
+    public void testShedUpperLayersButNeverTheBase() {
+        FrameShedder shedder = new FrameShedder(3, FRAME_RATE);
+        shedder.onWritten(SLOW_WRITE_US);
+        Assert.assertTrue(shedder.shouldDrop(2));
+        Assert.assertFalse(shedder.shouldDrop(1));
+
+        shedder.onWritten(SLOW_WRITE_US);
+        shedder.onWritten(SLOW_WRITE_US);
+        shedder.onWritten(SLOW_WRITE_US);
+        Assert.assertEquals(2, shedder.getShedLayers());
+        Assert.assertTrue(shedder.shouldDrop(1));
+        Assert.assertFalse(shedder.shouldDrop(0));
+        Assert.assertEquals(2, shedder.getDroppedFrames());
+    }
+
+    @Test
+    public void testRestoreProgressively() {
+        FrameShedder shedder = new FrameShedder(3, FRAME_RATE);
+        shedder.onWritten(SLOW_WRITE_US);
+        shedder.onWritten(SLOW_WRITE_US);
+        for (int i = 0; i < 30; ++i) {
+            shedder.onWritten(FAST_WRITE_US);
+        }
+        Assert.assertEquals(1, shedder.getShedLayers());
+        // a slow write in between restarts the count
+        for (int i = 0; i < 29; ++i) {
+            shedder.onWritten(FAST_WRITE_US);
+        }
+        shedder.onWritten(SLOW_WRITE_US);
+        Assert.assertEquals(2, shedder.getShedLayers());
+        for (int i = 0; i < 60; ++i) {
+            shedder.onWritten(FAST_WRITE_US);
+        }
+        Assert.assertEquals(0, shedder.getShedLayers());
+    }
+}
@@ -0,0 +1,48 @@
+package com.genymobile.scrcpy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HeartbeatTest {
+
+    private static final long WRAP = 1L << 32;
+
+    /**
+     * Report an echo with a round-trip time of 20 ms, for a client clock at {@code deviceTime - offset}, truncated to 32 bits.
+     */
+    private static Heartbeat report(long receiveTime, long offset) {
+        Heartbeat heartbeat = new Heartbeat(null, false);
+        long clientTime = (receiveTime - 10 - offset) & 0xFFFFFFFFL;
+        heartbeat.onReport(clientTime, receiveTime - 30, 10, receiveTime);
+        return heartbeat;
+    }
+
+    @Test
+    public void testRttAndClockOffset() {
+        Heartbeat heartbeat = report(100_000, 5000);
+        Assert.assertEquals(20, heartbeat.getRtt());
+        Assert.assertEquals(5000, heartbeat.getClockOffset());
+    }
+
+    @Test
+    public void testClockOffsetWhenDeviceTimeExceeds32Bits() {
+        Heartbeat heartbeat = report(3 * WRAP + 3000, 5000);
+        Assert.assertEquals(20, heartbeat.getRtt());
+        Assert.assertEquals(5000, heartbeat.getClockOffset());
+    }
+
+    @Test
+    public void testClockOffsetWhenClientTimeWrapped() {
+        // the client time wrapped, the device time did not
+        Heartbeat heartbeat = report(WRAP - 1000, -5000);
+        Assert.assertEquals(20, heartbeat.getRtt());
+        Assert.assertEquals(-5000, heartbeat.getClockOffset());
+    }
+
+    @Test
+    public void testNoEcho() {
+        Heartbeat heartbeat = new Heartbeat(null, false);
+        heartbeat.onReport(1000, 0, 0, 2000);
+        Assert.assertEquals(-1, heartbeat.getRtt());
+    }
+}
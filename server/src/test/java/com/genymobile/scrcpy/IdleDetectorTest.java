@@ -0,0 +1,131 @@
+package com.genymobile.scrcpy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IdleDetectorTest {
+
+    private static final int BIT_RATE = 8_000_000;
+    private static final int FRAME_RATE = 60;
+    private static final int REPEATED_FRAME = 200;
+    private static final int CHANGED_FRAME = 20_000;
+
+    private final IdleDetector detector = new IdleDetector(BIT_RATE, FRAME_RATE);
+    private long now = 10_000;
+
+    private int frame(int size) {
+        return frame(size, false);
+    }
+
+    private int frame(int size, boolean keyFrame) {
+        now += 1000 / FRAME_RATE;
+        return detector.onFrame(now, size, keyFrame);
+    }
+
+    private void suspend() {
+        for (int i = 1; i < IdleDetector.REFINEMENT_FRAMES; ++i) {
+            Assert.assertEquals(IdleDetector.ACTION_NONE, frame(REPEATED_FRAME));
+        }
+        Assert.assertEquals(IdleDetector.ACTION_SUSPEND, frame(REPEATED_FRAME));
+        Assert.assertTrue(detector.isIdle());
+    }
+
+    @Test
+    public void testSuspendAfterRefinementBurst() {
+        Assert.assertEquals(IdleDetector.ACTION_NONE, frame(CHANGED_FRAME));
+        suspend();
+    }
+
+    @Test
+    public void testMotionIsNotIdle() {
+        for (int i = 0; i < 100; ++i) {
+            Assert.assertEquals(IdleDetector.ACTION_NONE, frame(i % 5 == 0 ? REPEATED_FRAME : CHANGED_FRAME));
+        }
+        Assert.assertFalse(detector.isIdle());
+    }
+
+    @Test
+    public void testNotIdleDuringInput() {
+        detector.onInput(now);
+        for (int i = 0; i < IdleDetector.REFINEMENT_FRAMES * 2; ++i) {
+            // the frames during INPUT_QUIET_MS after the input do not suspend
+            Assert.assertEquals(IdleDetector.ACTION_NONE, frame(REPEATED_FRAME));
+        }
+        now += IdleDetector.INPUT_QUIET_MS;
+        Assert.assertEquals(IdleDetector.ACTION_SUSPEND, frame(REPEATED_FRAME));
+    }
+
+    @Test
+    public void testResumeOnInput() {
+        suspend();
+        // the frames posted while suspended were dropped
+        Assert.assertEquals(IdleDetector.ACTION_RESUME_SYNC, detector.onInput(now));
+        Assert.assertFalse(detector.isIdle());
+        // already resumed
+        Assert.assertEquals(IdleDetector.ACTION_NONE, detector.onInput(now));
+    }
+
+    @Test
+    public void testProbe() {
+        suspend();
+        Assert.assertEquals(IdleDetector.ACTION_NONE, detector.onTick(now + IdleDetector.PROBE_INTERVAL_MS / 2));
+        now += IdleDetector.PROBE_INTERVAL_MS;
+        Assert.assertEquals(IdleDetector.ACTION_RESUME, detector.onTick(now));
+
+        // still static: suspend again
+        Assert.assertEquals(IdleDetector.ACTION_SUSPEND, frame(REPEATED_FRAME));
+        Assert.assertTrue(detector.isIdle());
+
+        // no frame at all during the probe: suspend again
+        now += IdleDetector.PROBE_INTERVAL_MS;
+        Assert.assertEquals(IdleDetector.ACTION_RESUME, detector.onTick(now));
+        now += IdleDetector.PROBE_INTERVAL_MS;
+        Assert.assertEquals(IdleDetector.ACTION_SUSPEND, detector.onTick(now));
+
+        // the screen changed
+        now += IdleDetector.PROBE_INTERVAL_MS;
+        Assert.assertEquals(IdleDetector.ACTION_RESUME, detector.onTick(now));
+        Assert.assertEquals(IdleDetector.ACTION_NONE, frame(CHANGED_FRAME));
+        Assert.assertFalse(detector.isIdle());
+    }
+
+    @Test
+    public void testSyncProbe() {
+        suspend();
+        for (int i = 1; i < IdleDetector.SYNC_PROBES; ++i) {
+            now += IdleDetector.PROBE_INTERVAL_MS;
+            Assert.assertEquals(IdleDetector.ACTION_RESUME, detector.onTick(now));
+            Assert.assertEquals(IdleDetector.ACTION_SUSPEND, frame(REPEATED_FRAME));
+        }
+        now += IdleDetector.PROBE_INTERVAL_MS;
+        Assert.assertEquals(IdleDetector.ACTION_RESUME_SYNC, detector.onTick(now));
+        // the requested key frame does not end the idle period, the next frame decides
+        Assert.assertEquals(IdleDetector.ACTION_NONE, frame(CHANGED_FRAME, true));
+        Assert.assertTrue(detector.isIdle());
+        Assert.assertEquals(IdleDetector.ACTION_SUSPEND, frame(REPEATED_FRAME));
+    }
+
+    @Test
+    public void testIdleTime() {
+        suspend();
+        now += 5_000;
+        Assert.assertEquals(5_000, detector.getIdleTime(now));
+        detector.onInput(now);
+        now += 1_000;
+        Assert.assertEquals(5_000, detector.getIdleTime(now));
+        Assert.assertEquals(1, detector.getIdlePeriods());
+
+        suspend();
+        now += 2_000;
+        Assert.assertEquals(7_000, detector.getIdleTime(now));
+    }
+
+    @Test
+    public void testRestartEndsIdle() {
+        suspend();
+        now += 1_000;
+        detector.onStart(now);
+        Assert.assertFalse(detector.isIdle());
+        Assert.assertEquals(1_000, detector.getIdleTime(now));
+    }
+}
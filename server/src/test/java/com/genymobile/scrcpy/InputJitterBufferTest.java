@@ -0,0 +1,155 @@
+package com.genymobile.scrcpy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class InputJitterBufferTest {
+
+    private static final class FakeClock implements InputJitterBuffer.Clock {
+        private long now;
+
+        @Override
+        public long now() {
+            return now;
+        }
+    }
+
+    private static final class Recorder implements InputJitterBuffer.Injector {
+        private final FakeClock clock;
+        private final List<ControlMessage> messages = new ArrayList<>();
+        private final List<Long> eventTimes = new ArrayList<>();
+        private final List<Long> injectionTimes = new ArrayList<>();
+
+        Recorder(FakeClock clock) {
+            this.clock = clock;
+        }
+
+        @Override
+        public void inject(ControlMessage msg, long eventTime) {
+            messages.add(msg);
+            eventTimes.add(eventTime);
+            injectionTimes.add(clock.now());
+        }
+    }
+
+    private static ControlMessage createMove(long clientTime) {
+        return ControlMessage.createInjectTouchEvent(2, 0, null, clientTime); // MotionEvent.ACTION_MOVE
+    }
+
+    @Test
+    public void testClumpedEventsReleasedAtOriginalSpacing() {
+        FakeClock clock = new FakeClock();
+        Recorder recorder = new Recorder(clock);
+        InputJitterBuffer buffer = new InputJitterBuffer(recorder, clock);
+        ClockSync clockSync = new ClockSync();
+
+        // a move every 8 ms, received in clumps every 40 ms
+        final int count = 500;
+        final long offset = 100000;
+        List<ControlMessage> sent = new ArrayList<>();
+        List<Long> arrivals = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            long clientTime = 1000 + 8 * i;
+            sent.add(createMove(clientTime));
+            long deviceTime = offset + clientTime + 5;
+            arrivals.add(deviceTime + (40 - deviceTime % 40) % 40);
+        }
+
+        int next = 0;
+        for (clock.now = offset; recorder.messages.size() < count; ++clock.now) {
+            while (next < count && arrivals.get(next) == clock.now) {
+                ControlMessage msg = sent.get(next++);
+                clockSync.addSample(msg.getClientTime(), clock.now);
+                long mapped = clockSync.toDeviceTime(msg.getClientTime(), clock.now);
+                buffer.push(msg, msg.getClientTime(), mapped, clock.now);
+            }
+            buffer.releaseDue();
+        }
+
+        Assert.assertEquals(sent, recorder.messages);
+        for (int i = 1; i < count; ++i) {
+            Assert.assertTrue(recorder.eventTimes.get(i) >= recorder.eventTimes.get(i - 1));
+            Assert.assertEquals(recorder.eventTimes.get(i), recorder.injectionTimes.get(i));
+        }
+        // once the delay has adapted, the original spacing is restored
+        for (int i = count - 100; i < count; ++i) {
+            Assert.assertEquals(8, recorder.eventTimes.get(i) - recorder.eventTimes.get(i - 1));
+        }
+        Assert.assertTrue(buffer.getDelay() >= 32);
+    }
+
+    @Test
+    public void testFlushPendingEvents() {
+        FakeClock clock = new FakeClock();
+        Recorder recorder = new Recorder(clock);
+        InputJitterBuffer buffer = new InputJitterBuffer(recorder, clock);
+
+        ControlMessage down = ControlMessage.createInjectTouchEvent(0, 0, null, 0); // MotionEvent.ACTION_DOWN
+        ControlMessage up = ControlMessage.createInjectTouchEvent(1, 0, null, 20); // MotionEvent.ACTION_UP
+        clock.now = 1000;
+        // not due yet
+        buffer.push(down, 0, 1050, 1000);
+        buffer.push(up, 20, 1070, 1000);
+        Assert.assertEquals(0, buffer.releaseDue());
+
+        Assert.assertEquals(2, buffer.flush());
+        Assert.assertEquals(2, recorder.messages.size());
+        Assert.assertSame(down, recorder.messages.get(0));
+        Assert.assertSame(up, recorder.messages.get(1));
+        Assert.assertEquals(1000, (long) recorder.eventTimes.get(1));
+        Assert.assertEquals(0, buffer.flush());
+    }
+
+    @Test
+    public void testNoJitterNoDelay() {
+        FakeClock clock = new FakeClock();
+        Recorder recorder = new Recorder(clock);
+        InputJitterBuffer buffer = new InputJitterBuffer(recorder, clock);
+
+        for (int i = 0; i < 100; ++i) {
+            clock.now = 5000 + 10 * i;
+            long clientTime = 10 * i;
+            buffer.push(createMove(clientTime), clientTime, clock.now, clock.now);
+            Assert.assertEquals(1, buffer.releaseDue());
+        }
+        Assert.assertEquals(0, buffer.getDelay());
+    }
+
+    @Test
+    public void testLateEventReleasedImmediately() {
+        FakeClock clock = new FakeClock();
+        Recorder recorder = new Recorder(clock);
+        InputJitterBuffer buffer = new InputJitterBuffer(recorder, clock);
+
+        clock.now = 1000;
+        buffer.push(createMove(0), 0, 1000, 1000);
+        Assert.assertEquals(1, buffer.releaseDue());
+
+        // received 200 ms later than expected, far beyond any delay
+        clock.now = 1210;
+        long releaseTime = buffer.push(createMove(10), 10, 1010, 1210);
+        Assert.assertEquals(1210, releaseTime);
+        Assert.assertEquals(1, buffer.releaseDue());
+    }
+
+    @Test
+    public void testReleaseTimesNeverGoBackwards() {
+        FakeClock clock = new FakeClock();
+        Recorder recorder = new Recorder(clock);
+        InputJitterBuffer buffer = new InputJitterBuffer(recorder, clock);
+
+        long previous = Long.MIN_VALUE;
+        for (int i = 0; i < 200; ++i) {
+            long clientTime = 10 * i;
+            // alternate large and small jitter, so that the delay increases then decreases
+            long jitter = i < 100 ? (i % 2) * 60 : 0;
+            clock.now = 1000 + clientTime + jitter;
+            long releaseTime = buffer.push(createMove(clientTime), clientTime, 1000 + clientTime, clock.now);
+            Assert.assertTrue(releaseTime >= previous);
+            previous = releaseTime;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.genymobile.scrcpy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+public class InputRecorderTest {
+
+    private static byte[] createTouchEvent(int x, int y) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeByte(ControlMessage.TYPE_INJECT_TOUCH_EVENT);
+        dos.writeByte(2); // MotionEvent.ACTION_MOVE
+        dos.writeInt(0); // finger id
+        dos.writeInt(x);
+        dos.writeInt(y);
+        dos.writeShort(1080);
+        dos.writeShort(1920);
+        dos.writeInt(123456); // client timestamp
+        return bos.toByteArray();
+    }
+
+    private static byte[] createPing() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeByte(ControlMessage.TYPE_COMMAND);
+        dos.writeByte(ControlMessage.COMMAND_PING);
+        dos.writeInt(123456);
+        return bos.toByteArray();
+    }
+
+    private static ControlMessage parse(ControlMessageReader reader, byte[] data) throws IOException {
+        reader.readFrom(new ByteArrayInputStream(data));
+        return reader.next();
+    }
+
+    @Test
+    public void testFileFormat() throws IOException {
+        byte[] touch1 = createTouchEvent(100, 200);
+        byte[] ping = createPing();
+        byte[] touch2 = createTouchEvent(110, 220);
+
+        ControlMessageReader reader = new ControlMessageReader();
+        reader.setCaptureRaw(true);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputRecorder recorder = new InputRecorder(out);
+
+        ControlMessage msg = parse(reader, touch1);
+        Assert.assertTrue(InputRecorder.isRecordable(msg));
+        recorder.record(msg, 5000);
+
+        msg = parse(reader, ping);
+        Assert.assertFalse(InputRecorder.isRecordable(msg));
+
+        msg = parse(reader, touch2);
+        recorder.record(msg, 5016);
+        recorder.close();
+
+        Assert.assertEquals(2, recorder.getCount());
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeBytes("SCIR");
+        dos.writeByte(1); // version
+        dos.writeInt(0); // time of the first record
+        dos.writeShort(touch1.length);
+        dos.write(touch1);
+        dos.writeInt(16);
+        dos.writeShort(touch2.length);
+        dos.write(touch2);
+
+        Assert.assertArrayEquals(bos.toByteArray(), out.toByteArray());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRecordWithoutRawData() throws IOException {
+        ControlMessageReader reader = new ControlMessageReader();
+        ControlMessage msg = parse(reader, createTouchEvent(100, 200));
+
+        InputRecorder recorder = new InputRecorder(new ByteArrayOutputStream());
+        recorder.record(msg, 0);
+    }
+}
@@ -0,0 +1,102 @@
+package com.genymobile.scrcpy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class InputReplayerTest {
+
+    /**
+     * Clock which oversleeps randomly, like a real thread.
+     */
+    private static final class FakeClock implements InputReplayer.Clock {
+        private final Random random = new Random(42);
+        private long now = 1000000;
+
+        @Override
+        public long now() {
+            return now;
+        }
+
+        @Override
+        public void sleepUntil(long time) {
+            now = Math.max(now, time) + random.nextInt(5);
+        }
+    }
+
+    private static final class Recorder implements InputReplayer.Injector {
+        private final List<ControlMessage> messages = new ArrayList<>();
+        private final List<Long> eventTimes = new ArrayList<>();
+
+        @Override
+        public void inject(ControlMessage msg, long eventTime) {
+            messages.add(msg);
+            eventTimes.add(eventTime);
+        }
+    }
+
+    private static byte[] record(long[] times) throws IOException {
+        ControlMessageReader reader = new ControlMessageReader();
+        reader.setCaptureRaw(true);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputRecorder recorder = new InputRecorder(out);
+        for (int i = 0; i < times.length; ++i) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(bos);
+            dos.writeByte(ControlMessage.TYPE_INJECT_SCROLL_EVENT);
+            dos.writeInt(i); // x
+            dos.writeInt(0); // y
+            dos.writeShort(1080);
+            dos.writeShort(1920);
+            dos.writeInt(0); // hScroll
+            dos.writeInt(-1); // vScroll
+            dos.writeInt(0); // client timestamp
+            reader.readFrom(new ByteArrayInputStream(bos.toByteArray()));
+            recorder.record(reader.next(), times[i]);
+        }
+        recorder.close();
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testReplayTiming() throws IOException, InterruptedException {
+        // irregular spacing, as recorded from a real gesture
+        long[] times = new long[200];
+        Random random = new Random(1);
+        long t = 50000;
+        for (int i = 0; i < times.length; ++i) {
+            t += 4 + random.nextInt(20);
+            times[i] = t;
+        }
+        byte[] recording = record(times);
+
+        FakeClock clock = new FakeClock();
+        long start = clock.now;
+        Recorder injector = new Recorder();
+        InputReplayer replayer = new InputReplayer(injector, clock);
+        int count = replayer.replay(new ByteArrayInputStream(recording));
+
+        Assert.assertEquals(times.length, count);
+        for (int i = 0; i < times.length; ++i) {
+            ControlMessage msg = injector.messages.get(i);
+            Assert.assertEquals(ControlMessage.TYPE_INJECT_SCROLL_EVENT, msg.getType());
+            Assert.assertEquals(i, msg.getPosition().getPoint().getX());
+            // the scheduling delays do not accumulate
+            Assert.assertEquals(start + times[i] - times[0], (long) injector.eventTimes.get(i));
+            Assert.assertTrue(msg.getReceiveTime() >= injector.eventTimes.get(i));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidFile() throws IOException, InterruptedException {
+        InputReplayer replayer = new InputReplayer(new Recorder(), new FakeClock());
+        replayer.replay(new ByteArrayInputStream(new byte[] {'n', 'o', 'p', 'e', 1}));
+    }
+}
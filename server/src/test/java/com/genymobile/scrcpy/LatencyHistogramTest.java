@@ -0,0 +1,46 @@
+package com.genymobile.scrcpy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBuckets() {
+        Assert.assertEquals(0, LatencyHistogram.getBucket(0));
+        Assert.assertEquals(1, LatencyHistogram.getBucket(1));
+        Assert.assertEquals(2, LatencyHistogram.getBucket(2));
+        Assert.assertEquals(2, LatencyHistogram.getBucket(3));
+        Assert.assertEquals(3, LatencyHistogram.getBucket(4));
+        Assert.assertEquals(10, LatencyHistogram.getBucket(1000));
+        Assert.assertEquals(63, LatencyHistogram.getBucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram("ms");
+        Assert.assertEquals(-1, histogram.getPercentile(50));
+
+        for (int i = 0; i < 90; ++i) {
+            histogram.add(3);
+        }
+        for (int i = 0; i < 9; ++i) {
+            histogram.add(20);
+        }
+        histogram.add(100);
+
+        Assert.assertEquals(100, histogram.getCount());
+        Assert.assertEquals(3, histogram.getPercentile(50));
+        Assert.assertEquals(3, histogram.getPercentile(90));
+        Assert.assertEquals(31, histogram.getPercentile(99));
+        Assert.assertEquals(100, histogram.getPercentile(100));
+        Assert.assertEquals("100 samples, mean 5 ms, min 3, p50 <= 3, p90 <= 3, p99 <= 31, max 100", histogram.toString());
+    }
+
+    @Test
+    public void testNegativeIgnored() {
+        LatencyHistogram histogram = new LatencyHistogram("ms");
+        histogram.add(-1);
+        Assert.assertEquals(0, histogram.getCount());
+    }
+}
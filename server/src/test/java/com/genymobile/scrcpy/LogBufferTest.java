@@ -0,0 +1,121 @@
+package com.genymobile.scrcpy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class LogBufferTest {
+
+    private static final class Collector implements LogBuffer.Consumer {
+        private final List<String> messages = new ArrayList<>();
+
+        @Override
+        public void accept(Ln.Level level, String message, Throwable throwable) {
+            messages.add(message);
+        }
+    }
+
+    @Test
+    public void testDrainInOrder() {
+        LogBuffer buffer = new LogBuffer(4);
+        Collector collector = new Collector();
+
+        Assert.assertTrue(buffer.isEmpty());
+        Assert.assertTrue(buffer.offer(Ln.Level.INFO, "a", null));
+        Assert.assertTrue(buffer.offer(Ln.Level.WARN, "b", null));
+        Assert.assertFalse(buffer.isEmpty());
+
+        Assert.assertEquals(2, buffer.drainTo(collector));
+        Assert.assertTrue(buffer.isEmpty());
+        Assert.assertEquals(0, buffer.drainTo(collector));
+
+        // wrap around
+        for (int i = 0; i < 4; ++i) {
+            Assert.assertTrue(buffer.offer(Ln.Level.DEBUG, "c" + i, null));
+        }
+        Assert.assertEquals(4, buffer.drainTo(collector));
+
+        List<String> expected = new ArrayList<>();
+        expected.add("a");
+        expected.add("b");
+        for (int i = 0; i < 4; ++i) {
+            expected.add("c" + i);
+        }
+        Assert.assertEquals(expected, collector.messages);
+        Assert.assertEquals(0, buffer.getDroppedCount());
+    }
+
+    @Test
+    public void testDropWhenFull() {
+        LogBuffer buffer = new LogBuffer(2);
+        Assert.assertTrue(buffer.offer(Ln.Level.INFO, "a", null));
+        Assert.assertTrue(buffer.offer(Ln.Level.INFO, "b", null));
+        Assert.assertFalse(buffer.offer(Ln.Level.INFO, "c", null));
+        Assert.assertFalse(buffer.offer(Ln.Level.INFO, "d", null));
+        Assert.assertEquals(2, buffer.getDroppedCount());
+
+        Collector collector = new Collector();
+        Assert.assertEquals(2, buffer.drainTo(collector));
+        Assert.assertTrue(buffer.offer(Ln.Level.INFO, "e", null));
+        Assert.assertEquals(1, buffer.drainTo(collector));
+        Assert.assertEquals("[a, b, e]", collector.messages.toString());
+    }
+
+    @Test
+    @SuppressWarnings("checkstyle:MagicNumber")
+    public void testConcurrentProducers() throws InterruptedException {
+        final int producers = 4;
+        final int recordsPerProducer = 10000;
+        final LogBuffer buffer = new LogBuffer(256);
+
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; ++p) {
+            final String prefix = p + ":";
+            threads[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < recordsPerProducer; ++i) {
+                        while (!buffer.offer(Ln.Level.DEBUG, prefix + i, null)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+            threads[p].start();
+        }
+
+        final int[] next = new int[producers];
+        LogBuffer.Consumer checker = new LogBuffer.Consumer() {
+            @Override
+            public void accept(Ln.Level level, String message, Throwable throwable) {
+                String[] tokens = message.split(":");
+                int producer = Integer.parseInt(tokens[0]);
+                // the records of a producer are received in order
+                Assert.assertEquals(next[producer], Integer.parseInt(tokens[1]));
+                ++next[producer];
+            }
+        };
+
+        int total = 0;
+        while (total < producers * recordsPerProducer) {
+            total += buffer.drainTo(checker);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertTrue(buffer.isEmpty());
+        for (int p = 0; p < producers; ++p) {
+            Assert.assertEquals(recordsPerProducer, next[p]);
+        }
+    }
+
+    @Test
+    public void testFormat() {
+        Assert.assertEquals("a 1 b true", Ln.format("a {} b {}", 1, true));
+        Assert.assertEquals("no placeholder", Ln.format("no placeholder", 42));
+        Assert.assertEquals("missing {}", Ln.format("missing {}"));
+        Assert.assertEquals("null", Ln.format("{}", (Object) null));
+    }
+}
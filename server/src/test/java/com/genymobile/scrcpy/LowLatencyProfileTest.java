@@ -0,0 +1,60 @@
+package com.genymobile.scrcpy;
+
+import android.media.MediaFormat;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class LowLatencyProfileTest {
+
+    private static final String VENDOR_KEY = "vendor.qti-ext-enc-low-latency.enable";
+
+    @Test
+    public void testKeysBySdk() {
+        Assert.assertTrue(new LowLatencyProfile("OMX.google.h264.encoder", 21).isEmpty());
+
+        List<String> expected = Arrays.asList(MediaFormat.KEY_LATENCY, MediaFormat.KEY_PRIORITY, MediaFormat.KEY_OPERATING_RATE);
+        Assert.assertEquals(expected, new LowLatencyProfile("OMX.google.h264.encoder", 23).getKeyNames());
+
+        expected = Arrays.asList(MediaFormat.KEY_LATENCY, MediaFormat.KEY_PRIORITY, MediaFormat.KEY_MAX_B_FRAMES,
+                LowLatencyProfile.KEY_LOW_LATENCY, MediaFormat.KEY_OPERATING_RATE);
+        Assert.assertEquals(expected, new LowLatencyProfile("c2.android.avc.encoder", 30).getKeyNames());
+    }
+
+    @Test
+    public void testVendorKeyByCodec() {
+        Assert.assertTrue(new LowLatencyProfile("c2.qti.avc.encoder", 30).getKeyNames().contains(VENDOR_KEY));
+        Assert.assertTrue(new LowLatencyProfile("OMX.qcom.video.encoder.avc", 29).getKeyNames().contains(VENDOR_KEY));
+        Assert.assertFalse(new LowLatencyProfile("OMX.qcom.video.encoder.avc", 28).getKeyNames().contains(VENDOR_KEY));
+        Assert.assertFalse(new LowLatencyProfile("OMX.Exynos.AVC.Encoder", 30).getKeyNames().contains(VENDOR_KEY));
+    }
+
+    @Test
+    public void testDropLeastImportant() {
+        LowLatencyProfile profile = new LowLatencyProfile("c2.qti.avc.encoder", 30);
+        Assert.assertEquals(VENDOR_KEY, profile.dropLeastImportant());
+        Assert.assertEquals(MediaFormat.KEY_OPERATING_RATE, profile.dropLeastImportant());
+        Assert.assertEquals(LowLatencyProfile.KEY_LOW_LATENCY, profile.dropLeastImportant());
+        Assert.assertEquals(MediaFormat.KEY_MAX_B_FRAMES, profile.dropLeastImportant());
+        Assert.assertEquals(MediaFormat.KEY_PRIORITY, profile.dropLeastImportant());
+        Assert.assertFalse(profile.isEmpty());
+        Assert.assertEquals(MediaFormat.KEY_LATENCY, profile.dropLeastImportant());
+        Assert.assertTrue(profile.isEmpty());
+        Assert.assertTrue(profile.toString().startsWith("applied [], dropped [" + VENDOR_KEY + "=1"));
+    }
+
+    @Test
+    public void testRestoreDropped() {
+        LowLatencyProfile profile = new LowLatencyProfile("c2.qti.avc.encoder", 30);
+        List<String> keyNames = profile.getKeyNames();
+        profile.dropLeastImportant();
+        profile.dropLeastImportant();
+        profile.restoreDropped();
+        // in the same order
+        Assert.assertEquals(keyNames, profile.getKeyNames());
+        Assert.assertEquals(VENDOR_KEY, profile.dropLeastImportant());
+    }
+}
@@ -0,0 +1,61 @@
+package com.genymobile.scrcpy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ReconfigurationTest {
+
+    @Test
+    public void testMerge() {
+        Reconfiguration first = new Reconfiguration(Reconfiguration.FIELD_BIT_RATE | Reconfiguration.FIELD_CROP, 1000000, 0, 0, 0,
+                10, 20, 100, 50);
+        Reconfiguration second = new Reconfiguration(Reconfiguration.FIELD_BIT_RATE | Reconfiguration.FIELD_MAX_SIZE, 2000000, 800, 0, 0);
+
+        Reconfiguration merged = first.merge(second);
+        Assert.assertEquals(Reconfiguration.FIELD_BIT_RATE | Reconfiguration.FIELD_CROP | Reconfiguration.FIELD_MAX_SIZE,
+                merged.getFields());
+        // the most recent value wins
+        Assert.assertEquals(2000000, merged.getBitRate());
+        Assert.assertEquals(800, merged.getMaxSize());
+        // kept from the first one
+        Assert.assertEquals(10, merged.getCropX());
+        Assert.assertEquals(20, merged.getCropY());
+        Assert.assertEquals(100, merged.getCropWidth());
+        Assert.assertEquals(50, merged.getCropHeight());
+        Assert.assertFalse(merged.has(Reconfiguration.FIELD_I_FRAME_INTERVAL));
+    }
+
+    @Test
+    public void testLive() {
+        Assert.assertTrue(new Reconfiguration(Reconfiguration.FIELD_BIT_RATE, 1000000, 0, 0, 0).isLive());
+        Assert.assertFalse(new Reconfiguration(Reconfiguration.FIELD_BIT_RATE | Reconfiguration.FIELD_I_FRAME_INTERVAL, 1000000, 0, 1, 0)
+                .isLive());
+        Assert.assertFalse(new Reconfiguration(Reconfiguration.FIELD_CROP, 0, 0, 0, 0).isLive());
+        Assert.assertFalse(new Reconfiguration(Reconfiguration.FIELD_MAX_FPS, 0, 0, 0, 30).isLive());
+    }
+
+    @Test
+    public void testMergeMaxFps() {
+        Reconfiguration first = new Reconfiguration(Reconfiguration.FIELD_MAX_FPS, 0, 0, 0, 30);
+        Reconfiguration second = new Reconfiguration(Reconfiguration.FIELD_BIT_RATE, 2000000, 0, 0, 0);
+
+        Reconfiguration merged = first.merge(second);
+        Assert.assertEquals(30, merged.getMaxFps());
+        Assert.assertEquals(2000000, merged.getBitRate());
+        // lifting the limit
+        Assert.assertEquals(0, merged.merge(new Reconfiguration(Reconfiguration.FIELD_MAX_FPS, 0, 0, 0, 0)).getMaxFps());
+    }
+
+    @Test
+    public void testValidate() {
+        Assert.assertTrue(new Reconfiguration(Reconfiguration.FIELD_BIT_RATE, 1000000, 0, 0, 0).isValid());
+        Assert.assertFalse(new Reconfiguration(Reconfiguration.FIELD_BIT_RATE, -1, 0, 0, 0).isValid());
+        Assert.assertFalse(new Reconfiguration(Reconfiguration.FIELD_I_FRAME_INTERVAL, 0, 0, 0, 0).isValid());
+        Assert.assertTrue(new Reconfiguration(Reconfiguration.FIELD_I_FRAME_INTERVAL, 0, 0, 2, 0).isValid());
+        // an empty crop disables cropping
+        Assert.assertTrue(new Reconfiguration(Reconfiguration.FIELD_CROP, 0, 0, 0, 0).isValid());
+        Assert.assertFalse(new Reconfiguration(Reconfiguration.FIELD_CROP, 0, 0, 0, 0, 0, 0, 100, 0).isValid());
+        // the values of the fields not present are ignored
+        Assert.assertTrue(new Reconfiguration(Reconfiguration.FIELD_MAX_SIZE, -1, 800, 0, 0).isValid());
+    }
+}
@@ -0,0 +1,68 @@
+package com.genymobile.scrcpy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class SysfsThermalSourceTest {
+
+    private static File createDirectory() throws IOException {
+        File directory = File.createTempFile("thermal", "");
+        Assert.assertTrue(directory.delete());
+        Assert.assertTrue(directory.mkdir());
+        directory.deleteOnExit();
+        return directory;
+    }
+
+    private static void addZone(File directory, String name, String temp) throws IOException {
+        File zone = new File(directory, name);
+        Assert.assertTrue(zone.mkdir());
+        zone.deleteOnExit();
+        File file = new File(zone, "temp");
+        file.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(temp.getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    @Test
+    public void testHottestZone() throws IOException {
+        File directory = createDirectory();
+        addZone(directory, "thermal_zone0", "35000\n");
+        addZone(directory, "thermal_zone1", "72500\n");
+        addZone(directory, "cooling_device0", "90000\n");
+
+        SysfsThermalSource source = new SysfsThermalSource(directory);
+        Assert.assertEquals(2, source.getZoneCount());
+        Assert.assertEquals(ThermalSource.STATUS_MODERATE, source.getStatus());
+    }
+
+    @Test
+    public void testImplausibleValuesIgnored() throws IOException {
+        File directory = createDirectory();
+        // degrees instead of millidegrees
+        addZone(directory, "thermal_zone0", "45\n");
+        addZone(directory, "thermal_zone1", "-273000\n");
+        addZone(directory, "thermal_zone2", "999000\n");
+        addZone(directory, "thermal_zone3", "not ready\n");
+
+        Assert.assertEquals(ThermalSource.STATUS_NONE, new SysfsThermalSource(directory).getStatus());
+    }
+
+    @Test
+    public void testNoZone() throws IOException {
+        Assert.assertEquals(ThermalSource.STATUS_UNKNOWN, new SysfsThermalSource(createDirectory()).getStatus());
+    }
+
+    @Test
+    public void testToStatus() {
+        Assert.assertEquals(ThermalSource.STATUS_NONE, SysfsThermalSource.toStatus(59));
+        Assert.assertEquals(ThermalSource.STATUS_LIGHT, SysfsThermalSource.toStatus(60));
+        Assert.assertEquals(ThermalSource.STATUS_SEVERE, SysfsThermalSource.toStatus(85));
+        Assert.assertEquals(ThermalSource.STATUS_SHUTDOWN, SysfsThermalSource.toStatus(120));
+    }
+}
@@ -0,0 +1,69 @@
+package com.genymobile.scrcpy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class TemporalLayersTest {
+
+    private static ByteBuffer frame(int... bytes) {
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 2);
+        // the position is not necessarily 0
+        buffer.put((byte) 0xAA).put((byte) 0xAA);
+        for (int b : bytes) {
+            buffer.put((byte) b);
+        }
+        buffer.flip();
+        buffer.position(2);
+        return buffer;
+    }
+
+    @Test
+    public void testSchema() {
+        Assert.assertEquals("android.generic.2", new TemporalLayers(2).getSchema());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLayerCount() {
+        new TemporalLayers(1);
+    }
+
+    @Test
+    public void testLayerFromNalRefIdc() {
+        TemporalLayers layers = new TemporalLayers(3);
+        // SPS, PPS, IDR
+        Assert.assertEquals(0, layers.getLayer(frame(0, 0, 0, 1, 0x67, 0x42, 0, 0, 1, 0x68, 0xCE, 0, 0, 1, 0x65, 0x88, 0x84)));
+        // reference P slice (nal_ref_idc = 2)
+        Assert.assertEquals(0, layers.getLayer(frame(0, 0, 0, 1, 0x41, 0x9A, 0x12)));
+        // non-reference slice (nal_ref_idc = 0): nothing depends on it
+        Assert.assertEquals(2, layers.getLayer(frame(0, 0, 0, 1, 0x01, 0x9E, 0x12)));
+        // preceded by a SEI
+        ByteBuffer buffer = frame(0, 0, 1, 0x06, 0x05, 0x01, 0x80, 0, 0, 1, 0x01, 0x9E, 0x12);
+        Assert.assertEquals(2, layers.getLayer(buffer));
+        // the position is not changed
+        Assert.assertEquals(2, buffer.position());
+    }
+
+    @Test
+    public void testLayerFromPrefixNal() {
+        TemporalLayers layers = new TemporalLayers(3);
+        // prefix NAL unit with temporal_id = 1, then a reference slice
+        ByteBuffer buffer = frame(0, 0, 0, 1, 0x6E, 0x80, 0x00, 0x20 | 0x07, 0, 0, 0, 1, 0x41, 0x9A, 0x12);
+        Assert.assertEquals(1, layers.getLayer(buffer));
+        // temporal_id = 5, beyond the layer count
+        buffer = frame(0, 0, 0, 1, 0x6E, 0x80, 0x00, 0xA0, 0, 0, 0, 1, 0x41, 0x9A, 0x12);
+        Assert.assertEquals(2, layers.getLayer(buffer));
+    }
+
+    @Test
+    public void testPtsTag() {
+        long pts = 123_456_789L;
+        long tagged = TemporalLayers.tagPts(pts, 3);
+        Assert.assertEquals(3, TemporalLayers.getPtsLayer(tagged));
+        Assert.assertEquals(pts, tagged & ((1L << TemporalLayers.PTS_LAYER_SHIFT) - 1));
+        // never mistaken for NO_PTS
+        Assert.assertTrue(tagged > 0);
+        Assert.assertEquals(pts, TemporalLayers.tagPts(tagged, 0));
+    }
+}
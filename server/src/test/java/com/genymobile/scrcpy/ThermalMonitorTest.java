@@ -0,0 +1,114 @@
+package com.genymobile.scrcpy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ThermalMonitorTest {
+
+    private static final class FakeThermalSource implements ThermalSource {
+        private int status = STATUS_NONE;
+
+        @Override
+        public int getStatus() {
+            return status;
+        }
+    }
+
+    private final FakeThermalSource source = new FakeThermalSource();
+    private final List<Integer> levels = new ArrayList<>();
+    private final ThermalMonitor monitor = new ThermalMonitor(source, new int[] {ThermalSource.STATUS_LIGHT, ThermalSource.STATUS_MODERATE,
+            ThermalSource.STATUS_SEVERE}, new ThermalMonitor.Listener() {
+        @Override
+        public void onThrottleLevelChanged(int level, int status) {
+            levels.add(level);
+        }
+    });
+    private long now = 10_000;
+
+    private int poll(int status) {
+        source.status = status;
+        now += ThermalMonitor.POLL_INTERVAL_MS;
+        return monitor.poll(now);
+    }
+
+    @Test
+    public void testNoThrottleWhenCool() {
+        for (int i = 0; i < 10; ++i) {
+            Assert.assertEquals(ThermalMonitor.LEVEL_NONE, poll(ThermalSource.STATUS_NONE));
+        }
+        Assert.assertTrue(levels.isEmpty());
+    }
+
+    @Test
+    public void testStepDownImmediately() {
+        Assert.assertEquals(ThermalMonitor.LEVEL_FRAME_RATE, poll(ThermalSource.STATUS_LIGHT));
+        Assert.assertEquals(ThermalMonitor.LEVEL_BIT_RATE, poll(ThermalSource.STATUS_MODERATE));
+        // no level above the last one
+        Assert.assertEquals(ThermalMonitor.LEVEL_SIZE, poll(ThermalSource.STATUS_CRITICAL));
+        Assert.assertEquals(3, levels.size());
+    }
+
+    @Test
+    public void testJumpToLevel() {
+        Assert.assertEquals(ThermalMonitor.LEVEL_SIZE, poll(ThermalSource.STATUS_SEVERE));
+        Assert.assertEquals(1, levels.size());
+    }
+
+    @Test
+    public void testStepUpAfterCoolDown() {
+        poll(ThermalSource.STATUS_SEVERE);
+        long cooled = now;
+        // the status must stay low for the cool-down delay
+        while (now - cooled < ThermalMonitor.COOL_DOWN_MS) {
+            Assert.assertEquals(ThermalMonitor.LEVEL_SIZE, poll(ThermalSource.STATUS_NONE));
+        }
+        // then one level at a time
+        Assert.assertEquals(ThermalMonitor.LEVEL_BIT_RATE, poll(ThermalSource.STATUS_NONE));
+        Assert.assertEquals(ThermalMonitor.LEVEL_BIT_RATE, poll(ThermalSource.STATUS_NONE));
+        for (int i = 0; i < 20; ++i) {
+            poll(ThermalSource.STATUS_NONE);
+        }
+        Assert.assertEquals(ThermalMonitor.LEVEL_NONE, monitor.getLevel());
+        Assert.assertEquals(4, levels.size());
+    }
+
+    @Test
+    public void testWarmingAgainRestartsCoolDown() {
+        poll(ThermalSource.STATUS_MODERATE);
+        for (int i = 0; i < 4; ++i) {
+            poll(ThermalSource.STATUS_NONE);
+        }
+        Assert.assertEquals(ThermalMonitor.LEVEL_BIT_RATE, poll(ThermalSource.STATUS_MODERATE));
+        // the cool-down delay starts over
+        for (int i = 0; i < 4; ++i) {
+            Assert.assertEquals(ThermalMonitor.LEVEL_BIT_RATE, poll(ThermalSource.STATUS_NONE));
+        }
+        Assert.assertEquals(1, levels.size());
+    }
+
+    @Test
+    public void testUnknownStatusKeepsLevel() {
+        poll(ThermalSource.STATUS_MODERATE);
+        for (int i = 0; i < 20; ++i) {
+            Assert.assertEquals(ThermalMonitor.LEVEL_BIT_RATE, poll(ThermalSource.STATUS_UNKNOWN));
+        }
+    }
+
+    @Test
+    public void testParseThresholds() {
+        Assert.assertArrayEquals(new int[] {2, 3, 5}, ThermalMonitor.parseThresholds("2,3,5"));
+        // the missing thresholds follow the last one
+        Assert.assertArrayEquals(new int[] {2, 3, 4}, ThermalMonitor.parseThresholds("2"));
+        Assert.assertArrayEquals(new int[] {5, 6, 6}, ThermalMonitor.parseThresholds("5"));
+        Assert.assertArrayEquals(new int[] {3, 3, 4}, ThermalMonitor.parseThresholds("3,3"));
+
+        Assert.assertNull(ThermalMonitor.parseThresholds("0"));
+        Assert.assertNull(ThermalMonitor.parseThresholds("7"));
+        Assert.assertNull(ThermalMonitor.parseThresholds("3,2"));
+        Assert.assertNull(ThermalMonitor.parseThresholds("1,2,3,4"));
+        Assert.assertNull(ThermalMonitor.parseThresholds("light"));
+    }
+}
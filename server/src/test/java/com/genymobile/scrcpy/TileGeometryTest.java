@@ -0,0 +1,98 @@
+package com.genymobile.scrcpy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class TileGeometryTest {
+
+    private static List<TileGeometry.Tile> split(int contentWidth, int contentHeight, Size videoSize, int count) {
+        return TileGeometry.split(new Point(0, 0), new Size(contentWidth, contentHeight), videoSize, count);
+    }
+
+    private static boolean intersect(TileGeometry.Tile a, TileGeometry.Tile b) {
+        Point pa = a.getVideoOffset();
+        Point pb = b.getVideoOffset();
+        return pa.getX() < pb.getX() + b.getVideoSize().getWidth() && pb.getX() < pa.getX() + a.getVideoSize().getWidth()
+                && pa.getY() < pb.getY() + b.getVideoSize().getHeight() && pb.getY() < pa.getY() + a.getVideoSize().getHeight();
+    }
+
+    private static void assertCovers(List<TileGeometry.Tile> tiles, Size videoSize) {
+        long area = 0;
+        for (int i = 0; i < tiles.size(); ++i) {
+            TileGeometry.Tile tile = tiles.get(i);
+            Assert.assertEquals(i, tile.getId());
+            Point offset = tile.getVideoOffset();
+            Size size = tile.getVideoSize();
+            Assert.assertTrue(size.getWidth() > 0 && size.getHeight() > 0);
+            Assert.assertTrue(offset.getX() >= 0 && offset.getY() >= 0);
+            Assert.assertTrue(offset.getX() + size.getWidth() <= videoSize.getWidth());
+            Assert.assertTrue(offset.getY() + size.getHeight() <= videoSize.getHeight());
+            // the encoder needs multiples of 8
+            Assert.assertEquals(0, size.getWidth() % 8);
+            Assert.assertEquals(0, size.getHeight() % 8);
+            for (int j = 0; j < i; ++j) {
+                Assert.assertFalse(intersect(tile, tiles.get(j)));
+            }
+            area += (long) size.getWidth() * size.getHeight();
+        }
+        Assert.assertEquals((long) videoSize.getWidth() * videoSize.getHeight(), area);
+    }
+
+    @Test
+    public void testSingleTile() {
+        Size videoSize = new Size(1920, 1080);
+        List<TileGeometry.Tile> tiles = split(1920, 1080, videoSize, 1);
+        Assert.assertEquals(1, tiles.size());
+        Assert.assertEquals(new Point(0, 0), tiles.get(0).getVideoOffset());
+        Assert.assertEquals(videoSize, tiles.get(0).getVideoSize());
+    }
+
+    @Test
+    public void testTwoTilesAlongTheMajorAxis() {
+        List<TileGeometry.Tile> tiles = split(2560, 1600, new Size(2560, 1600), 2);
+        Assert.assertEquals(new Point(0, 0), tiles.get(0).getVideoOffset());
+        Assert.assertEquals(new Size(1280, 1600), tiles.get(0).getVideoSize());
+        Assert.assertEquals(new Point(1280, 0), tiles.get(1).getVideoOffset());
+        Assert.assertEquals(new Size(1280, 1600), tiles.get(1).getVideoSize());
+
+        // portrait
+        tiles = split(1600, 2560, new Size(1600, 2560), 2);
+        Assert.assertEquals(new Point(0, 0), tiles.get(0).getVideoOffset());
+        Assert.assertEquals(new Size(1600, 1280), tiles.get(0).getVideoSize());
+        Assert.assertEquals(new Point(0, 1280), tiles.get(1).getVideoOffset());
+        Assert.assertEquals(new Size(1600, 1280), tiles.get(1).getVideoSize());
+    }
+
+    @Test
+    public void testGrid() {
+        Assert.assertEquals(2, TileGeometry.selectColumns(3840, 2160, 4));
+        Assert.assertEquals(3, TileGeometry.selectColumns(3840, 2160, 6));
+        Assert.assertEquals(1, TileGeometry.selectColumns(1080, 2400, 2));
+
+        Size videoSize = new Size(3840, 2160);
+        assertCovers(split(3840, 2160, videoSize, 4), videoSize);
+        assertCovers(split(3840, 2160, videoSize, 6), videoSize);
+        // not a multiple of 16
+        videoSize = new Size(1448, 1080);
+        assertCovers(split(1448, 1080, videoSize, 3), videoSize);
+    }
+
+    @Test
+    public void testContentMapping() {
+        // a cropped and downscaled content
+        List<TileGeometry.Tile> tiles = TileGeometry.split(new Point(100, 200), new Size(2560, 1600), new Size(1280, 800), 4);
+        Assert.assertEquals(new Point(100, 200), tiles.get(0).getContentOffset());
+        Assert.assertEquals(new Size(1280, 800), tiles.get(0).getContentSize());
+        Assert.assertEquals(new Point(1380, 1000), tiles.get(3).getContentOffset());
+        Assert.assertEquals(new Size(1280, 800), tiles.get(3).getContentSize());
+        Assert.assertEquals(new Point(640, 400), tiles.get(3).getVideoOffset());
+        Assert.assertEquals(new Size(640, 400), tiles.get(3).getVideoSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCount() {
+        split(1920, 1080, new Size(1920, 1080), 0);
+    }
+}
@@ -0,0 +1,132 @@
+package com.genymobile.scrcpy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class TileMuxerTest {
+
+    private static final int FRAME_RATE = 60;
+    private static final long FRAME_INTERVAL_US = 1_000_000 / FRAME_RATE;
+
+    /**
+     * A synthetic encoder, writing a config packet then frames whose content identifies the tile and the frame.
+     */
+    private static Thread startEncoder(final TileMuxer muxer, final int tileId, final int frameCount, final long captureOffsetUs,
+                                       final AtomicReference<Throwable> error) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    muxer.writePacket(tileId, 0, true, ByteBuffer.wrap(new byte[] {0, 0, 0, 1, 0x67}));
+                    for (int i = 0; i < frameCount; ++i) {
+                        // various sizes, to interleave small and big writes
+                        byte[] data = new byte[10 + (i * 37 + tileId * 101) % 3000];
+                        for (int j = 0; j < data.length; ++j) {
+                            data[j] = (byte) (tileId * 16 + i);
+                        }
+                        // the tiles are captured at the same vsync, with a small jitter
+                        long captureTime = 1_000_000 + i * FRAME_INTERVAL_US + captureOffsetUs;
+                        muxer.writePacket(tileId, captureTime, false, ByteBuffer.wrap(data));
+                    }
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    public void testInterleaving() throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        TileMuxer muxer = new TileMuxer(Channels.newChannel(bos), FRAME_RATE);
+        List<TileGeometry.Tile> tiles = TileGeometry.split(new Point(0, 0), new Size(2560, 1600), new Size(2560, 1600), 4);
+        muxer.writeLayout(tiles);
+
+        // the first capture defines the origin of the shared PTS
+        muxer.writePacket(0, 1_000_000, false, ByteBuffer.wrap(new byte[] {0}));
+
+        int frameCount = 100;
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int tileId = 0; tileId < tiles.size(); ++tileId) {
+            threads.add(startEncoder(muxer, tileId, frameCount, tileId * 1000, error));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertNull(error.get());
+
+        ByteBuffer stream = ByteBuffer.wrap(bos.toByteArray());
+
+        // layout
+        Assert.assertEquals(TileMuxer.LAYOUT_ID, stream.get() & 0xff);
+        Assert.assertEquals(TileMuxer.NO_PTS, stream.getLong());
+        Assert.assertEquals(1 + 4 * 8, stream.getInt());
+        Assert.assertEquals(4, stream.get());
+        for (TileGeometry.Tile tile : tiles) {
+            Assert.assertEquals(tile.getVideoOffset().getX(), stream.getShort());
+            Assert.assertEquals(tile.getVideoOffset().getY(), stream.getShort());
+            Assert.assertEquals(tile.getVideoSize().getWidth(), stream.getShort());
+            Assert.assertEquals(tile.getVideoSize().getHeight(), stream.getShort());
+        }
+        // a 2x2 grid
+        Assert.assertEquals(new Point(1280, 800), tiles.get(3).getVideoOffset());
+        Assert.assertEquals(new Size(1280, 800), tiles.get(3).getVideoSize());
+
+        // origin packet
+        Assert.assertEquals(0, stream.get());
+        Assert.assertEquals(0, stream.getLong());
+        Assert.assertEquals(1, stream.getInt());
+        stream.get();
+
+        int[] nextFrame = new int[tiles.size()];
+        boolean[] configSeen = new boolean[tiles.size()];
+        while (stream.hasRemaining()) {
+            int tileId = stream.get() & 0xff;
+            long pts = stream.getLong();
+            int size = stream.getInt();
+            byte[] data = new byte[size];
+            stream.get(data);
+            if (pts == TileMuxer.NO_PTS) {
+                Assert.assertFalse(configSeen[tileId]);
+                configSeen[tileId] = true;
+                continue;
+            }
+            Assert.assertTrue(configSeen[tileId]);
+            // in order, never mixed with another packet
+            int frame = nextFrame[tileId]++;
+            for (byte b : data) {
+                Assert.assertEquals((byte) (tileId * 16 + frame), b);
+            }
+            // the same PTS for the same vsync, whatever the tile
+            Assert.assertEquals(frame * FRAME_INTERVAL_US, pts);
+        }
+        for (int count : nextFrame) {
+            Assert.assertEquals(frameCount, count);
+        }
+    }
+
+    @Test
+    public void testSharedPtsRounding() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        TileMuxer muxer = new TileMuxer(Channels.newChannel(bos), FRAME_RATE);
+        muxer.writePacket(1, 5_000_000, false, ByteBuffer.allocate(0));
+        // 3 frames later, slightly early
+        muxer.writePacket(0, 5_000_000 + 3 * FRAME_INTERVAL_US - 2000, false, ByteBuffer.allocate(0));
+        ByteBuffer stream = ByteBuffer.wrap(bos.toByteArray());
+        stream.position(1);
+        Assert.assertEquals(0, stream.getLong());
+        stream.position(TileMuxer.HEADER_LENGTH + 1);
+        Assert.assertEquals(3 * FRAME_INTERVAL_US, stream.getLong());
+    }
+}
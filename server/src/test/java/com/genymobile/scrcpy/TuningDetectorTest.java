@@ -0,0 +1,79 @@
+package com.genymobile.scrcpy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TuningDetectorTest {
+
+    private static final int BIT_RATE = 8_000_000;
+    private static final int FRAME_RATE = 60;
+
+    /**
+     * Feed frames at the given rate, and return the time of the first profile change (or -1).
+     */
+    private static long feed(TuningDetector detector, long start, long durationMs, int fps, int size, TuningProfile[] result) {
+        long interval = 1000 / fps;
+        for (long t = start; t < start + durationMs; t += interval) {
+            TuningProfile next = detector.onFrame(t, size);
+            if (next != null) {
+                result[0] = next;
+                return t;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void testStaticContentKeepsText() {
+        TuningDetector detector = new TuningDetector(BIT_RATE, FRAME_RATE, TuningProfile.TEXT, 0);
+        TuningProfile[] result = new TuningProfile[1];
+        // typing: a few significant frames per second
+        Assert.assertEquals(-1, feed(detector, 0, 60_000, 4, 8000, result));
+        // repeated frames are tiny, even at the full frame rate
+        Assert.assertEquals(-1, feed(detector, 60_000, 60_000, FRAME_RATE, 300, result));
+        Assert.assertEquals(TuningProfile.TEXT, detector.getCurrent());
+    }
+
+    @Test
+    public void testSwitchToMotionAndBack() {
+        TuningDetector detector = new TuningDetector(BIT_RATE, FRAME_RATE, TuningProfile.TEXT, 0);
+        TuningProfile[] result = new TuningProfile[1];
+
+        // a video: not before the minimal interval since the start
+        long t = feed(detector, 0, 30_000, FRAME_RATE, 15000, result);
+        Assert.assertEquals(TuningProfile.MOTION, result[0]);
+        Assert.assertTrue(t >= TuningDetector.MIN_SWITCH_INTERVAL_MS);
+        Assert.assertTrue(t < TuningDetector.MIN_SWITCH_INTERVAL_MS + TuningDetector.WINDOW_MS);
+
+        // a short pause does not switch back
+        long start = t + 1;
+        Assert.assertEquals(-1, feed(detector, start, 3_000, FRAME_RATE, 300, result));
+        Assert.assertEquals(-1, feed(detector, start + 3_000, 10_000, FRAME_RATE, 15000, result));
+
+        // a long pause does
+        start += 13_000;
+        t = feed(detector, start, 30_000, FRAME_RATE, 300, result);
+        Assert.assertEquals(TuningProfile.TEXT, result[0]);
+        Assert.assertTrue(t >= start + TuningDetector.STATIC_WINDOWS * TuningDetector.WINDOW_MS);
+    }
+
+    @Test
+    public void testNoFramesIsStatic() {
+        TuningDetector detector = new TuningDetector(BIT_RATE, FRAME_RATE, TuningProfile.MOTION, 0);
+        TuningProfile[] result = new TuningProfile[1];
+        Assert.assertEquals(-1, feed(detector, 0, 12_000, FRAME_RATE, 15000, result));
+        // the screen did not change for 20 seconds
+        Assert.assertEquals(TuningProfile.TEXT, detector.onFrame(32_000, 300));
+    }
+
+    @Test
+    public void testBitRateChangesTheBudget() {
+        TuningDetector detector = new TuningDetector(BIT_RATE, FRAME_RATE, TuningProfile.TEXT, 0);
+        TuningProfile[] result = new TuningProfile[1];
+        // 1500 bytes is not significant at 8 Mbps, it is at 1 Mbps
+        Assert.assertEquals(-1, feed(detector, 0, 20_000, FRAME_RATE, 1500, result));
+        detector.setBitRate(1_000_000, FRAME_RATE);
+        Assert.assertTrue(feed(detector, 20_000, 20_000, FRAME_RATE, 1500, result) != -1);
+        Assert.assertEquals(TuningProfile.MOTION, result[0]);
+    }
+}
@@ -0,0 +1,56 @@
+package com.genymobile.scrcpy;
+
+import android.media.MediaCodecInfo;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TuningProfileTest {
+
+    private static MediaCodecInfo.CodecProfileLevel profileLevel(int profile, int level) {
+        MediaCodecInfo.CodecProfileLevel profileLevel = new MediaCodecInfo.CodecProfileLevel();
+        profileLevel.profile = profile;
+        profileLevel.level = level;
+        return profileLevel;
+    }
+
+    @Test
+    public void testFromName() {
+        Assert.assertSame(TuningProfile.TEXT, TuningProfile.fromName("text"));
+        Assert.assertSame(TuningProfile.MOTION, TuningProfile.fromName("motion"));
+        Assert.assertNull(TuningProfile.fromName("auto"));
+    }
+
+    @Test
+    public void testSelectLevel() {
+        MediaCodecInfo.CodecProfileLevel[] profileLevels = {
+                profileLevel(MediaCodecInfo.CodecProfileLevel.AVCProfileBaseline, MediaCodecInfo.CodecProfileLevel.AVCLevel51),
+                profileLevel(MediaCodecInfo.CodecProfileLevel.AVCProfileHigh, MediaCodecInfo.CodecProfileLevel.AVCLevel31),
+                profileLevel(MediaCodecInfo.CodecProfileLevel.AVCProfileHigh, MediaCodecInfo.CodecProfileLevel.AVCLevel42),
+                profileLevel(MediaCodecInfo.CodecProfileLevel.AVCProfileHigh, MediaCodecInfo.CodecProfileLevel.AVCLevel4),
+        };
+        Assert.assertEquals(MediaCodecInfo.CodecProfileLevel.AVCLevel42, TuningProfile.TEXT.selectLevel(profileLevels));
+        Assert.assertEquals(MediaCodecInfo.CodecProfileLevel.AVCLevel51, TuningProfile.MOTION.selectLevel(profileLevels));
+
+        MediaCodecInfo.CodecProfileLevel[] baselineOnly = {
+                profileLevel(MediaCodecInfo.CodecProfileLevel.AVCProfileBaseline, MediaCodecInfo.CodecProfileLevel.AVCLevel31),
+        };
+        // the profile is not set at all
+        Assert.assertEquals(0, TuningProfile.TEXT.selectLevel(baselineOnly));
+    }
+
+    @Test
+    public void testSelectBitrateMode() {
+        int vbr = 1 << MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR;
+        int cbr = 1 << MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR;
+        Assert.assertEquals(MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR, TuningProfile.TEXT.selectBitrateMode(vbr | cbr));
+        Assert.assertEquals(MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR, TuningProfile.MOTION.selectBitrateMode(vbr | cbr));
+
+        // fallback to the other mode
+        Assert.assertEquals(MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR, TuningProfile.TEXT.selectBitrateMode(cbr));
+        Assert.assertEquals(MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR, TuningProfile.MOTION.selectBitrateMode(vbr));
+
+        // the mode is not set at all
+        Assert.assertEquals(-1, TuningProfile.TEXT.selectBitrateMode(0));
+    }
+}
@@ -0,0 +1,81 @@
+package com.genymobile.scrcpy.wrappers;
+
+import android.os.IBinder;
+import android.os.IInterface;
+
+import java.lang.reflect.Method;
+
+/**
+ * Compare direct calls with reflective calls on the host JVM, using a stub service in place of a binder proxy, run manually (it is not
+ * a unit test):
+ * <pre>
+ * java -cp ... com.genymobile.scrcpy.wrappers.DirectBinderBenchmark
+ * </pre>
+ */
+public final class DirectBinderBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 200_000;
+    private static final int ITERATIONS = 2_000_000;
+
+    private DirectBinderBenchmark() {
+        // not instantiable
+    }
+
+    public interface StubInputManager extends IInterface {
+        boolean injectInputEvent(Object event, int mode);
+    }
+
+    private static final class FakeInputManager implements StubInputManager {
+        @Override
+        public boolean injectInputEvent(Object event, int mode) {
+            return mode == 0;
+        }
+
+        @Override
+        public IBinder asBinder() {
+            return null;
+        }
+    }
+
+    public static void main(String... args) throws Exception {
+        IInterface binder = new FakeInputManager();
+        Method method = binder.getClass().getMethod("injectInputEvent", Object.class, int.class);
+        method.setAccessible(true);
+        StubInputManager direct = DirectBinder.resolve(binder, StubInputManager.class, "injectInputEvent", Object.class, int.class);
+        Object event = new Object();
+
+        runReflective(binder, method, event, WARMUP_ITERATIONS);
+        runDirect(direct, event, WARMUP_ITERATIONS);
+
+        long start = System.nanoTime();
+        runReflective(binder, method, event, ITERATIONS);
+        long reflectiveNs = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        runDirect(direct, event, ITERATIONS);
+        long directNs = System.nanoTime() - start;
+
+        System.out.println("injectInputEvent() reflective: " + (double) reflectiveNs / ITERATIONS + " ns/call");
+        System.out.println("injectInputEvent() direct:     " + (double) directNs / ITERATIONS + " ns/call");
+    }
+
+    private static int runReflective(IInterface manager, Method method, Object event, int iterations) throws Exception {
+        int accepted = 0;
+        for (int i = 0; i < iterations; ++i) {
+            if ((Boolean) method.invoke(manager, event, i & 1)) {
+                ++accepted;
+            }
+        }
+        return accepted;
+    }
+
+    private static int runDirect(StubInputManager manager, Object event, int iterations) {
+        int accepted = 0;
+        for (int i = 0; i < iterations; ++i) {
+            if (manager.injectInputEvent(event, i & 1)) {
+                ++accepted;
+            }
+        }
+        return accepted;
+    }
+}
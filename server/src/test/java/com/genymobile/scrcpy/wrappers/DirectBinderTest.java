@@ -0,0 +1,42 @@
+package com.genymobile.scrcpy.wrappers;
+
+import android.os.IBinder;
+import android.os.IInterface;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Check method resolution, using a stub service in place of a binder proxy (see {@link DirectBinderBenchmark} for the timings).
+ */
+public class DirectBinderTest {
+
+    public interface StubInputManager extends IInterface {
+        boolean injectInputEvent(Object event, int mode);
+    }
+
+    public interface OtherService extends IInterface {
+        void doSomething();
+    }
+
+    private static final class FakeInputManager implements StubInputManager {
+        @Override
+        public boolean injectInputEvent(Object event, int mode) {
+            return mode == 0;
+        }
+
+        @Override
+        public IBinder asBinder() {
+            return null;
+        }
+    }
+
+    @Test
+    public void testResolve() {
+        FakeInputManager manager = new FakeInputManager();
+        Assert.assertSame(manager, DirectBinder.resolve(manager, StubInputManager.class, "injectInputEvent", Object.class, int.class));
+        Assert.assertNull(DirectBinder.resolve(manager, StubInputManager.class, "injectInputEvent", Object.class, long.class));
+        Assert.assertNull(DirectBinder.resolve(manager, StubInputManager.class, "missingMethod"));
+        Assert.assertNull(DirectBinder.resolve(manager, OtherService.class, "doSomething"));
+    }
+}